@@ -0,0 +1,32 @@
+package shark.benchmarks;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import shark.delegates.Action1;
+import shark.runtime.events.ActionEvent;
+
+/**
+ * Measures invocation of {@link ActionEvent} listeners through the invoker of the event
+ */
+public class ActionEventBenchmark {
+
+    @Test
+    public void invocation() throws Exception {
+
+        Harness.header("ActionEvent invocation");
+
+        for (int handlers : new int[] { 1, 8 }) {
+
+            ActionEvent<Long> event = new ActionEvent<>();
+            Action1<Long> invoker = ActionEvent.getInvoker(event);
+
+            AtomicLong sink = new AtomicLong();
+            for (int i = 0; i < handlers; i++) event.add(sink::addAndGet);
+
+            Harness.run("invoke, " + handlers + " handler(s)", () -> invoker.run(1L));
+            Harness.run("invoke, " + handlers + " handler(s)", 4, () -> invoker.run(1L));
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package shark.benchmarks;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Minimal benchmark harness in the manner of JMH: an operation is run by a number of threads for
+ * a few warm-up iterations, whose results are discarded, then for a few measured iterations of a
+ * fixed duration. Every operation is timed so that throughput and latency percentiles come from
+ * the same run. Iteration counts and durations could be overridden with the system properties
+ * {@code shark.benchmarks.warmup}, {@code shark.benchmarks.iterations} and
+ * {@code shark.benchmarks.time} (milliseconds per iteration)
+ */
+final class Harness {
+
+    /**
+     * Operation to be measured, invoked repeatedly by each benchmark thread
+     */
+    interface Operation {
+        void run() throws Exception;
+    }
+
+    private static final int warmupIterations = Integer.getInteger("shark.benchmarks.warmup", 3);
+    private static final int measuredIterations = Integer.getInteger("shark.benchmarks.iterations", 5);
+    private static final long iterationTime = Long.getLong("shark.benchmarks.time", 1000L);
+
+    /**
+     * Maximum number of latency samples kept per thread and iteration, further operations are
+     * counted but not sampled
+     */
+    private static final int maxSamples = 1 << 20;
+
+    private Harness() {
+    }
+
+    /**
+     * Prints the header of a result table
+     * @param title title of the table
+     */
+    static void header(String title) {
+
+        System.out.println();
+        System.out.println(title + " (" + warmupIterations + " warm-up, " + measuredIterations + " x " + iterationTime + " ms measured)");
+        System.out.println(String.format("%-32s | %7s | %14s | %9s | %9s | %9s | %9s | %9s",
+                "benchmark", "threads", "ops/s", "p50 (us)", "p90 (us)", "p99 (us)", "p99.9 (us)", "max (us)"));
+    }
+
+    /**
+     * Measures an operation on one thread and prints the result
+     * @param name name of the benchmark
+     * @param operation operation to be measured
+     */
+    static void run(String name, Operation operation) throws Exception {
+        run(name, 1, operation);
+    }
+
+    /**
+     * Measures an operation invoked concurrently by a number of threads and prints the result
+     * @param name name of the benchmark
+     * @param threads number of threads invoking the operation
+     * @param operation operation to be measured
+     */
+    static void run(String name, int threads, Operation operation) throws Exception {
+
+        for (int i = 0; i < warmupIterations; i++) _iteration(threads, operation);
+
+        long operations = 0, elapsed = 0;
+        long[][] samples = new long[measuredIterations * threads][];
+
+        for (int i = 0; i < measuredIterations; i++) {
+
+            Sample[] iteration = _iteration(threads, operation);
+
+            long start = Long.MAX_VALUE, end = Long.MIN_VALUE;
+
+            for (int j = 0; j < threads; j++) {
+                operations += iteration[j].count;
+                start = Math.min(start, iteration[j].start);
+                end = Math.max(end, iteration[j].end);
+                samples[i * threads + j] = Arrays.copyOf(iteration[j].latencies, (int) Math.min(iteration[j].count, maxSamples));
+            }
+
+            elapsed += end - start;
+        }
+
+        int total = 0;
+        for (long[] one : samples) total += one.length;
+
+        long[] latencies = new long[total];
+
+        int offset = 0;
+        for (long[] one : samples) {
+            System.arraycopy(one, 0, latencies, offset, one.length);
+            offset += one.length;
+        }
+
+        Arrays.sort(latencies);
+
+        System.out.println(String.format("%-32s | %7d | %14.0f | %9.2f | %9.2f | %9.2f | %9.2f | %9.2f",
+                name,
+                threads,
+                operations * 1e9 / elapsed,
+                _percentile(latencies, 0.5),
+                _percentile(latencies, 0.9),
+                _percentile(latencies, 0.99),
+                _percentile(latencies, 0.999),
+                latencies.length == 0 ? 0 : latencies[latencies.length - 1] / 1000.0));
+    }
+
+    private static double _percentile(long[] sorted, double rank) {
+        return sorted.length == 0 ? 0 : sorted[Math.min(sorted.length - 1, (int) (sorted.length * rank))] / 1000.0;
+    }
+
+    private static final class Sample {
+        final long[] latencies = new long[maxSamples];
+        long count;
+        long start;
+        long end;
+    }
+
+    private static Sample[] _iteration(int threads, Operation operation) throws Exception {
+
+        Sample[] samples = new Sample[threads];
+        Thread[] workers = new Thread[threads];
+
+        CountDownLatch ready = new CountDownLatch(threads);
+        CountDownLatch go = new CountDownLatch(1);
+        AtomicReference<Exception> error = new AtomicReference<>();
+
+        for (int i = 0; i < threads; i++) {
+
+            Sample sample = samples[i] = new Sample();
+
+            workers[i] = new Thread(() -> {
+
+                try {
+
+                    ready.countDown();
+                    go.await();
+
+                    long deadline = System.nanoTime() + iterationTime * 1000000L;
+                    long last = sample.start = System.nanoTime();
+
+                    while (last < deadline) {
+
+                        operation.run();
+
+                        long now = System.nanoTime();
+                        if (sample.count < maxSamples) sample.latencies[(int) sample.count] = now - last;
+
+                        sample.count++;
+                        last = now;
+                    }
+
+                    sample.end = last;
+                }
+                catch (Exception e) {
+                    error.compareAndSet(null, e);
+                }
+            });
+
+            workers[i].start();
+        }
+
+        ready.await();
+        go.countDown();
+
+        for (Thread one : workers) one.join();
+
+        if (error.get() != null) throw error.get();
+
+        return samples;
+    }
+}
@@ -0,0 +1,54 @@
+package shark.benchmarks;
+
+import org.junit.Test;
+
+import shark.runtime.ITypeScopeDistinguishable;
+import shark.runtime.Locker;
+
+/**
+ * Measures {@link Locker#then} while threads lock overlapping sets of shared objects
+ */
+public class LockerBenchmark {
+
+    private static final class Resource implements ITypeScopeDistinguishable {
+
+        private final long id;
+
+        Resource(long id) {
+            this.id = id;
+        }
+
+        @Override
+        public long getTypeScopeUniqueIdentifier() {
+            return id;
+        }
+
+        @Override
+        public ITypeScopeDistinguishable getTypeScopeUniqueInstance() {
+            return this;
+        }
+    }
+
+    private static final Resource[] resources = new Resource[8];
+
+    static {
+        for (int i = 0; i < resources.length; i++) resources[i] = new Resource(i);
+    }
+
+    @Test
+    public void contention() throws Exception {
+
+        Harness.header("Locker.then over 3 of " + resources.length + " shared objects");
+
+        for (int threads : new int[] { 1, 2, 4, 8 }) {
+
+            Harness.run("then", threads, () -> {
+
+                int first = (int) (Thread.currentThread().getId() % resources.length);
+
+                Locker locker = new Locker().acquire(resources[first], resources[(first + 3) % resources.length], resources[(first + 5) % resources.length]);
+                locker.then(() -> first);
+            });
+        }
+    }
+}
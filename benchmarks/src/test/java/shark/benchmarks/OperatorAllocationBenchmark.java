@@ -0,0 +1,111 @@
+package shark.benchmarks;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import shark.delegates.Action;
+import shark.runtime.Operator;
+
+/**
+ * Measures bytes allocated per task, by all threads together, while tasks requeue themselves to
+ * {@link Operator} through its tracked and fire-and-forget paths, the way connections requeue
+ * their read, write and processing operations
+ */
+public class OperatorAllocationBenchmark {
+
+    private static final int rounds = 5;
+    private static final int tasksPerRound = 200000;
+    private static final int chains = 8;
+
+    private static final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private interface Producer {
+        void run(Operator operator, Action task) throws InterruptedException;
+    }
+
+    @Test
+    public void bytesPerTask() throws InterruptedException {
+
+        System.out.println(tasksPerRound + " tasks per round, best of " + rounds + " rounds");
+        System.out.println("path                     | bytes/task");
+
+        _report("queue, capturing lambda", (operator, task) -> operator.queue(() -> task.run()));
+        _report("queue, bound action", Operator::queue);
+        _report("post, bound action", Operator::post);
+    }
+
+    private static void _report(String name, Producer producer) throws InterruptedException {
+
+        Operator operator = new Operator(4, 20, 100);
+
+        double best = Double.MAX_VALUE;
+
+        for (int round = 0; round <= rounds; round++) {
+
+            AtomicInteger remaining = new AtomicInteger(tasksPerRound);
+            CountDownLatch done = new CountDownLatch(chains);
+            Action[] task = new Action[1];
+
+            task[0] = () -> {
+                if (remaining.decrementAndGet() >= chains) {
+                    producer.run(operator, task[0]);
+                } else {
+                    done.countDown();
+                }
+            };
+
+            HashMap<Long, Long> anchor = _snapshot();
+
+            for (int i = 0; i < chains; i++) producer.run(operator, task[0]);
+            done.await();
+
+            double sample = _allocatedSince(anchor) / (double) tasksPerRound;
+
+            // first round warms up threads and recycled nodes of the operator
+            if (round > 0) best = Math.min(best, sample);
+        }
+
+        System.out.println(String.format("%-24s | %10.1f", name, best));
+    }
+
+    /**
+     * Gets the number of bytes allocated by each live thread
+     * @return number of bytes, by thread id
+     */
+    private static HashMap<Long, Long> _snapshot() {
+
+        HashMap<Long, Long> result = new HashMap<>();
+
+        long[] ids = threads.getAllThreadIds();
+        long[] bytes = threads.getThreadAllocatedBytes(ids);
+
+        for (int i = 0; i < ids.length; i++) {
+            if (bytes[i] >= 0) result.put(ids[i], bytes[i]);
+        }
+
+        return result;
+    }
+
+    /**
+     * Gets the number of bytes allocated since a snapshot by threads alive now. Threads, which
+     * terminated in between, are not counted
+     * @param anchor snapshot to compare with
+     * @return number of bytes
+     */
+    private static long _allocatedSince(HashMap<Long, Long> anchor) {
+
+        long total = 0;
+
+        for (Map.Entry<Long, Long> one : _snapshot().entrySet()) {
+            Long before = anchor.get(one.getKey());
+            total += one.getValue() - (before == null ? 0 : before);
+        }
+
+        return total;
+    }
+}
@@ -0,0 +1,67 @@
+package shark.benchmarks;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+import shark.runtime.Operator;
+
+/**
+ * Measures the cost of a dispatcher tick of {@link Operator} while the number of pending delayed
+ * tasks grows. Each measured operation queues a task which is due immediately and waits for it to
+ * complete, so that the dispatcher has to wake up, promote the due task and hand it to a processor
+ * while the pending tasks stay queued.
+ */
+public class OperatorDelayBenchmark {
+
+    private static final int[] pendingTaskCounts = { 100, 1000, 10000, 100000, 1000000 };
+
+    private static final int warmupOperations = 2000;
+    private static final int measuredOperations = 10000;
+
+    @Test
+    public void tickCostByPendingTaskCount() throws InterruptedException {
+
+        System.out.println("pending tasks | queue delayed (ns/op) | tick p50 (us) | tick p99 (us) | tick avg (us)");
+
+        for (int count : pendingTaskCounts) {
+
+            Operator operator = new Operator(4, 20, 100);
+
+            long farAway = System.currentTimeMillis() + 3600000;
+
+            long anchor = System.nanoTime();
+            for (int i = 0; i < count; i++) operator.queue(state -> { }, null, farAway + i % 1000);
+            long queueCost = (System.nanoTime() - anchor) / count;
+
+            for (int i = 0; i < warmupOperations; i++) _tick(operator);
+
+            long[] samples = new long[measuredOperations];
+            for (int i = 0; i < samples.length; i++) samples[i] = _tick(operator);
+
+            Arrays.sort(samples);
+
+            long total = 0;
+            for (long one : samples) total += one;
+
+            System.out.println(String.format("%13d | %21d | %13.1f | %13.1f | %13.1f",
+                    operator.getPendingTaskCount(),
+                    queueCost,
+                    samples[samples.length / 2] / 1000.0,
+                    samples[samples.length * 99 / 100] / 1000.0,
+                    total / 1000.0 / samples.length));
+        }
+    }
+
+    private static long _tick(Operator operator) throws InterruptedException {
+
+        CountDownLatch latch = new CountDownLatch(1);
+
+        long anchor = System.nanoTime();
+        operator.queue(state -> latch.countDown(), null, System.currentTimeMillis());
+        latch.await();
+
+        return System.nanoTime() - anchor;
+    }
+}
@@ -0,0 +1,40 @@
+package shark.benchmarks;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+import shark.runtime.Operator;
+
+/**
+ * Measures dispatch latency of {@link Operator}: the time from queueing a task until the task has
+ * run on a processing thread and signalled the queueing thread
+ */
+public class OperatorQueueBenchmark {
+
+    @Test
+    public void dispatchLatency() throws Exception {
+
+        Operator operator = new Operator(4, 20, 100);
+
+        Harness.header("Operator dispatch latency");
+
+        Harness.run("queue + await", () -> {
+            CountDownLatch done = new CountDownLatch(1);
+            operator.queue(state -> done.countDown(), null);
+            done.await();
+        });
+
+        Harness.run("post + await", () -> {
+            CountDownLatch done = new CountDownLatch(1);
+            operator.post(done::countDown);
+            done.await();
+        });
+
+        Harness.run("queue + await", 4, () -> {
+            CountDownLatch done = new CountDownLatch(1);
+            operator.queue(state -> done.countDown(), null);
+            done.await();
+        });
+    }
+}
@@ -0,0 +1,132 @@
+package shark.benchmarks;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import shark.runtime.ITaskExecutor;
+import shark.runtime.Operator;
+import shark.runtime.WorkStealingExecutor;
+
+/**
+ * Compares throughput of short tasks executed by the default {@link Operator} of
+ * {@link shark.runtime.Parallel} and by {@link WorkStealingExecutor}
+ */
+public class ParallelExecutorBenchmark {
+
+    private static final int rounds = 5;
+    private static final int tasksPerProducer = 100000;
+    private static final int fanOutDepth = 17;
+
+    @Test
+    public void externalProducers() throws InterruptedException {
+
+        int producers = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+        System.out.println("external producers: " + producers + " threads x " + tasksPerProducer + " tasks");
+        System.out.println("executor      | best (ops/s) | average (ops/s)");
+
+        _report("operator", _externalProducers(new Operator(100, 10, 50), producers));
+        _report("work-stealing", _externalProducers(new WorkStealingExecutor(), producers));
+    }
+
+    @Test
+    public void fanOut() throws InterruptedException {
+
+        System.out.println("fan-out: binary tree of depth " + fanOutDepth + ", tasks queued by tasks");
+        System.out.println("executor      | best (ops/s) | average (ops/s)");
+
+        _report("operator", _fanOut(new Operator(100, 10, 50)));
+        _report("work-stealing", _fanOut(new WorkStealingExecutor()));
+    }
+
+    private static void _report(String name, double[] samples) {
+
+        double best = 0, total = 0;
+
+        for (double one : samples) {
+            best = Math.max(best, one);
+            total += one;
+        }
+
+        System.out.println(String.format("%-13s | %12.0f | %15.0f", name, best, total / samples.length));
+    }
+
+    private static double[] _externalProducers(ITaskExecutor executor, int producers) throws InterruptedException {
+
+        double[] samples = new double[rounds + 1];
+
+        for (int round = 0; round < samples.length; round++) {
+
+            int total = producers * tasksPerProducer;
+            AtomicInteger remaining = new AtomicInteger(total);
+            CountDownLatch done = new CountDownLatch(1);
+
+            Thread[] threads = new Thread[producers];
+
+            for (int i = 0; i < producers; i++) {
+                threads[i] = new Thread(() -> {
+                    try {
+                        for (int j = 0; j < tasksPerProducer; j++) {
+                            executor.queue(state -> {
+                                if (remaining.decrementAndGet() == 0) done.countDown();
+                            }, null);
+                        }
+                    }
+                    catch (InterruptedException ignored) {
+                    }
+                });
+            }
+
+            long anchor = System.nanoTime();
+
+            for (Thread one : threads) one.start();
+            done.await();
+
+            samples[round] = total * 1e9 / (System.nanoTime() - anchor);
+        }
+
+        // first round warms up threads of the executor
+        double[] results = new double[rounds];
+        System.arraycopy(samples, 1, results, 0, rounds);
+        return results;
+    }
+
+    private static double[] _fanOut(ITaskExecutor executor) throws InterruptedException {
+
+        double[] samples = new double[rounds + 1];
+
+        for (int round = 0; round < samples.length; round++) {
+
+            int total = (1 << fanOutDepth) - 1;
+            AtomicInteger remaining = new AtomicInteger(total);
+            CountDownLatch done = new CountDownLatch(1);
+
+            long anchor = System.nanoTime();
+
+            _branch(executor, fanOutDepth, remaining, done);
+            done.await();
+
+            samples[round] = total * 1e9 / (System.nanoTime() - anchor);
+        }
+
+        double[] results = new double[rounds];
+        System.arraycopy(samples, 1, results, 0, rounds);
+        return results;
+    }
+
+    private static void _branch(ITaskExecutor executor, int depth, AtomicInteger remaining, CountDownLatch done) throws InterruptedException {
+
+        executor.queue(state -> {
+
+            if (depth > 1) {
+                _branch(executor, depth - 1, remaining, done);
+                _branch(executor, depth - 1, remaining, done);
+            }
+
+            if (remaining.decrementAndGet() == 0) done.countDown();
+
+        }, null);
+    }
+}
@@ -0,0 +1,44 @@
+package shark.benchmarks;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import shark.runtime.Parallel;
+
+/**
+ * Measures throughput of {@link Parallel#loop}, {@link Parallel#range} and {@link Parallel#each}
+ * over collections of cheap iterations, where scheduling overhead dominates
+ */
+public class ParallelLoopBenchmark {
+
+    private static final int size = 10000;
+
+    @Test
+    public void loopThroughput() throws Exception {
+
+        ArrayList<Integer> items = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) items.add(i);
+
+        AtomicLong sink = new AtomicLong();
+
+        Harness.header("Parallel loops over " + size + " iterations, one operation is a whole loop");
+
+        Harness.run("loop", () -> Parallel.loop(0, size, i -> {
+            if (i == size - 1) sink.incrementAndGet();
+        }));
+
+        Harness.run("range", () -> Parallel.range(0, size, i -> {
+            if (i == size - 1) sink.incrementAndGet();
+        }));
+
+        Harness.run("each", () -> Parallel.each(items, one -> {
+            if (one == size - 1) sink.incrementAndGet();
+        }));
+
+        Harness.run("range", 2, () -> Parallel.range(0, size, i -> {
+            if (i == size - 1) sink.incrementAndGet();
+        }));
+    }
+}
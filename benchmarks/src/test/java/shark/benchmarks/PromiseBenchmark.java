@@ -0,0 +1,45 @@
+package shark.benchmarks;
+
+import org.junit.Test;
+
+import java.util.concurrent.SynchronousQueue;
+
+import shark.delegates.Action1;
+import shark.runtime.Promise;
+
+/**
+ * Measures wake-up latency of {@link Promise#result()}: a resolver is handed to another thread,
+ * which resolves the promise at once, while the measuring thread waits for the result
+ */
+public class PromiseBenchmark {
+
+    @Test
+    public void wakeUpLatency() throws Exception {
+
+        SynchronousQueue<Action1<Integer>> resolvers = new SynchronousQueue<>();
+
+        Thread resolver = new Thread(() -> {
+            try {
+                //noinspection InfiniteLoopStatement
+                while (true) resolvers.take().run(1);
+            }
+            catch (InterruptedException ignored) {
+            }
+        });
+
+        resolver.setDaemon(true);
+        resolver.start();
+
+        Harness.header("Promise wake-up latency");
+
+        Harness.run("result, resolved by other thread", () -> {
+            Promise<Integer> promise = new Promise<>();
+            resolvers.put(Promise.getResolver(promise));
+            promise.result();
+        });
+
+        Harness.run("result, already resolved", () -> new Promise<>(1).result());
+
+        resolver.interrupt();
+    }
+}
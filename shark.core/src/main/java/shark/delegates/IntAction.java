@@ -0,0 +1,14 @@
+package shark.delegates;
+
+/**
+ * Describes a method with no return value and accept 1 primitive integer parameter
+ */
+@FunctionalInterface
+public interface IntAction {
+
+    /**
+     * Invokes the method
+     * @param arg parameter
+     */
+    void run(int arg);
+}
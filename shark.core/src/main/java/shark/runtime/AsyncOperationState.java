@@ -1,6 +1,13 @@
 package shark.runtime;
 
+import android.annotation.TargetApi;
+import android.os.Build;
+
 import java.util.LinkedList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import shark.delegates.Action2;
 
@@ -9,6 +16,8 @@ import shark.delegates.Action2;
  */
 public abstract class AsyncOperationState implements IAsyncOperationState {
 
+    private static final Task _callbackRunner = state -> ((_CallbackInfo) state).invoke();
+
     class _CallbackInfo {
 
         final Action2<IAsyncOperationState, Object> callback;
@@ -27,6 +36,10 @@ public abstract class AsyncOperationState implements IAsyncOperationState {
             this.callback = callback;
             this.state = state;
         }
+
+        void invoke() {
+            try { callback.run(AsyncOperationState.this, state); } catch (Exception ignored) { }
+        }
     }
 
     class _CallbackConverterInfo<T> {
@@ -56,8 +69,11 @@ public abstract class AsyncOperationState implements IAsyncOperationState {
 
     private final LinkedList<_CallbackInfo> _callbacks = new LinkedList<>();
 
+    private CountDownLatch _latch = null;
+    private volatile ITaskExecutor _callbackExecutor = null;
+
     private boolean isWaiting = true;
-    private boolean isCompleted = false;
+    private volatile boolean isCompleted = false;
     private boolean isSucceed = false;
     private boolean isFailed = false;
     private Exception exception = null;
@@ -124,7 +140,7 @@ public abstract class AsyncOperationState implements IAsyncOperationState {
 
         synchronized (_callbacks) {
             if (isCompleted) {
-                try { callback.run(this, state); } catch (Exception ignored) { }
+                _invoke(new _CallbackInfo(callback, state));
             }
             else {
                 _callbacks.add(new _CallbackInfo(callback, state));
@@ -132,6 +148,114 @@ public abstract class AsyncOperationState implements IAsyncOperationState {
         }
     }
 
+    /**
+     * Gets the executor, which invokes callbacks of the operation
+     * @return executor of callbacks, or null if callbacks are invoked by the thread which
+     * completes the operation
+     */
+    public final ITaskExecutor getCallbackExecutor() {
+        return _callbackExecutor;
+    }
+
+    /**
+     * Sets the executor, which invokes callbacks of the operation, such as an {@link Operator}
+     * dedicated to callbacks. Callbacks are posted to the executor when the operation is
+     * completed, or when they are registered after the operation is completed
+     * @param executor executor of callbacks, null to invoke callbacks on the thread which
+     *                 completes the operation
+     */
+    public final void setCallbackExecutor(ITaskExecutor executor) {
+        _callbackExecutor = executor;
+    }
+
+    /**
+     * Blocks the calling thread until the operation is completed
+     * @exception InterruptedException throws if the calling thread is interrupted before the
+     * operation is completed
+     */
+    public final void await() throws InterruptedException {
+
+        CountDownLatch latch = _latch();
+        if (latch != null) latch.await();
+    }
+
+    /**
+     * Blocks the calling thread until the operation is completed or a specified time elapses
+     * @param timeout maximum time, in milliseconds, to wait
+     * @return true if the operation is completed; otherwise false
+     * @exception InterruptedException throws if the calling thread is interrupted before the
+     * operation is completed
+     */
+    public final boolean await(long timeout) throws InterruptedException {
+
+        CountDownLatch latch = _latch();
+        return latch == null || latch.await(timeout, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Gets a {@link CompletionStage}, which is completed with the response of the operation if it
+     * succeeds, or exceptionally with the cause of its failure. Completion stages are available
+     * from API level 24 ({@link Build.VERSION_CODES#N}) only
+     * @return completion stage of the operation
+     * @throws UnsupportedOperationException throws if the API level of the device is lower than 24
+     */
+    @TargetApi(Build.VERSION_CODES.N)
+    public final CompletionStage<Object> toCompletionStage() {
+
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) throw new UnsupportedOperationException("Completion stages require API level 24");
+
+        CompletableFuture<Object> future = new CompletableFuture<>();
+
+        registerCallback((result, state) -> {
+
+            if (result.isSucceed()) {
+                future.complete(result.getResponse());
+            } else {
+                future.completeExceptionally(result.getException() != null ? result.getException() : new IllegalStateException("Operation is failed"));
+            }
+        }, null);
+
+        return future;
+    }
+
+    /**
+     * Gets the latch, which is released when the operation is completed
+     * @return latch of the operation, or null if the operation is already completed
+     */
+    private CountDownLatch _latch() {
+
+        if (isCompleted) return null;
+
+        synchronized (_callbacks) {
+            if (isCompleted) return null;
+            if (_latch == null) _latch = new CountDownLatch(1);
+            return _latch;
+        }
+    }
+
+    /**
+     * Invokes a callback on the calling thread, or posts it to the callback executor if one is
+     * set
+     * @param info callback to be invoked
+     */
+    private void _invoke(_CallbackInfo info) {
+
+        ITaskExecutor executor = _callbackExecutor;
+
+        if (executor != null) {
+
+            try {
+                executor.post(_callbackRunner, info, TaskPriority.Normal);
+                return;
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        info.invoke();
+    }
+
     /**
      * Registers a callback to be invoked then the operation is completed
      * @param callback callback to be registered
@@ -172,11 +296,9 @@ public abstract class AsyncOperationState implements IAsyncOperationState {
             isSucceed = true;
 
             isCompleted = true;
+            if (_latch != null) _latch.countDown();
 
-            while (!_callbacks.isEmpty()){
-                _CallbackInfo info = _callbacks.pop();
-                try { info.getCallback().run(this, info.getState()); } catch (Exception ignored) {}
-            }
+            while (!_callbacks.isEmpty()) _invoke(_callbacks.pop());
         }
     }
 
@@ -195,14 +317,9 @@ public abstract class AsyncOperationState implements IAsyncOperationState {
             isFailed = true;
 
             isCompleted = true;
+            if (_latch != null) _latch.countDown();
 
-            while (!_callbacks.isEmpty()) {
-                _CallbackInfo info = _callbacks.pop();
-                try {
-                    info.getCallback().run(this, info.getState());
-                } catch (Exception ignored) {
-                }
-            }
+            while (!_callbacks.isEmpty()) _invoke(_callbacks.pop());
         }
     }
 
@@ -0,0 +1,20 @@
+package shark.runtime;
+
+/**
+ * Describes kinds of threads, on which tasks of {@link Worker} and {@link Operator} are executed
+ */
+public enum ExecutionMode {
+
+    /**
+     * Tasks are executed on platform threads, each of which is backed by an operating system
+     * thread
+     */
+    Platform,
+
+    /**
+     * Tasks are executed on virtual threads, which are scheduled by the runtime on a small pool of
+     * platform threads and release it while blocked. If the runtime does not support virtual
+     * threads, platform threads are used instead
+     */
+    Virtual
+}
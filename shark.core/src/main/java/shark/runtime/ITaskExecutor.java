@@ -0,0 +1,104 @@
+package shark.runtime;
+
+/**
+ * Defines an object which executes queued tasks on a pool of threads. {@link Parallel} queues its
+ * tasks through an instance of this interface, which could be replaced to change the way tasks
+ * are scheduled.
+ * @see Operator
+ * @see WorkStealingExecutor
+ */
+public interface ITaskExecutor {
+
+    /**
+     * Queues a task to be executed as soon as possible
+     * @param task task to be executed
+     * @param state object to be passed to the task
+     * @return object, provides information about the task execution
+     *
+     * @exception InterruptedException throws if the calling thread is interrupted be for the
+     * queueing operation is completed
+     */
+    TaskState queue(Task task, Object state) throws InterruptedException;
+
+    /**
+     * Queues a task to be executed after a specified time
+     * @param task task to be executed
+     * @param state object to be passed to the task
+     * @param invocationStamp time, after which the task should be executed
+     * @return object, provides information about the task execution
+     *
+     * @exception InterruptedException throws if the calling thread is interrupted be for the
+     * queueing operation is completed
+     */
+    TaskState queue(Task task, Object state, long invocationStamp) throws InterruptedException;
+
+    /**
+     * Queues a task to be executed as soon as possible
+     * @param task task to be executed
+     * @param state object to be passed to the task
+     * @param priority priority of the task. Executors, which do not distinguish priorities,
+     *                 treat all tasks as {@link TaskPriority#Normal}
+     * @return object, provides information about the task execution
+     *
+     * @exception InterruptedException throws if the calling thread is interrupted be for the
+     * queueing operation is completed
+     */
+    TaskState queue(Task task, Object state, TaskPriority priority) throws InterruptedException;
+
+    /**
+     * Queues a task to be executed after a specified time
+     * @param task task to be executed
+     * @param state object to be passed to the task
+     * @param invocationStamp time, after which the task should be executed
+     * @param priority priority of the task. Executors, which do not distinguish priorities,
+     *                 treat all tasks as {@link TaskPriority#Normal}
+     * @return object, provides information about the task execution
+     *
+     * @exception InterruptedException throws if the calling thread is interrupted be for the
+     * queueing operation is completed
+     */
+    TaskState queue(Task task, Object state, long invocationStamp, TaskPriority priority) throws InterruptedException;
+
+    /**
+     * Queues a task to be executed as soon as possible without tracking its execution
+     * @param task task to be executed
+     * @param state object to be passed to the task
+     * @param priority priority of the task. Executors, which do not distinguish priorities,
+     *                 treat all tasks as {@link TaskPriority#Normal}
+     *
+     * @exception InterruptedException throws if the calling thread is interrupted be for the
+     * queueing operation is completed
+     */
+    void post(Task task, Object state, TaskPriority priority) throws InterruptedException;
+
+    /**
+     * Queues a task to be executed after a specified time without tracking its execution
+     * @param task task to be executed
+     * @param state object to be passed to the task
+     * @param invocationStamp time, after which the task should be executed
+     * @param priority priority of the task. Executors, which do not distinguish priorities,
+     *                 treat all tasks as {@link TaskPriority#Normal}
+     *
+     * @exception InterruptedException throws if the calling thread is interrupted be for the
+     * queueing operation is completed
+     */
+    void post(Task task, Object state, long invocationStamp, TaskPriority priority) throws InterruptedException;
+
+    /**
+     * Gets the number of running threads
+     * @return number of threads
+     */
+    int getThreadCount();
+
+    /**
+     * Gets the number of tasks, not yet reached execution time
+     * @return number of tasks
+     */
+    int getPendingTaskCount();
+
+    /**
+     * Gets the number of tasks, waiting to be executed
+     * @return number of tasks
+     */
+    int getWaitingTaskCount();
+}
@@ -0,0 +1,137 @@
+package shark.runtime;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records durations, in nanoseconds, into log-linear buckets in the manner of HDR histograms:
+ * every power of two is split into 32 linear sub-buckets, so that any recorded value is reported
+ * with a relative error below 3.2% while the histogram keeps a fixed size. Recording is lock-free
+ * and allocation-free.
+ */
+@SuppressWarnings("WeakerAccess")
+public final class LatencyHistogram {
+
+    private static final int subBucketBits = 5;
+    private static final int subBucketCount = 1 << subBucketBits;
+    private static final int linearLimit = subBucketCount << 1;
+    private static final int bucketCount = linearLimit + (62 - subBucketBits) * subBucketCount;
+
+    private final AtomicLongArray counts = new AtomicLongArray(bucketCount);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    private static int _index(long value) {
+
+        if (value < linearLimit) return (int) value;
+
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - subBucketBits;
+
+        return linearLimit + (exponent - subBucketBits - 1) * subBucketCount + (int) ((value >>> shift) & (subBucketCount - 1));
+    }
+
+    private static long _highestValue(int index) {
+
+        if (index < linearLimit) return index;
+
+        int exponent = (index - linearLimit) / subBucketCount + subBucketBits + 1;
+        int sub = (index - linearLimit) % subBucketCount;
+        int shift = exponent - subBucketBits;
+
+        return ((long) (subBucketCount + sub) << shift) + (1L << shift) - 1;
+    }
+
+    /**
+     * Records a duration
+     * @param nanos duration in nanoseconds, negative values are recorded as zero
+     */
+    public void record(long nanos) {
+
+        if (nanos < 0) nanos = 0;
+
+        counts.incrementAndGet(_index(nanos));
+        total.incrementAndGet();
+        sum.addAndGet(nanos);
+
+        long current;
+        while (nanos > (current = max.get()) && !max.compareAndSet(current, nanos)) {
+            // retry until the maximum is published
+        }
+    }
+
+    /**
+     * Gets the number of recorded durations
+     * @return number of durations
+     */
+    public long getCount() {
+        return total.get();
+    }
+
+    /**
+     * Gets the longest recorded duration
+     * @return duration in nanoseconds
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Gets the average of recorded durations
+     * @return duration in nanoseconds, or 0 if nothing is recorded
+     */
+    public double getMean() {
+        long count = total.get();
+        return count == 0 ? 0 : sum.get() / (double) count;
+    }
+
+    /**
+     * Gets the duration, below or at which a specified percentage of recorded durations are
+     * @param percentile percentage, from 0 to 100
+     * @return duration in nanoseconds, or 0 if nothing is recorded
+     */
+    public long getPercentile(double percentile) {
+
+        long count = total.get();
+        if (count == 0) return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(count * Math.min(100, Math.max(0, percentile)) / 100));
+        long seen = 0;
+
+        for (int i = 0; i < bucketCount; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) return Math.min(_highestValue(i), max.get());
+        }
+
+        return max.get();
+    }
+
+    /**
+     * Copies recorded durations into a new histogram and clears this histogram. Durations
+     * recorded concurrently are either moved to the copy or kept by this histogram
+     * @return histogram of durations recorded since the last reset
+     */
+    public LatencyHistogram drain() {
+
+        LatencyHistogram result = new LatencyHistogram();
+
+        for (int i = 0; i < bucketCount; i++) {
+            long one = counts.getAndSet(i, 0);
+            if (one != 0) result.counts.set(i, one);
+        }
+
+        result.total.set(total.getAndSet(0));
+        result.sum.set(sum.getAndSet(0));
+        result.max.set(max.getAndSet(0));
+
+        return result;
+    }
+
+    /**
+     * Clears recorded durations
+     */
+    public void reset() {
+        drain();
+    }
+}
@@ -1,68 +1,272 @@
 package shark.runtime;
 
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 import shark.delegates.Action;
 import shark.delegates.Function;
 import shark.utils.Log;
 
+/**
+ * Runs actions while holding locks of a set of objects. Objects are mapped to a fixed table of
+ * striped locks, the index of a stripe in the table is the global lock order, so that lockers
+ * acquiring overlapping sets of objects never deadlock. Within the stripes, monitors of the objects
+ * are held as well, so runs stay mutually exclusive with code synchronizing on the same objects.
+ * The ordered lock plan of a locker is computed once after its objects change, and reused by later
+ * runs. A locker without objects holds a stripe and the monitor of its own, so that its runs are
+ * still serialized.
+ *
+ * Runs could be nested. Since unrelated objects share stripes, a nested run could need a stripe
+ * lower than one already held by the thread; such a run does not take the stripes, it holds only
+ * the monitors of its objects, in the same order, which keeps it exclusive with other runs
+ */
 public final class Locker {
 
-    private static final HashMap<Class<?>, Integer> _mappedTypes = new HashMap<>();
+    private static final int _stripeBits = 10;
+    private static final ReentrantLock[] _stripes = new ReentrantLock[1 << _stripeBits];
+
+    private static final ConcurrentHashMap<Class<?>, Integer> _mappedTypes = new ConcurrentHashMap<>();
+    private static final AtomicInteger _typeCount = new AtomicInteger();
+
+    /**
+     * Highest stripe held by each thread, or -1 if the thread holds none. Runs are scoped, so a
+     * nested run restores the stripe of the enclosing run when it completes
+     */
+    private static final ThreadLocal<int[]> _highest = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[] { -1 };
+        }
+    };
+
+    static {
+        for (int i = 0; i < _stripes.length; i++) _stripes[i] = new ReentrantLock();
+    }
+
     private final HashSet<ITypeScopeDistinguishable> _objects = new HashSet<>();
+    private Plan _lockPlan = null;
 
-    private static <T> T _process(Object[] objects, int index, Object handler) {
+    /**
+     * Locks taken by runs of a locker
+     */
+    private static final class Plan {
 
-        synchronized (objects[index]) {
-            if (objects.length > index + 1) {
-                return _process(objects, index + 1, handler);
-            }
-            else {
-                if (handler instanceof Runnable) {
-                    ((Runnable)handler).run();
-                    return null;
-                }
-                else {
-                    //noinspection unchecked
-                    return ((Function<T>)handler).run();
-                }
-            }
+        /**
+         * Indexes of distinct stripes of the objects, in ascending order
+         */
+        final int[] stripes;
+
+        /**
+         * Type scope unique instances of the objects, ordered by their stripes, types and identifiers
+         */
+        final Object[] monitors;
+
+        Plan(int[] stripes, Object[] monitors) {
+            this.stripes = stripes;
+            this.monitors = monitors;
         }
     }
 
-    private static ITypeScopeDistinguishable[] _sort(HashSet<ITypeScopeDistinguishable> objects) {
+    /**
+     * Gets the rank of a type, assigned when the type is seen for the first time
+     * @param type type to be ranked
+     * @return rank of the type
+     */
+    private static int _rank(Class<?> type) {
+
+        Integer rank = _mappedTypes.get(type);
+        if (rank != null) return rank;
+
+        Integer assigned = _mappedTypes.putIfAbsent(type, _typeCount.getAndIncrement());
+        return assigned != null ? assigned : _mappedTypes.get(type);
+    }
+
+    /**
+     * Gets the stripe of an object
+     * @param instance type scope unique instance of the object
+     * @return index of the stripe
+     */
+    private static int _stripe(ITypeScopeDistinguishable instance) {
+        return _stripe(instance.getTypeScopeUniqueIdentifier() ^ ((long) _rank(instance.getClass()) << 48));
+    }
+
+    private static int _stripe(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> (64 - _stripeBits));
+    }
+
+    /**
+     * Computes the lock plan of a set of objects. Stripes are collected in a bitmap of the table,
+     * monitors are sorted once here, so runs only walk the plan
+     * @param objects objects to be locked
+     * @return lock plan, without stripes and monitors if no object has a type scope unique instance
+     */
+    private static Plan _plan(HashSet<ITypeScopeDistinguishable> objects) {
+
+        long[] bitmap = new long[_stripes.length >>> 6];
+        int count = 0;
 
-        HashMap<ITypeScopeDistinguishable, Integer> buffer1 = new HashMap<>();
+        HashSet<ITypeScopeDistinguishable> instances = new HashSet<>();
 
         for (ITypeScopeDistinguishable obj : objects) {
 
             ITypeScopeDistinguishable instance = obj.getTypeScopeUniqueInstance();
+            if (instance == null || !instances.add(instance)) continue;
 
-            if (instance == null || buffer1.containsKey(instance)) continue;
+            int stripe = _stripe(instance);
+            long bit = 1L << (stripe & 63);
 
-            Class<?> T = instance.getClass();
+            if ((bitmap[stripe >>> 6] & bit) == 0) {
+                bitmap[stripe >>> 6] |= bit;
+                count++;
+            }
+        }
 
-            synchronized (_mappedTypes) {
-                if (!_mappedTypes.containsKey(T)) _mappedTypes.put(T, _mappedTypes.size());
-                buffer1.put(instance, _mappedTypes.get(T));
+        int[] stripes = new int[count];
+        int index = 0;
+
+        for (int i = 0; i < bitmap.length && index < count; i++) {
+
+            long word = bitmap[i];
+
+            while (word != 0) {
+                stripes[index++] = (i << 6) + Long.numberOfTrailingZeros(word);
+                word &= word - 1;
             }
         }
 
-        ITypeScopeDistinguishable[] result = buffer1.keySet().toArray(new ITypeScopeDistinguishable[0]);
+        ITypeScopeDistinguishable[] monitors = instances.toArray(new ITypeScopeDistinguishable[0]);
 
-        for (int i = 0; i < result.length - 1; i++) {
-            for (int j = i + 1; j < result.length; j++) {
-                //noinspection ConstantConditions
-                if (buffer1.get(result[i]) > buffer1.get(result[j]) || result[i].getTypeScopeUniqueIdentifier() > result[j].getTypeScopeUniqueIdentifier()){
-                    ITypeScopeDistinguishable buffer2 = result[i];
-                    result[i] = result[j];
-                    result[j] = buffer2;
-                }
+        Arrays.sort(monitors, (a, b) -> {
+
+            int result = Integer.compare(_stripe(a), _stripe(b));
+            if (result == 0) result = Integer.compare(_rank(a.getClass()), _rank(b.getClass()));
+            if (result == 0) result = Long.compare(a.getTypeScopeUniqueIdentifier(), b.getTypeScopeUniqueIdentifier());
+
+            return result;
+        });
+
+        return new Plan(stripes, monitors);
+    }
+
+    /**
+     * Indicates whether locks of a plan could be awaited without breaking the global lock order,
+     * that is whether every stripe of the plan, which is not held by the calling thread yet, is
+     * higher than the stripes it holds
+     * @param stripes stripes of a lock plan
+     * @param highest highest stripe held by the calling thread
+     * @return true if the locks could be awaited; otherwise false
+     */
+    private static boolean _isOrdered(int[] stripes, int highest) {
+
+        for (int stripe : stripes) {
+            if (stripe >= highest) return true;
+            if (!_stripes[stripe].isHeldByCurrentThread()) return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Acquires stripes of a plan in order, unless the plan is nested out of the global lock order
+     * @param stripes stripes of a lock plan
+     * @return highest stripe held by the calling thread before the stripes are locked, or
+     * {@link Integer#MIN_VALUE} if the stripes are not locked
+     */
+    private static int _lock(int[] stripes) {
+
+        int[] highest = _highest.get();
+        int previous = highest[0];
+
+        if (!_isOrdered(stripes, previous)) return Integer.MIN_VALUE;
+
+        for (int stripe : stripes) _stripes[stripe].lock();
+
+        highest[0] = Math.max(previous, stripes[stripes.length - 1]);
+        return previous;
+    }
+
+    /**
+     * Acquires stripes of a plan in order, if they could be acquired in time, unless the plan is
+     * nested out of the global lock order
+     * @param stripes stripes of a lock plan
+     * @param timeout maximum time, in milliseconds, to wait for the stripes
+     * @return highest stripe held by the calling thread before the stripes are locked, or
+     * {@link Integer#MIN_VALUE} if the stripes are not locked
+     * @throws TimeoutException throws if the stripes could not be acquired in time, no stripe of
+     * the plan is held then
+     * @throws InterruptedException throws if the calling thread is interrupted while waiting
+     * for the stripes
+     */
+    private static int _tryLock(int[] stripes, long timeout) throws TimeoutException, InterruptedException {
+
+        int[] highest = _highest.get();
+        int previous = highest[0];
+
+        if (!_isOrdered(stripes, previous)) return Integer.MIN_VALUE;
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, timeout));
+
+        for (int i = 0; i < stripes.length; i++) {
+
+            boolean locked = false;
+
+            try {
+                locked = _stripes[stripes[i]].tryLock(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            }
+            finally {
+                if (!locked) _unlock(stripes, i);
             }
+
+            if (!locked) throw new TimeoutException();
         }
 
-        return result;
+        highest[0] = Math.max(previous, stripes[stripes.length - 1]);
+        return previous;
+    }
+
+    /**
+     * Releases first stripes of a plan in reverse order
+     * @param stripes stripes of a lock plan
+     * @param count number of stripes to be released
+     */
+    private static void _unlock(int[] stripes, int count) {
+        for (int i = count - 1; i >= 0; i--) _stripes[stripes[i]].unlock();
+    }
+
+    /**
+     * Releases stripes of a plan in reverse order, if they were locked
+     * @param stripes stripes of a lock plan
+     * @param previous highest stripe held by the calling thread before the stripes were locked, or
+     * {@link Integer#MIN_VALUE} if they were not locked
+     */
+    private static void _release(int[] stripes, int previous) {
+
+        if (previous == Integer.MIN_VALUE) return;
+
+        _unlock(stripes, stripes.length);
+        _highest.get()[0] = previous;
+    }
+
+    /**
+     * Gets the lock plan of the locker, computing it if the objects changed
+     * @return lock plan, never empty
+     */
+    private Plan _plan() {
+
+        synchronized (_objects) {
+
+            if (_lockPlan == null) {
+                _lockPlan = _plan(_objects);
+                if (_lockPlan.stripes.length == 0) _lockPlan = new Plan(new int[] { _stripe(System.identityHashCode(this)) }, new Object[] { this });
+            }
+
+            return _lockPlan;
+        }
     }
 
     @SuppressWarnings("WeakerAccess")
@@ -75,7 +279,7 @@ public final class Locker {
             if (object != null) {
 
                 synchronized (_objects) {
-                    _objects.add(object);
+                    if (_objects.add(object)) _lockPlan = null;
                 }
             }
         }
@@ -87,7 +291,7 @@ public final class Locker {
             if (object != null) {
 
                 synchronized (_objects) {
-                    _objects.remove(object);
+                    if (_objects.remove(object)) _lockPlan = null;
                 }
             }
         }
@@ -104,25 +308,45 @@ public final class Locker {
     }
 
     public Locker then(Action action) throws Exception {
+
         if (action == null) throw new IllegalArgumentException();
 
-        synchronized (_objects) {
-            try {
-                if (_objects.size() == 0) {
-                    action.run();
-                }
-                else {
-                    _process(_sort(_objects), 0, action);
-                }
-            }
-            catch (Exception e) {
-                Log.error(Locker.class,
-                        "Error detected while running action",
-                        "Action: " + action.getClass().getName(),
-                        "Error: " + e.getMessage(),
-                        Log.stringify(e.getStackTrace()));
-                throw e;
-            }
+        Plan plan = _plan();
+
+        int previous = _lock(plan.stripes);
+
+        try {
+            _run(plan.monitors, 0, action);
+        }
+        finally {
+            _release(plan.stripes, previous);
+        }
+
+        return this;
+    }
+
+    /**
+     * Runs an action while holding locks of the objects, if the locks could be acquired in time
+     * @param action action to be run
+     * @param timeout maximum time, in milliseconds, to wait for the locks
+     * @return current locker
+     * @throws TimeoutException throws if the stripes could not be acquired in time, the action is
+     * not run then. Monitors of the objects are awaited without a timeout
+     * @throws Exception throws if the action fails
+     */
+    public Locker then(Action action, long timeout) throws Exception {
+
+        if (action == null) throw new IllegalArgumentException();
+
+        Plan plan = _plan();
+
+        int previous = _tryLock(plan.stripes, timeout);
+
+        try {
+            _run(plan.monitors, 0, action);
+        }
+        finally {
+            _release(plan.stripes, previous);
         }
 
         return this;
@@ -130,23 +354,90 @@ public final class Locker {
 
     public <T> T then(final Function<T> function) {
 
-        synchronized (_objects) {
-            try {
-                if (_objects.size() == 0) {
-                    return function.run();
-                }
-                else {
-                    return _process(_sort(_objects), 0, function);
-                }
+        if (function == null) throw new IllegalArgumentException();
+
+        Plan plan = _plan();
+
+        int previous = _lock(plan.stripes);
+
+        try {
+            return _run(plan.monitors, 0, function);
+        }
+        finally {
+            _release(plan.stripes, previous);
+        }
+    }
+
+    /**
+     * Runs a function while holding locks of the objects, if the locks could be acquired in time
+     * @param function function to be run
+     * @param timeout maximum time, in milliseconds, to wait for the locks
+     * @param <T> type of function result
+     * @return result of the function
+     * @throws TimeoutException throws if the stripes could not be acquired in time, the function is
+     * not run then. Monitors of the objects are awaited without a timeout
+     * @throws InterruptedException throws if the calling thread is interrupted while waiting for
+     * the locks
+     */
+    public <T> T then(final Function<T> function, long timeout) throws TimeoutException, InterruptedException {
+
+        if (function == null) throw new IllegalArgumentException();
+
+        Plan plan = _plan();
+
+        int previous = _tryLock(plan.stripes, timeout);
+
+        try {
+            return _run(plan.monitors, 0, function);
+        }
+        finally {
+            _release(plan.stripes, previous);
+        }
+    }
+
+    private static void _run(Object[] monitors, int index, Action action) throws Exception {
+
+        if (index < monitors.length) {
+
+            synchronized (monitors[index]) {
+                _run(monitors, index + 1, action);
             }
-            catch (Exception e) {
-                Log.error(Locker.class,
-                        "Error detected while running function",
-                        "Function: " + function.getClass().getName(),
-                        "Error: " + e.getMessage(),
-                        Log.stringify(e.getStackTrace()));
-                throw e;
+
+            return;
+        }
+
+        try {
+            action.run();
+        }
+        catch (Exception e) {
+            Log.error(Locker.class,
+                    "Error detected while running action",
+                    "Action: " + action.getClass().getName(),
+                    "Error: " + e.getMessage(),
+                    Log.stringify(e.getStackTrace()));
+            throw e;
+        }
+    }
+
+    private static <T> T _run(Object[] monitors, int index, Function<T> function) {
+
+        if (index < monitors.length) {
+
+            synchronized (monitors[index]) {
+                return _run(monitors, index + 1, function);
             }
         }
+
+        try {
+            return function.run();
+        }
+        catch (Exception e) {
+            Log.error(Locker.class,
+                    "Error detected while running function",
+                    "Function: " + function.getClass().getName(),
+                    "Error: " + e.getMessage(),
+                    Log.stringify(e.getStackTrace()));
+            throw e;
+        }
     }
 }
@@ -0,0 +1,260 @@
+package shark.runtime;
+
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import shark.io.File;
+import shark.utils.Log;
+
+/**
+ * Shark Metrics Registry. Execution metrics of operators and workers are registered by name and
+ * could be reported on demand or exported periodically to the log or to a file. Each report line
+ * describes one source: tasks per second since the previous report, completed, failed and
+ * rejected tasks, started and stopped threads, and queue wait and run time percentiles
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public final class Metrics {
+
+    private Metrics() {
+    }
+
+    private static final class Source {
+
+        final TaskMetrics metrics;
+        long lastCompletedCount;
+        long lastStamp;
+
+        Source(TaskMetrics metrics) {
+            this.metrics = metrics;
+            this.lastCompletedCount = metrics.getCompletedCount() + metrics.getFailedCount();
+            this.lastStamp = System.nanoTime();
+        }
+    }
+
+    private static final LinkedHashMap<String, Source> registeredSources = new LinkedHashMap<>();
+
+    private static long exportVersion = 0;
+
+    /**
+     * Registers metrics with a name. Metrics registered before with the same name are replaced
+     * @param name name of the metrics source
+     * @param metrics metrics to be registered
+     */
+    public static void register(String name, TaskMetrics metrics) {
+
+        if (name == null) throw new IllegalArgumentException("name");
+        if (metrics == null) throw new IllegalArgumentException("metrics");
+
+        synchronized (registeredSources) {
+            registeredSources.put(name, new Source(metrics));
+        }
+    }
+
+    /**
+     * Registers metrics of an operator with a name
+     * @param name name of the operator
+     * @param operator operator to be registered
+     */
+    public static void register(String name, Operator operator) {
+
+        if (operator == null) throw new IllegalArgumentException("operator");
+        register(name, operator.getMetrics());
+    }
+
+    /**
+     * Registers metrics of a worker with a name
+     * @param name name of the worker
+     * @param worker worker to be registered
+     */
+    public static void register(String name, Worker worker) {
+
+        if (worker == null) throw new IllegalArgumentException("worker");
+        register(name, worker.getMetrics());
+    }
+
+    /**
+     * Unregisters metrics
+     * @param name name of the metrics source
+     */
+    public static void unregister(String name) {
+
+        synchronized (registeredSources) {
+            registeredSources.remove(name);
+        }
+    }
+
+    /**
+     * Gets registered metrics
+     * @param name name of the metrics source
+     * @return metrics, or null if no metrics is registered with the name
+     */
+    public static TaskMetrics get(String name) {
+
+        synchronized (registeredSources) {
+            Source source = registeredSources.get(name);
+            return source == null ? null : source.metrics;
+        }
+    }
+
+    /**
+     * Gets names of registered metrics, in registration order
+     * @return names of metrics sources
+     */
+    public static String[] getNames() {
+
+        synchronized (registeredSources) {
+            return registeredSources.keySet().toArray(new String[0]);
+        }
+    }
+
+    /**
+     * Reports registered metrics, one line per source. Throughput is calculated over the time
+     * elapsed since the previous report
+     * @param reset true to clear wait and run time histograms after they are reported, so that
+     *              each report only describes its own interval; otherwise false
+     * @return report lines
+     */
+    public static String[] report(boolean reset) {
+
+        ArrayList<String> lines = new ArrayList<>();
+
+        synchronized (registeredSources) {
+
+            long now = System.nanoTime();
+
+            for (Map.Entry<String, Source> one : registeredSources.entrySet()) {
+
+                Source source = one.getValue();
+                TaskMetrics metrics = source.metrics;
+
+                long count = metrics.getCompletedCount() + metrics.getFailedCount();
+                double seconds = (now - source.lastStamp) / 1e9;
+                double throughput = seconds <= 0 ? 0 : (count - source.lastCompletedCount) / seconds;
+
+                source.lastCompletedCount = count;
+                source.lastStamp = now;
+
+                LatencyHistogram wait = reset ? metrics.getWaitTime().drain() : metrics.getWaitTime();
+                LatencyHistogram run = reset ? metrics.getRunTime().drain() : metrics.getRunTime();
+
+                lines.add(String.format(Locale.US,
+                        "%s: %.1f tasks/s, completed %d, failed %d, rejected %d, threads +%d/-%d, wait p50/p99/max %s/%s/%s, run p50/p99/max %s/%s/%s",
+                        one.getKey(),
+                        throughput,
+                        metrics.getCompletedCount(),
+                        metrics.getFailedCount(),
+                        metrics.getRejectedCount(),
+                        metrics.getStartedThreadCount(),
+                        metrics.getStoppedThreadCount(),
+                        _format(wait.getPercentile(50)),
+                        _format(wait.getPercentile(99)),
+                        _format(wait.getMax()),
+                        _format(run.getPercentile(50)),
+                        _format(run.getPercentile(99)),
+                        _format(run.getMax())));
+            }
+        }
+
+        return lines.toArray(new String[0]);
+    }
+
+    private static String _format(long nanos) {
+
+        if (nanos < 1000L) return nanos + "ns";
+        if (nanos < 1000000L) return String.format(Locale.US, "%.1fus", nanos / 1e3);
+        if (nanos < 1000000000L) return String.format(Locale.US, "%.1fms", nanos / 1e6);
+        return String.format(Locale.US, "%.2fs", nanos / 1e9);
+    }
+
+    /**
+     * Starts reporting registered metrics to the log periodically. Wait and run time histograms
+     * are cleared after each report. Export started before is stopped
+     * @param interval time, in milliseconds, between reports
+     * @exception InterruptedException throws if the calling thread is interrupted before the
+     * export is scheduled
+     */
+    public static void startExport(long interval) throws InterruptedException {
+        _startExport(interval, null);
+    }
+
+    /**
+     * Starts appending reports of registered metrics to a file periodically. Wait and run time
+     * histograms are cleared after each report. Export started before is stopped
+     * @param interval time, in milliseconds, between reports
+     * @param file file, to which reports are appended
+     * @exception InterruptedException throws if the calling thread is interrupted before the
+     * export is scheduled
+     */
+    public static void startExport(long interval, File file) throws InterruptedException {
+
+        if (file == null) throw new IllegalArgumentException("file");
+        _startExport(interval, file);
+    }
+
+    /**
+     * Stops periodic export of metrics
+     */
+    public static void stopExport() {
+
+        synchronized (registeredSources) {
+            exportVersion++;
+        }
+    }
+
+    private static void _startExport(long interval, File file) throws InterruptedException {
+
+        if (interval <= 0) throw new IllegalArgumentException("interval");
+
+        long version;
+
+        synchronized (registeredSources) {
+            version = ++exportVersion;
+        }
+
+        _schedule(interval, file, version);
+    }
+
+    private static void _schedule(long interval, File file, long version) throws InterruptedException {
+
+        Parallel.post(() -> {
+
+            synchronized (registeredSources) {
+                if (version != exportVersion) return;
+            }
+
+            String[] lines = report(true);
+
+            if (lines.length > 0) {
+
+                if (file == null) {
+                    Log.information(Metrics.class, lines);
+                }
+                else {
+
+                    StringBuilder text = new StringBuilder();
+                    String stamp = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.US).format(new Date());
+
+                    for (String line : lines) text.append(stamp).append(' ').append(line).append('\n');
+
+                    try {
+                        file.appendAllText(text.toString());
+                    }
+                    catch (IOException e) {
+                        Log.warning(Metrics.class,
+                                "Could not export metrics",
+                                "File: " + file.getAbsolutePath(),
+                                "Error: " + e.getMessage());
+                    }
+                }
+            }
+
+            _schedule(interval, file, version);
+
+        }, System.currentTimeMillis() + interval);
+    }
+}
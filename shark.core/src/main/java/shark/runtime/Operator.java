@@ -1,23 +1,80 @@
 package shark.runtime;
 
-import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
-import shark.Framework;
 import shark.delegates.Action;
-import shark.utils.Log;
 
 /**
- * Executes tasks and optimizes usage of threads for task execution.
+ * Executes tasks and optimizes usage of threads for task execution. Queued tasks are handed to
+ * idle threads by signalling, idle threads are parked without consuming CPU until a task is
+ * available or their idle timeout, defined by the thread termination threshold, elapses.
  */
 @SuppressWarnings("WeakerAccess")
-public class Operator {
+public class Operator implements ITaskExecutor {
 
-    private class TaskInfo {
-        TaskState state;
+    /**
+     * Queued task. Nodes are recycled through a free list, so that tasks queued without a
+     * {@link TaskState} do not allocate
+     */
+    private static class TaskNode {
+        Task task;
+        Object state;
+        TaskState info;
+        TaskPriority priority;
         long stamp;
+        long sequence;
+        long queuedStamp;
+        TaskNode next;
     }
 
+    /**
+     * Returned by {@link OperatorWorker#_reserve()} when a task has to be executed by the calling
+     * thread
+     */
+    private static final TaskNode _callerRuns = new TaskNode();
+
+    /**
+     * Operator, whose processor runs on the current thread
+     */
+    private static final ThreadLocal<Operator> _owner = new ThreadLocal<>();
+
+    /**
+     * Maximum number of recycled nodes kept by an operator
+     */
+    private static final int _maxFreeNodes = 1024;
+
+    private static final Task _actionRunner = state -> ((Action) state).run();
+
+    private static final TaskPriority[] _priorities = TaskPriority.values();
+
+    /**
+     * Length, in nanoseconds, of a window over which the sizing controller samples the operator
+     */
+    private static final long _controlInterval = TimeUnit.MILLISECONDS.toNanos(500);
+
+    /**
+     * Average queue wait time, in nanoseconds, below which queueing is not worth a new thread
+     */
+    private static final long _tolerableWait = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * Number of windows, during which the controller does not grow the pool after an increase
+     * which did not improve throughput
+     */
+    private static final int _holdWindows = 4;
+
+    /**
+     * Orders delayed tasks by execution time, tasks with the same execution time are kept in
+     * queueing order
+     */
+    private static final Comparator<TaskNode> _delayOrder = (a, b) -> a.stamp != b.stamp ? (a.stamp < b.stamp ? -1 : 1) : Long.compare(a.sequence, b.sequence);
+
     /**
      * Create an operator
      * @param maxNumberOfThreads maximum number of threads allowed to be created
@@ -33,143 +90,661 @@ public class Operator {
 
     class OperatorWorker extends Worker {
 
-        private final ArrayList<TaskInfo> pendingQueue = new ArrayList<>();
-
-        private final LinkedList<TaskState> waitingQueue = new LinkedList<>();
+        private final ReentrantLock lock = new ReentrantLock();
+
+        /**
+         * Signalled whenever a task is moved to the waiting queue, wakes parked processors
+         */
+        private final Condition available = lock.newCondition();
+
+        /**
+         * Signalled whenever the dispatcher has to re-evaluate delayed tasks or thread demand
+         */
+        private final Condition dispatch = lock.newCondition();
+
+        /**
+         * Signalled whenever a task leaves the queue while callers are blocked by a full queue
+         */
+        private final Condition space = lock.newCondition();
+
+        /**
+         * Signalled whenever the dispatcher starts, or the worker is shut down after the
+         * dispatcher exited
+         */
+        private final Condition restart = lock.newCondition();
+
+        /**
+         * Delayed tasks, kept as a min-heap on execution time so that only due tasks are touched
+         */
+        private final PriorityQueue<TaskNode> pendingQueue = new PriorityQueue<>(16, _delayOrder);
+        private long pendingSequence = 0;
+
+        /**
+         * Waiting tasks, one lane per {@link TaskPriority}
+         */
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private final ArrayDeque<TaskNode>[] waitingLanes = new ArrayDeque[_priorities.length];
+        private final int[] pendingCounts = new int[_priorities.length];
+        private final long[] dequeuedCounts = new long[_priorities.length];
+        private final int[] weights = { 8, 4, 1 };
+        private final int[] credits = new int[_priorities.length];
+        private int waitingCount = 0;
+
+        private int capacity = Integer.MAX_VALUE;
+        private OverflowPolicy overflowPolicy = OverflowPolicy.Block;
+        private int blockedCount = 0;
+        private long droppedCount = 0;
+
+        private TaskNode freeNodes = null;
+        private int freeCount = 0;
+
+        {
+            for (int i = 0; i < waitingLanes.length; i++) waitingLanes[i] = new ArrayDeque<>();
+        }
 
-        private int threadCreationThreshold = 20;
-        private int threadTerminationThreshold = 100;
-        private int maxNumberOfThreads = 2;
-        private boolean isMainThreadRunning = false;
+        private volatile int threadCreationThreshold = 20;
+        private volatile int threadTerminationThreshold = 100;
+        private volatile int maxNumberOfThreads = 2;
+        private volatile boolean isMainThreadRunning = false;
+
+        private volatile boolean isAdaptive = false;
+        private int threadLimit = Math.max(1, Runtime.getRuntime().availableProcessors());
+        private long controlStamp = 0;
+        private long arrivedCount = 0;
+        private long polledCount = 0;
+        private long waitNanos = 0;
+        private long completedCount = 0;
+        private long serviceNanos = 0;
+        private double lastThroughput = 0;
+        private int lastStep = 0;
+        private int holdCount = 0;
+
+        private int processorCount = 0;
+        private int startingCount = 0;
+        private int idleCount = 0;
+        private int signalledCount = 0;
+        private boolean isShutDown = false;
+        private boolean isDispatcherParked = false;
+        private long dispatcherDeadline = Long.MAX_VALUE;
 
         @Override
         protected void initialise() {
-            isMainThreadRunning = true;
-            registerTask(state -> _operator(), null, true);
+
+            lock.lock();
+
+            try {
+                isMainThreadRunning = true;
+                isShutDown = false;
+                restart.signalAll();
+            }
+            finally {
+                lock.unlock();
+            }
+
+            registerTask(state -> _operator(), null, false);
         }
 
-        private void  _operator() throws InterruptedException {
+        @Override
+        protected void shutdown() {
 
-            TaskInfo[] tasks;
+            lock.lock();
 
-            int threadCreationPoint = 0;
-            int threadTerminationPoint = 0;
+            try {
+                isShutDown = true;
+                restart.signalAll();
+            }
+            finally {
+                lock.unlock();
+            }
+        }
 
-            int lastCount = 0;
+        /**
+         * Waits until the dispatcher, which exited, is started again by another thread, or until
+         * the worker is shut down, and starts the worker then. {@link #start()} itself waits for
+         * the thread of the dispatcher to complete
+         * @throws InterruptedException throws if the calling thread is interrupted while waiting
+         */
+        private void _restart() throws InterruptedException {
 
-            while (isRunning() && !isStopping()) {
+            lock.lockInterruptibly();
 
-                synchronized (pendingQueue) {
-                    tasks = pendingQueue.toArray(new TaskInfo[0]);
-                    pendingQueue.clear();
-                }
+            try {
+                while (!isMainThreadRunning && !isShutDown && isRunning()) restart.await();
+            }
+            finally {
+                lock.unlock();
+            }
 
-                long now = System.currentTimeMillis();
+            if (!isMainThreadRunning) start();
+        }
 
-                for (final TaskInfo info : tasks) {
-                    if (info.stamp > now) {
+        /**
+         * Gets the time, in nanoseconds, a thread is allowed to stay idle before it is terminated
+         * @return idle timeout in nanoseconds
+         */
+        private long _idleTimeout() {
+            return TimeUnit.MILLISECONDS.toNanos(Math.max(1, threadTerminationThreshold) * Workers.getTaskSleepInterval());
+        }
 
-                        synchronized (pendingQueue) {
-                            pendingQueue.add(info);
-                        }
-                    } else {
+        /**
+         * Moves due tasks from the pending queue to the waiting queue. The caller must hold
+         * {@link #lock}
+         * @param now current timestamp
+         * @return execution timestamp of the earliest task left in the pending queue, or
+         * {@link Long#MAX_VALUE} if the pending queue is empty
+         */
+        private long _promote(long now) {
 
-                        synchronized (waitingQueue) {
-                            waitingQueue.add(info.state);
-                        }
-                    }
-                }
+            TaskNode node;
+
+            while ((node = pendingQueue.peek()) != null && node.stamp <= now) {
+
+                pendingQueue.poll();
+                pendingCounts[node.priority.ordinal()]--;
+                _offer(node);
+                _signalWaiting();
+            }
+
+            return node == null ? Long.MAX_VALUE : node.stamp;
+        }
+
+        /**
+         * Takes a node from the free list, or creates one if the list is empty. The caller must
+         * hold {@link #lock}
+         * @param task task to be executed
+         * @param state object to be passed to the task
+         * @param info object, provides information about the task execution, or null if the task
+         *             is not tracked
+         * @param priority priority of the task
+         * @return node of the task
+         */
+        private TaskNode _obtain(Task task, Object state, TaskState info, TaskPriority priority) {
+
+            TaskNode node = freeNodes;
+
+            if (node == null) {
+                node = new TaskNode();
+            } else {
+                freeNodes = node.next;
+                node.next = null;
+                freeCount--;
+            }
+
+            node.task = task;
+            node.state = state;
+            node.info = info;
+            node.priority = priority;
+
+            return node;
+        }
+
+        /**
+         * Returns a node, which is no longer referenced by any queue, to the free list. The caller
+         * must hold {@link #lock}
+         * @param node node to be recycled
+         */
+        private void _recycle(TaskNode node) {
+
+            node.task = null;
+            node.state = null;
+            node.info = null;
+
+            if (freeCount < _maxFreeNodes) {
+                node.next = freeNodes;
+                freeNodes = node;
+                freeCount++;
+            }
+        }
+
+        /**
+         * Adds a task to the lane of its priority. The caller must hold {@link #lock}
+         * @param node task to be added
+         */
+        private void _offer(TaskNode node) {
+            node.queuedStamp = System.nanoTime();
+            waitingLanes[node.priority.ordinal()].add(node);
+            waitingCount++;
+            arrivedCount++;
+        }
+
+        /**
+         * Takes the next waiting task using smooth weighted round robin over non-empty lanes:
+         * every non-empty lane earns its weight in credits, the lane with the most credits is
+         * served and pays back the total weight of the competing lanes. Over any window each lane
+         * is served in proportion to its weight and no lane is starved. The caller must hold
+         * {@link #lock}
+         * @return next task, or null if no task is waiting
+         */
+        private TaskNode _poll() {
 
-                int count;
-                synchronized (waitingQueue) {
-                    count = waitingQueue.size();
+            if (waitingCount == 0) return null;
+
+            int selected = -1, total = 0;
+
+            for (int i = 0; i < waitingLanes.length; i++) {
+
+                if (waitingLanes[i].isEmpty()) {
+                    credits[i] = 0;
+                    continue;
                 }
 
-                if (count >= lastCount && taskCount() - 1 < maxNumberOfThreads) {
-                    if (taskCount() == 1 || ++threadCreationPoint >= threadCreationThreshold) {
-                        registerTask(state -> _processor(), null, true);
-                        threadCreationPoint = 0;
-                    }
-                } else {
-                    threadCreationPoint = 0;
+                credits[i] += weights[i];
+                total += weights[i];
+
+                if (selected < 0 || credits[i] > credits[selected]) selected = i;
+            }
+
+            credits[selected] -= total;
+            dequeuedCounts[selected]++;
+            waitingCount--;
+
+            if (blockedCount > 0) space.signal();
+
+            TaskNode node = waitingLanes[selected].poll();
+
+            long wait = System.nanoTime() - node.queuedStamp;
+
+            polledCount++;
+            waitNanos += wait;
+            _metrics._recordWait(wait);
+
+            return node;
+        }
+
+        /**
+         * Gets the number of processing threads, above which no thread is created. The caller
+         * must hold {@link #lock}
+         * @return number of threads
+         */
+        private int _threadLimit() {
+            return isAdaptive ? Math.min(threadLimit, maxNumberOfThreads) : maxNumberOfThreads;
+        }
+
+        /**
+         * Re-evaluates the thread limit from the measurements of the last window. By Little's law
+         * the pool needs arrival rate times service time busy threads to keep up with arrivals;
+         * the limit never shrinks below that estimate. While tasks queue up for longer than they
+         * run, the limit climbs, as long as each increase keeps improving throughput. An increase
+         * which did not pay off is reverted and climbing is held for a few windows, so that pools
+         * limited by something other than threads do not grow without gain. The caller must hold
+         * {@link #lock}
+         * @param now current time in nanoseconds
+         * @return time, in nanoseconds, of the next evaluation
+         */
+        private long _control(long now) {
+
+            if (controlStamp == 0) {
+                _resetWindow(now);
+                return now + _controlInterval;
+            }
+
+            long elapsed = now - controlStamp;
+
+            if (elapsed < _controlInterval) return controlStamp + _controlInterval;
+
+            double seconds = elapsed / 1e9;
+            double throughput = completedCount / seconds;
+            double service = completedCount == 0 ? 0 : serviceNanos / (double) completedCount;
+            double wait = polledCount == 0 ? 0 : waitNanos / (double) polledCount;
+
+            // tasks stuck behind busy processors are not polled, their age counts as wait time
+            for (ArrayDeque<TaskNode> lane : waitingLanes) {
+                TaskNode head = lane.peek();
+                if (head != null) wait = Math.max(wait, now - head.queuedStamp);
+            }
+
+            int needed = (int) Math.ceil(arrivedCount / seconds * service / 1e9);
+            int limit = threadLimit;
+
+            if (waitingCount > 0 && wait > Math.max(service, _tolerableWait)) {
+
+                if (lastStep > 0 && throughput <= lastThroughput * 1.05) {
+
+                    limit -= lastStep;
+                    lastStep = 0;
+                    holdCount = _holdWindows;
+                }
+                else if (holdCount > 0) {
+                    holdCount--;
                 }
+                else {
+                    int step = Math.max(1, limit / 4);
+                    lastStep = Math.max(limit + step, needed) - limit;
+                    limit += lastStep;
+                }
+            }
+            else {
 
-                lastCount = count;
+                lastStep = 0;
+                if (holdCount > 0) holdCount--;
 
-                if (count + tasks.length == 0 && taskCount() == 1) {
-                    if (++threadTerminationPoint >= threadTerminationThreshold) {
+                // no significant queueing, shrink towards the estimate with one spare thread
+                if (limit > needed + 1) limit -= Math.max(1, (limit - needed - 1) / 2);
+            }
 
-                        synchronized (pendingQueue) {
-                            synchronized (waitingQueue) {
-                                if (pendingQueue.size() + waitingQueue.size() == 0) {
-                                    isMainThreadRunning = false;
-                                    break;
-                                }
-                            }
-                        }
+            threadLimit = Math.max(1, Math.min(limit, Math.max(1, maxNumberOfThreads)));
+            lastThroughput = throughput;
+
+            _resetWindow(now);
+            return now + _controlInterval;
+        }
+
+        /**
+         * Starts a new measurement window of the sizing controller. The caller must hold
+         * {@link #lock}
+         * @param now current time in nanoseconds
+         */
+        private void _resetWindow(long now) {
+
+            controlStamp = now;
+            arrivedCount = 0;
+            polledCount = 0;
+            waitNanos = 0;
+            completedCount = 0;
+            serviceNanos = 0;
+        }
+
+        /**
+         * Gets the number of queued tasks, counted against the capacity. The caller must hold
+         * {@link #lock}
+         * @return number of tasks
+         */
+        private int _size() {
+            return pendingQueue.size() + waitingCount;
+        }
+
+        /**
+         * Makes room for a task according to the overflow policy if the queue is full. The caller
+         * must hold {@link #lock}
+         * @param delayed true if the task is delayed; otherwise false
+         * @return null if the task could be queued; {@link #_callerRuns} if the task has to be
+         * executed by the calling thread; otherwise a task which is dropped to make room for the
+         * task
+         *
+         * @exception InterruptedException throws if the calling thread is interrupted while it is
+         * blocked by a full queue
+         * @exception RejectedExecutionException throws if the task is refused
+         */
+        private TaskNode _reserve(boolean delayed) throws InterruptedException {
+
+            if (_size() < capacity) return null;
+
+            _metrics._recordRejection();
+
+            switch (overflowPolicy) {
+
+                case Reject:
+                    throw new RejectedExecutionException("Queue of operator is full");
+
+                case CallerRuns:
+
+                    // the queueing thread must not be held until a delayed task is due
+                    if (delayed) throw new RejectedExecutionException("Queue of operator is full");
+                    return _callerRuns;
+
+                case DropOldest:
+                    return _dropOldest();
+
+                default:
+
+                    // processors blocked by their own queue could never make room in it
+                    if (_owner.get() == Operator.this) {
+                        if (delayed) throw new RejectedExecutionException("Queue of operator is full");
+                        return _callerRuns;
                     }
-                } else {
-                    threadTerminationPoint = 0;
-                }
 
-                Parallel.sleep();
+                    blockedCount++;
+
+                    try {
+                        while (_size() >= capacity) space.await();
+                    }
+                    finally {
+                        blockedCount--;
+                    }
+
+                    return null;
             }
         }
 
-        private void _processor() {
+        /**
+         * Removes the oldest waiting task of the lowest non-empty lane, or the earliest delayed
+         * task if no task is waiting. The caller must hold {@link #lock}
+         * @return removed task, or null if the queue is empty
+         */
+        private TaskNode _dropOldest() {
 
-            int threadTerminationPoint = 0;
+            for (int i = waitingLanes.length - 1; i >= 0; i--) {
 
-            while (isRunning() && !isStopping())
-            {
-                TaskState info;
-                synchronized (waitingQueue) {
-                    info = waitingQueue.size() > 0 ? waitingQueue.pop() : null;
+                if (!waitingLanes[i].isEmpty()) {
+                    waitingCount--;
+                    droppedCount++;
+                    return waitingLanes[i].poll();
                 }
+            }
+
+            TaskNode node = pendingQueue.poll();
+            if (node == null) return null;
+
+            pendingCounts[node.priority.ordinal()]--;
+            droppedCount++;
+            return node;
+        }
+
+        /**
+         * Notifies processors and the dispatcher that a task is added to the waiting queue. An idle
+         * processor is counted as busy once it is signalled, so that each task wakes a distinct
+         * processor, and the dispatcher is woken once no idle processor is left. The caller must
+         * hold {@link #lock}
+         */
+        private void _signalWaiting() {
+
+            if (idleCount > 0) {
+                idleCount--;
+                signalledCount++;
+                available.signal();
+            } else if (isDispatcherParked && processorCount < _threadLimit()) {
+                dispatch.signal();
+            }
+        }
+
+        /**
+         * Notifies the dispatcher that a delayed task is added to the pending queue. The caller
+         * must hold {@link #lock}
+         * @param stamp time, after which the task should be executed
+         */
+        private void _signalPending(long stamp) {
+            if (stamp < dispatcherDeadline) dispatch.signal();
+        }
+
+        private void _operator() throws InterruptedException {
+
+            int threadCreationPoint = 0;
+            int lastCount = 0;
+
+            lock.lockInterruptibly();
+
+            try {
+
+                while (isRunning() && !isStopping()) {
+
+                    long now = System.currentTimeMillis();
+                    long next = _promote(now);
+
+                    long control = isAdaptive ? _control(System.nanoTime()) : Long.MAX_VALUE;
+
+                    int count = waitingCount;
+                    boolean demand = count > idleCount + startingCount && processorCount < _threadLimit();
+
+                    // virtual threads are cheap, so they are created as soon as tasks are waiting;
+                    // the sizing controller already decided the limit, so no threshold applies
+                    boolean immediate = processorCount == 0 || isAdaptive || Workers.getExecutionMode() == ExecutionMode.Virtual;
+
+                    if (demand && (immediate || (count >= lastCount && ++threadCreationPoint >= threadCreationThreshold))) {
+
+                        threadCreationPoint = 0;
+                        processorCount++;
+                        startingCount++;
+
+                        lock.unlock();
+
+                        TaskState processor;
+
+                        try {
+                            processor = registerTask(state -> _processor(), null, false);
+                        }
+                        finally {
+                            lock.lock();
+                        }
+
+                        if (processor.isFailed() && processor.getThread() == null) {
+                            processorCount--;
+                            startingCount--;
+                        }
+
+                        lastCount = count;
+                        continue;
+                    }
+
+                    if (!demand) threadCreationPoint = 0;
+                    lastCount = count;
+
+                    long timeout;
+
+                    if (demand) {
+
+                        // processors are saturated, re-evaluate thread demand on every tick
+                        timeout = TimeUnit.MILLISECONDS.toNanos(Workers.getTaskSleepInterval());
+                    }
+                    else {
+
+                        timeout = _idleTimeout();
+                        if (next != Long.MAX_VALUE) timeout = Math.min(timeout, TimeUnit.MILLISECONDS.toNanos(next - now));
+                    }
+
+                    if (control != Long.MAX_VALUE && processorCount > 0) timeout = Math.max(0, Math.min(timeout, control - System.nanoTime()));
+
+                    boolean idle = count == 0 && next == Long.MAX_VALUE && processorCount == 0;
+
+                    isDispatcherParked = !demand;
+                    dispatcherDeadline = next;
 
-                if (info == null)
-                {
                     try {
-                        Parallel.sleep();
+                        timeout = dispatch.awaitNanos(timeout);
                     }
-                    catch (InterruptedException e) {
-                        break;
+                    finally {
+                        isDispatcherParked = false;
+                        dispatcherDeadline = Long.MIN_VALUE;
                     }
 
-                    if (++threadTerminationPoint >= threadTerminationThreshold) break;
-                }
-                else
-                {
-                    threadTerminationPoint = 0;
-                    _runTask(info);
+                    if (idle && timeout <= 0 && waitingCount == 0 && pendingQueue.isEmpty() && processorCount == 0) {
+                        isMainThreadRunning = false;
+                        break;
+                    }
                 }
             }
+            finally {
+                lock.unlock();
+            }
         }
 
-        private void _runTask(TaskState info) {
+        private void _processor() throws InterruptedException {
+
+            boolean starting = true;
+            long service = -1;
+
+            _metrics._recordThreadStart();
+            _owner.set(Operator.this);
 
             try {
 
-                info._notifyStart(Thread.currentThread());
-                info._getTask().run(info.getState());
-                info._notifySuccess();
+                while (isRunning() && !isStopping()) {
+
+                    TaskNode node;
+                    Task task;
+                    Object state;
+                    TaskState info;
+
+                    lock.lockInterruptibly();
+
+                    try {
+
+                        if (starting) {
+                            starting = false;
+                            startingCount--;
+                        }
+
+                        if (service >= 0) {
+                            completedCount++;
+                            serviceNanos += service;
+                            service = -1;
+                        }
+
+                        // the sizing controller lowered the limit, surplus threads retire
+                        if (isAdaptive && processorCount > _threadLimit()) return;
+
+                        long timeout = _idleTimeout();
+
+                        while ((node = _poll()) == null) {
+
+                            if (timeout <= 0 || isStopping()) return;
+
+                            idleCount++;
+
+                            try {
+                                timeout = available.awaitNanos(timeout);
+                            }
+                            finally {
+
+                                // a processor woken by a timeout may take the signal of
+                                // another, which then leaves the idle count itself
+                                if (signalledCount > 0) signalledCount--;
+                                else idleCount--;
+                            }
+                        }
+
+                        task = node.task;
+                        state = node.state;
+                        info = node.info;
+
+                        _recycle(node);
+                    }
+                    finally {
+                        lock.unlock();
+                    }
+
+                    long anchor = System.nanoTime();
+                    boolean succeeded = _run(task, state, info);
+                    service = System.nanoTime() - anchor;
+
+                    _metrics._recordRun(service, succeeded);
+                }
             }
-            catch (Exception e) {
-
-                //noinspection ConstantConditions
-                if (!InterruptedException.class.isAssignableFrom(e.getClass()) && Framework.log) {
-                    Log.error(Operator.class,
-                            "Error detected while processing task",
-                            "Class: " + info._getTask().getClass().getName(),
-                            "Error: " + e.getMessage(),
-                            Log.stringify(e.getStackTrace()));
+            finally {
+
+                lock.lock();
+
+                try {
+
+                    if (service >= 0) {
+                        completedCount++;
+                        serviceNanos += service;
+                    }
+
+                    processorCount--;
+                    if (starting) startingCount--;
+                    if (isDispatcherParked) dispatch.signal();
+                }
+                finally {
+                    lock.unlock();
                 }
 
-                info.notifyFailure(e);
+                _owner.remove();
+                _metrics._recordThreadStop();
             }
         }
     }
 
+    private final TaskMetrics _metrics = new TaskMetrics();
     private final OperatorWorker _worker = new OperatorWorker();
 
     /**
@@ -223,33 +798,262 @@ public class Operator {
         _worker.maxNumberOfThreads = value;
     }
 
+    /**
+     * Indicates whether the number of threads is sized by measured queue wait time, service time
+     * and throughput. While enabled, thread creation threshold is not applied and the maximum
+     * number of threads is only an upper bound of the measured limit
+     * @return true if sizing is adaptive; otherwise false
+     */
+    public boolean isAdaptive() {
+        return _worker.isAdaptive;
+    }
+
+    /**
+     * Sets whether the number of threads is sized by measured queue wait time, service time and
+     * throughput
+     * @param value true to enable adaptive sizing; otherwise false
+     */
+    public void setAdaptive(boolean value) {
+
+        _worker.lock.lock();
+
+        try {
+            _worker.isAdaptive = value;
+            _worker.controlStamp = 0;
+            _worker.dispatch.signal();
+        }
+        finally {
+            _worker.lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of threads, above which no thread is created. While sizing is adaptive this
+     * is the limit measured by the operator; otherwise the maximum number of threads
+     * @return number of threads
+     */
+    public int getThreadLimit() {
+
+        _worker.lock.lock();
+
+        try {
+            return _worker._threadLimit();
+        }
+        finally {
+            _worker.lock.unlock();
+        }
+    }
+
     /**
      * Gets the number of running threads
      * @return number of threads
      */
+    @Override
     public int getThreadCount() {
         return Math.max(0, _worker.taskCount() - 1);
     }
 
+    /**
+     * Gets the maximum number of tasks, pending or waiting, the operator keeps queued
+     * @return number of tasks
+     */
+    public int getCapacity() {
+
+        _worker.lock.lock();
+
+        try {
+            return _worker.capacity;
+        }
+        finally {
+            _worker.lock.unlock();
+        }
+    }
+
+    /**
+     * Sets the maximum number of tasks, pending or waiting, the operator keeps queued. Tasks
+     * queued while the capacity is reached are handled according to the overflow policy
+     * @param value number of tasks, {@link Integer#MAX_VALUE} for an unbounded queue
+     */
+    public void setCapacity(int value) {
+
+        if (value < 1) throw new IllegalArgumentException();
+
+        _worker.lock.lock();
+
+        try {
+            _worker.capacity = value;
+            _worker.space.signalAll();
+        }
+        finally {
+            _worker.lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the way tasks, queued while the capacity is reached, are handled
+     * @return overflow policy
+     */
+    public OverflowPolicy getOverflowPolicy() {
+
+        _worker.lock.lock();
+
+        try {
+            return _worker.overflowPolicy;
+        }
+        finally {
+            _worker.lock.unlock();
+        }
+    }
+
+    /**
+     * Sets the way tasks, queued while the capacity is reached, are handled. Callers, blocked by
+     * a full queue, stay blocked until there is room for their tasks
+     * @param value overflow policy
+     */
+    public void setOverflowPolicy(OverflowPolicy value) {
+
+        if (value == null) throw new IllegalArgumentException();
+
+        _worker.lock.lock();
+
+        try {
+            _worker.overflowPolicy = value;
+        }
+        finally {
+            _worker.lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the weight of a priority lane. Waiting tasks are taken from non-empty lanes in
+     * proportion to their weights
+     * @param priority priority of the lane
+     * @return weight of the lane
+     */
+    public int getPriorityWeight(TaskPriority priority) {
+
+        if (priority == null) throw new IllegalArgumentException("priority");
+
+        _worker.lock.lock();
+
+        try {
+            return _worker.weights[priority.ordinal()];
+        }
+        finally {
+            _worker.lock.unlock();
+        }
+    }
+
+    /**
+     * Sets the weight of a priority lane. Waiting tasks are taken from non-empty lanes in
+     * proportion to their weights
+     * @param priority priority of the lane
+     * @param value weight of the lane, must be greater than zero
+     */
+    public void setPriorityWeight(TaskPriority priority, int value) {
+
+        if (priority == null) throw new IllegalArgumentException("priority");
+        if (value < 1) throw new IllegalArgumentException("value");
+
+        _worker.lock.lock();
+
+        try {
+            _worker.weights[priority.ordinal()] = value;
+        }
+        finally {
+            _worker.lock.unlock();
+        }
+    }
+
     /**
      * Gets the number of tasks, not yet reached execution time
      * @return number of tasks
      */
+    @Override
     public int getPendingTaskCount() {
 
-        synchronized (_worker.pendingQueue) {
+        _worker.lock.lock();
+
+        try {
             return _worker.pendingQueue.size();
         }
+        finally {
+            _worker.lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of tasks of a priority, not yet reached execution time
+     * @param priority priority of tasks
+     * @return number of tasks
+     */
+    public int getPendingTaskCount(TaskPriority priority) {
+
+        if (priority == null) throw new IllegalArgumentException("priority");
+
+        _worker.lock.lock();
+
+        try {
+            return _worker.pendingCounts[priority.ordinal()];
+        }
+        finally {
+            _worker.lock.unlock();
+        }
     }
 
     /**
      * Gets the number of tasks, waiting to be executed
      * @return number of tasks
      */
+    @Override
     public int getWaitingTaskCount() {
 
-        synchronized (_worker.waitingQueue) {
-            return _worker.waitingQueue.size();
+        _worker.lock.lock();
+
+        try {
+            return _worker.waitingCount;
+        }
+        finally {
+            _worker.lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of tasks of a priority, waiting to be executed
+     * @param priority priority of tasks
+     * @return number of tasks
+     */
+    public int getWaitingTaskCount(TaskPriority priority) {
+
+        if (priority == null) throw new IllegalArgumentException("priority");
+
+        _worker.lock.lock();
+
+        try {
+            return _worker.waitingLanes[priority.ordinal()].size();
+        }
+        finally {
+            _worker.lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of tasks of a priority, which have been handed to processing threads since
+     * the operator was created
+     * @param priority priority of tasks
+     * @return number of tasks
+     */
+    public long getDequeuedTaskCount(TaskPriority priority) {
+
+        if (priority == null) throw new IllegalArgumentException("priority");
+
+        _worker.lock.lock();
+
+        try {
+            return _worker.dequeuedCounts[priority.ordinal()];
+        }
+        finally {
+            _worker.lock.unlock();
         }
     }
 
@@ -258,7 +1062,51 @@ public class Operator {
      * @return number of tasks
      */
     public int getTaskCount() {
-        return getPendingTaskCount() + getWaitingTaskCount();
+
+        _worker.lock.lock();
+
+        try {
+            return _worker._size();
+        }
+        finally {
+            _worker.lock.unlock();
+        }
+    }
+
+    /**
+     * Gets execution metrics of the operator: queue wait and run time histograms, completed,
+     * failed and rejected tasks, and started and stopped processing threads. Metrics could be
+     * exported periodically by registering them with {@link Metrics}
+     * @return metrics of the operator
+     */
+    public TaskMetrics getMetrics() {
+        return _metrics;
+    }
+
+    /**
+     * Gets the number of tasks, which found the queue full since the operator was created,
+     * regardless of the overflow policy applied to them
+     * @return number of tasks
+     */
+    public long getRejectedTaskCount() {
+        return _metrics.getRejectedCount();
+    }
+
+    /**
+     * Gets the number of queued tasks, which have been dropped to make room for newer tasks since
+     * the operator was created
+     * @return number of tasks
+     */
+    public long getDroppedTaskCount() {
+
+        _worker.lock.lock();
+
+        try {
+            return _worker.droppedCount;
+        }
+        finally {
+            _worker.lock.unlock();
+        }
     }
 
     /**
@@ -268,28 +1116,33 @@ public class Operator {
      * @param invocationStamp time, after which the task should be executed
      * @return object, provides information about the task execution
      */
+    @Override
     public TaskState queue(Task task, Object state, long invocationStamp) throws InterruptedException {
+        return queue(task, state, invocationStamp, TaskPriority.Normal);
+    }
 
-        if (task == null) throw new IllegalArgumentException("task");
-
-        final TaskInfo info = new TaskInfo();
-        info.state = new TaskState(task, state, false);
-        info.stamp = invocationStamp;
-
-        boolean isMainThreadRunning;
-
-        synchronized (_worker.pendingQueue) {
-
-            _worker.pendingQueue.add(info);
-            isMainThreadRunning = _worker.isMainThreadRunning;
-        }
-
+    /**
+     * Queues a task to be executed after a specified time
+     * @param task task to be executed
+     * @param state object to be passed to the task
+     * @param invocationStamp time, after which the task should be executed
+     * @param priority lane, through which the task is handed to a processing thread once it is due
+     * @return object, provides information about the task execution
+     *
+     * @exception InterruptedException throws if the calling thread is interrupted be for the
+     * queueing operation is completed
+     * @exception RejectedExecutionException throws if the queue is full and the overflow policy
+     * is {@link OverflowPolicy#Reject}
+     */
+    @Override
+    public TaskState queue(Task task, Object state, long invocationStamp, TaskPriority priority) throws InterruptedException {
 
-        while (!isMainThreadRunning && _worker.isRunning()) Parallel.sleep();
-        if (!_worker.isRunning()) _worker.start();
+        if (task == null) throw new IllegalArgumentException("task");
 
+        TaskState info = new TaskState(task, state, false);
+        _enqueue(task, state, info, priority, true, invocationStamp);
 
-        return info.state;
+        return info;
     }
 
     /**
@@ -301,21 +1154,30 @@ public class Operator {
      * @exception InterruptedException throws if the calling thread is interrupted be for the
      * queueing operation is completed
      */
+    @Override
     public TaskState queue(Task task, Object state) throws InterruptedException {
+        return queue(task, state, TaskPriority.Normal);
+    }
 
-        if (task == null) throw new IllegalArgumentException("task");
-
-        final TaskState info = new TaskState(task, state, false);
-
-        boolean isMainThreadRunning;
+    /**
+     * Queues a task to be executed as soon as possible
+     * @param task task to be executed
+     * @param state object to be passed to the task
+     * @param priority lane, through which the task is handed to a processing thread
+     * @return object, provides information about task execution
+     *
+     * @exception InterruptedException throws if the calling thread is interrupted be for the
+     * queueing operation is completed
+     * @exception RejectedExecutionException throws if the queue is full and the overflow policy
+     * is {@link OverflowPolicy#Reject}
+     */
+    @Override
+    public TaskState queue(Task task, Object state, TaskPriority priority) throws InterruptedException {
 
-        synchronized (_worker.waitingQueue) {
-            _worker.waitingQueue.add(info);
-            isMainThreadRunning = _worker.isMainThreadRunning;
-        }
+        if (task == null) throw new IllegalArgumentException("task");
 
-        while (!isMainThreadRunning && _worker.isRunning()) Parallel.sleep();
-        if (!_worker.isRunning()) _worker.start();
+        TaskState info = new TaskState(task, state, false);
+        _enqueue(task, state, info, priority, false, 0);
 
         return info;
     }
@@ -329,10 +1191,23 @@ public class Operator {
      * queueing operation is completed
      */
     public TaskState queue(Action task) throws InterruptedException {
+        return queue(task, TaskPriority.Normal);
+    }
+
+    /**
+     * Queues a task to be executed as soon as possible
+     * @param task task to be executed
+     * @param priority lane, through which the task is handed to a processing thread
+     * @return object, provides information about the task execution
+     *
+     * @exception InterruptedException throws if the calling thread is interrupted be for the
+     * queueing operation is completed
+     */
+    public TaskState queue(Action task, TaskPriority priority) throws InterruptedException {
 
         if (task == null) throw new IllegalArgumentException();
 
-        return queue(state -> ((Action)state).run(), task);
+        return queue(_actionRunner, task, priority);
     }
 
     /**
@@ -345,9 +1220,197 @@ public class Operator {
      * queueing operation is completed
      */
     public TaskState queue(Action task, long invocationStamp) throws InterruptedException {
+        return queue(task, invocationStamp, TaskPriority.Normal);
+    }
+
+    /**
+     * Queues a task to be executed after a specified time
+     * @param task task to be executed
+     * @param invocationStamp time, after which the task should be executed
+     * @param priority lane, through which the task is handed to a processing thread once it is due
+     * @return object, provides information about the task execution
+     *
+     * @exception InterruptedException throws if the calling thread is interrupted be for the
+     * queueing operation is completed
+     */
+    public TaskState queue(Action task, long invocationStamp, TaskPriority priority) throws InterruptedException {
 
         if (task == null) throw new IllegalArgumentException();
 
-        return queue(state -> ((Action)state).run(), task, invocationStamp);
+        return queue(_actionRunner, task, invocationStamp, priority);
+    }
+
+    /**
+     * Queues a task to be executed as soon as possible without tracking its execution. Queue nodes
+     * of posted tasks are recycled, so that posting does not allocate
+     * @param task task to be executed
+     * @param state object to be passed to the task
+     * @param priority lane, through which the task is handed to a processing thread
+     *
+     * @exception InterruptedException throws if the calling thread is interrupted be for the
+     * queueing operation is completed
+     * @exception RejectedExecutionException throws if the queue is full and the overflow policy
+     * is {@link OverflowPolicy#Reject}
+     */
+    @Override
+    public void post(Task task, Object state, TaskPriority priority) throws InterruptedException {
+
+        if (task == null) throw new IllegalArgumentException("task");
+
+        _enqueue(task, state, null, priority, false, 0);
+    }
+
+    /**
+     * Queues a task to be executed after a specified time without tracking its execution. Queue
+     * nodes of posted tasks are recycled, so that posting does not allocate
+     * @param task task to be executed
+     * @param state object to be passed to the task
+     * @param invocationStamp time, after which the task should be executed
+     * @param priority lane, through which the task is handed to a processing thread once it is due
+     *
+     * @exception InterruptedException throws if the calling thread is interrupted be for the
+     * queueing operation is completed
+     * @exception RejectedExecutionException throws if the queue is full and the overflow policy
+     * is {@link OverflowPolicy#Reject}
+     */
+    @Override
+    public void post(Task task, Object state, long invocationStamp, TaskPriority priority) throws InterruptedException {
+
+        if (task == null) throw new IllegalArgumentException("task");
+
+        _enqueue(task, state, null, priority, true, invocationStamp);
+    }
+
+    /**
+     * Queues a task to be executed as soon as possible without tracking its execution
+     * @param task task to be executed
+     *
+     * @exception InterruptedException throws if the calling thread is interrupted be for the
+     * queueing operation is completed
+     */
+    public void post(Action task) throws InterruptedException {
+        post(task, TaskPriority.Normal);
+    }
+
+    /**
+     * Queues a task to be executed as soon as possible without tracking its execution
+     * @param task task to be executed
+     * @param priority lane, through which the task is handed to a processing thread
+     *
+     * @exception InterruptedException throws if the calling thread is interrupted be for the
+     * queueing operation is completed
+     */
+    public void post(Action task, TaskPriority priority) throws InterruptedException {
+
+        if (task == null) throw new IllegalArgumentException();
+
+        post(_actionRunner, task, priority);
+    }
+
+    /**
+     * Queues a task to be executed after a specified time without tracking its execution
+     * @param task task to be executed
+     * @param invocationStamp time, after which the task should be executed
+     *
+     * @exception InterruptedException throws if the calling thread is interrupted be for the
+     * queueing operation is completed
+     */
+    public void post(Action task, long invocationStamp) throws InterruptedException {
+        post(task, invocationStamp, TaskPriority.Normal);
+    }
+
+    /**
+     * Queues a task to be executed after a specified time without tracking its execution
+     * @param task task to be executed
+     * @param invocationStamp time, after which the task should be executed
+     * @param priority lane, through which the task is handed to a processing thread once it is due
+     *
+     * @exception InterruptedException throws if the calling thread is interrupted be for the
+     * queueing operation is completed
+     */
+    public void post(Action task, long invocationStamp, TaskPriority priority) throws InterruptedException {
+
+        if (task == null) throw new IllegalArgumentException();
+
+        post(_actionRunner, task, invocationStamp, priority);
+    }
+
+    /**
+     * Adds a task to the pending or waiting queue, applying the overflow policy if the queue is
+     * full, and makes sure the dispatcher is running
+     * @param task task to be executed
+     * @param state object to be passed to the task
+     * @param info object, provides information about the task execution, or null if the task is
+     *             not tracked
+     * @param priority priority of the task
+     * @param delayed true if the task is delayed until the invocation stamp; otherwise false
+     * @param invocationStamp time, after which a delayed task should be executed
+     */
+    private void _enqueue(Task task, Object state, TaskState info, TaskPriority priority, boolean delayed, long invocationStamp) throws InterruptedException {
+
+        if (priority == null) throw new IllegalArgumentException("priority");
+
+        TaskNode reserved;
+        TaskState dropped = null;
+        boolean isMainThreadRunning;
+
+        _worker.lock.lockInterruptibly();
+
+        try {
+
+            reserved = _worker._reserve(delayed);
+
+            if (reserved != _callerRuns) {
+
+                if (reserved != null) {
+                    dropped = reserved.info;
+                    _worker._recycle(reserved);
+                }
+
+                TaskNode node = _worker._obtain(task, state, info, priority);
+
+                if (delayed) {
+                    node.stamp = invocationStamp;
+                    node.sequence = _worker.pendingSequence++;
+                    _worker.pendingQueue.add(node);
+                    _worker.pendingCounts[priority.ordinal()]++;
+                    _worker._signalPending(invocationStamp);
+                } else {
+                    _worker._offer(node);
+                    _worker._signalWaiting();
+                }
+            }
+
+            isMainThreadRunning = _worker.isMainThreadRunning;
+        }
+        finally {
+            _worker.lock.unlock();
+        }
+
+        if (reserved == _callerRuns) {
+
+            long anchor = System.nanoTime();
+            boolean succeeded = _run(task, state, info);
+
+            _metrics._recordRun(System.nanoTime() - anchor, succeeded);
+            return;
+        }
+
+        if (dropped != null) dropped._notifyFailure(new RejectedExecutionException("Task is dropped by a full operator queue"));
+
+        if (!isMainThreadRunning) _worker._restart();
+        else if (!_worker.isRunning()) _worker.start();
+    }
+
+    /**
+     * Executes a task on the calling thread
+     * @param task task to be executed
+     * @param state object to be passed to the task
+     * @param info object, provides information about the task execution, or null if the task is
+     *             not tracked
+     * @return true if the task succeeded; otherwise false
+     */
+    private static boolean _run(Task task, Object state, TaskState info) {
+        return (info != null ? info._run(Operator.class) : TaskState._invoke(task, state, Operator.class)) == null;
     }
 }
@@ -0,0 +1,35 @@
+package shark.runtime;
+
+/**
+ * Describes how an {@link Operator} handles a task queued while the number of queued tasks has
+ * reached the capacity of the operator
+ */
+public enum OverflowPolicy {
+
+    /**
+     * The queueing thread is blocked until a queued task is handed to a processing thread. A
+     * processing thread of the operator is never blocked by its own queue, since it could be the
+     * one to make room: it executes the task itself, or has a delayed task refused by
+     * {@link java.util.concurrent.RejectedExecutionException}
+     */
+    Block,
+
+    /**
+     * The task is refused, the queueing operation throws
+     * {@link java.util.concurrent.RejectedExecutionException}
+     */
+    Reject,
+
+    /**
+     * The oldest waiting task of the lowest non-empty priority lane is dropped to make room for
+     * the task. If no task is waiting, the earliest delayed task is dropped. Dropped tasks are
+     * completed as failed with {@link java.util.concurrent.RejectedExecutionException}
+     */
+    DropOldest,
+
+    /**
+     * The task is executed by the queueing thread. Delayed tasks are refused, the queueing
+     * operation throws {@link java.util.concurrent.RejectedExecutionException}
+     */
+    CallerRuns
+}
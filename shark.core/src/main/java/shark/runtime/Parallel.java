@@ -2,37 +2,250 @@ package shark.runtime;
 
 import android.os.Looper;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
 import shark.delegates.Action;
 import shark.delegates.Action1;
+import shark.delegates.Function;
+import shark.delegates.Function1;
+import shark.delegates.Function2;
+import shark.delegates.IntAction;
 
 public final class Parallel {
 
-    private class LoopCounter {
+    /**
+     * Executes a range of iterations in chunks. The range is split recursively, one half of a
+     * split is pushed to a shared queue and picked up by a task queued to the executor, the other
+     * half is further split by the current thread until it is not larger than the grain size.
+     * A chunk, whose task could not be queued, is taken back and processed by the splitting
+     * thread. The thread which invokes the loop keeps processing queued chunks until the loop is
+     * completed, so the loop completes even if no executor thread is available or a queued task
+     * is dropped by the executor.
+     */
+    private static abstract class RangeLoop implements Task {
+
+        private final ConcurrentLinkedQueue<int[]> _chunks = new ConcurrentLinkedQueue<>();
+        private final CountDownLatch _done = new CountDownLatch(1);
+
+        /**
+         * Released whenever a chunk is queued or the loop is completed, wakes the invoking thread
+         */
+        private final Semaphore _signal = new Semaphore(0);
+
+        private final AtomicInteger _remaining;
+        private final AtomicReference<Throwable> _error = new AtomicReference<>();
+        private final ITaskExecutor _executor = Parallel._executor;
+        private final int _count;
+        private final int _grainSize;
+
+        RangeLoop(int count, int grainSize) {
+
+            _count = count;
+            _grainSize = grainSize > 0 ? grainSize : _grainSize(count);
+            _remaining = new AtomicInteger(count);
+        }
+
+        /**
+         * Processes a chunk of iterations
+         * @param fromInclusive index of the first iteration of the chunk, inclusive
+         * @param toExclusive index of the last iteration of the chunk, exclusive
+         */
+        abstract void process(int fromInclusive, int toExclusive);
+
+        @Override
+        public void run(Object state) {
+
+            int[] chunk = _chunks.poll();
+            if (chunk != null) _split(chunk[0], chunk[1]);
+        }
+
+        /**
+         * Queues a task to pick up a queued chunk
+         * @return true if the task is queued; otherwise false
+         */
+        private boolean _queue() {
+
+            try {
+                _executor.queue(this, null);
+                return true;
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            catch (RuntimeException e) {
+                // refused by a full executor
+                return false;
+            }
+        }
+
+        private void _split(int fromInclusive, int toExclusive) {
+
+            try {
+
+                while (toExclusive - fromInclusive > _grainSize && _error.get() == null) {
+
+                    int middle = (fromInclusive + toExclusive) >>> 1;
+                    int[] chunk = { middle, toExclusive };
 
-        private int count = 0;
-        private boolean used = false;
+                    _chunks.add(chunk);
+                    _signal.release();
+
+                    if (_queue()) {
+                        toExclusive = middle;
+                        continue;
+                    }
+
+                    // the chunk is processed by the current thread, unless another thread already
+                    // took it
+                    if (_chunks.remove(chunk)) break;
+
+                    toExclusive = middle;
+                }
 
-        void increase() {
+                if (_error.get() == null) process(fromInclusive, toExclusive);
+            }
+            catch (Throwable e) {
+                _error.compareAndSet(null, e);
+            }
+            finally {
 
-            synchronized (this) {
-                count++;
-                used = true;
+                if (_remaining.addAndGet(fromInclusive - toExclusive) == 0) {
+                    _done.countDown();
+                    _signal.release();
+                }
             }
         }
 
-        void decrease() {
+        /**
+         * Executes all iterations and blocks the calling thread until they are completed
+         * @throws InterruptedException throws if the calling thread is interrupted before all
+         * iterations are completed
+         */
+        void invoke() throws InterruptedException {
+
+            if (_count <= 0) return;
+
+            _split(0, _count);
+
+            ForkJoinPool.ManagedBlocker blocker = new ForkJoinPool.ManagedBlocker() {
+
+                @Override
+                public boolean block() throws InterruptedException {
+                    _signal.acquire();
+                    return true;
+                }
+
+                @Override
+                public boolean isReleasable() {
+                    return _done.getCount() == 0 || !_chunks.isEmpty() || _signal.tryAcquire();
+                }
+            };
+
+            // chunks could be queued by any thread, at any time until the loop is completed
+            while (_done.getCount() != 0) {
+
+                int[] chunk = _chunks.poll();
+
+                if (chunk != null) {
+                    _split(chunk[0], chunk[1]);
+                    continue;
+                }
 
-            synchronized (this) {
-                count--;
+                ForkJoinPool.managedBlock(blocker);
             }
+
+            Throwable error = _error.get();
+
+            if (error instanceof RuntimeException) throw (RuntimeException) error;
+            if (error instanceof Error) throw (Error) error;
+            if (error != null) throw new RuntimeException(error);
+        }
+
+        /**
+         * Gets the default grain size of a loop, which gives every processor several chunks so
+         * that uneven iterations could be balanced
+         * @param count number of iterations of the loop
+         * @return grain size
+         */
+        private static int _grainSize(int count) {
+
+            int parallelism = Math.max(Runtime.getRuntime().availableProcessors(), 1);
+            return Math.max(1, count / (parallelism * 8));
         }
+    }
+
+    /**
+     * Executes a range of iterations in chunks, each of which folds its iterations into its own
+     * partial result so that no lock is shared between chunks. Partial results are combined in
+     * the order of their chunks once all chunks are completed.
+     * @param <A> type of partial results
+     */
+    private static abstract class FoldingLoop<A> extends RangeLoop {
 
-        boolean isWaiting() {
+        private static final class Partial<A> {
 
-            synchronized (this) {
-                return !used || count != 0;
+            final int fromInclusive;
+            final A value;
+
+            Partial(int fromInclusive, A value) {
+                this.fromInclusive = fromInclusive;
+                this.value = value;
             }
         }
+
+        private final ConcurrentLinkedQueue<Partial<A>> _partials = new ConcurrentLinkedQueue<>();
+
+        FoldingLoop(int count) {
+            super(count, 0);
+        }
+
+        /**
+         * Folds a chunk of iterations into a partial result
+         * @param fromInclusive index of the first iteration of the chunk, inclusive
+         * @param toExclusive index of the last iteration of the chunk, exclusive
+         * @return partial result of the chunk
+         */
+        abstract A fold(int fromInclusive, int toExclusive);
+
+        @Override
+        final void process(int fromInclusive, int toExclusive) {
+            _partials.add(new Partial<>(fromInclusive, fold(fromInclusive, toExclusive)));
+        }
+
+        /**
+         * Executes all iterations and combines their partial results
+         * @param combiner function, which combines two partial results
+         * @param empty result to be returned if there is no iteration
+         * @return combined result
+         * @throws InterruptedException throws if the calling thread is interrupted before all
+         * iterations are completed
+         */
+        A invoke(Function2<A, A, A> combiner, A empty) throws InterruptedException {
+
+            invoke();
+
+            ArrayList<Partial<A>> partials = new ArrayList<>(_partials);
+            if (partials.isEmpty()) return empty;
+
+            Collections.sort(partials, (a, b) -> Integer.compare(a.fromInclusive, b.fromInclusive));
+
+            A result = partials.get(0).value;
+            for (int i = 1; i < partials.size(); i++) result = combiner.run(result, partials.get(i).value);
+
+            return result;
+        }
     }
 
     private class Worker extends shark.runtime.Worker {
@@ -53,6 +266,31 @@ public final class Parallel {
 
     private static final Worker _worker = singleton.new Worker();
     private static final Operator _operator = new Operator(100, 10, 50);
+    private static volatile ITaskExecutor _executor = _operator;
+
+    private static final Task _actionRunner = state -> ((Action) state).run();
+
+    static {
+        Metrics.register("parallel", _operator);
+    }
+
+    /**
+     * Gets the executor, through which queued tasks are executed
+     * @return executor of queued tasks
+     */
+    public static ITaskExecutor getExecutor() {
+        return _executor;
+    }
+
+    /**
+     * Sets the executor, through which queued tasks are executed. Tasks queued before this call
+     * continue to be executed by the previous executor. Thread settings of this class only apply
+     * to the default executor, which is an {@link Operator}
+     * @param executor executor to be used, null to restore the default executor
+     */
+    public static void setExecutor(ITaskExecutor executor) {
+        _executor = executor == null ? _operator : executor;
+    }
 
     /**
      * Gets the maximum number of queue processing threads
@@ -111,12 +349,54 @@ public final class Parallel {
         }
     }
 
+    /**
+     * Gets the maximum number of tasks the default executor keeps queued
+     * @return number of tasks
+     */
+    public static int getQueueCapacity() {
+        return _operator.getCapacity();
+    }
+
+    /**
+     * Sets the maximum number of tasks the default executor keeps queued
+     * @param value number of tasks, {@link Integer#MAX_VALUE} for an unbounded queue
+     */
+    public static void setQueueCapacity(int value) {
+
+        if (value < 1) throw new IllegalArgumentException();
+
+        if (StoredStates.set(Parallel.class, "queue-capacity", value)) {
+            _operator.setCapacity(value);
+        }
+    }
+
+    /**
+     * Gets the way the default executor handles tasks queued while its queue is full
+     * @return overflow policy
+     */
+    public static OverflowPolicy getQueueOverflowPolicy() {
+        return _operator.getOverflowPolicy();
+    }
+
+    /**
+     * Sets the way the default executor handles tasks queued while its queue is full
+     * @param value overflow policy
+     */
+    public static void setQueueOverflowPolicy(OverflowPolicy value) {
+
+        if (value == null) throw new IllegalArgumentException();
+
+        if (StoredStates.set(Parallel.class, "queue-overflow-policy", value.name())) {
+            _operator.setOverflowPolicy(value);
+        }
+    }
+
     /**
      * Gets the number of pending tasks
      * @return number of tasks
      */
     public static int getPendingTaskCount() {
-        return _operator.getPendingTaskCount();
+        return _executor.getPendingTaskCount();
     }
 
     /**
@@ -124,7 +404,7 @@ public final class Parallel {
      * @return number of tasks
      */
     public static int getWaitingTaskCount() {
-        return _operator.getWaitingTaskCount();
+        return _executor.getWaitingTaskCount();
     }
 
     /**
@@ -132,7 +412,7 @@ public final class Parallel {
      * @return number of threads
      */
     public static int getProcessingThreadCount() {
-        return _operator.getThreadCount();
+        return _executor.getThreadCount();
     }
 
     /**
@@ -146,7 +426,7 @@ public final class Parallel {
      * queueing operation is completed
      */
     public static TaskState queue(Task task, Object state, long invocationStamp)  throws InterruptedException {
-        return _operator.queue(task, state, invocationStamp);
+        return _executor.queue(task, state, invocationStamp);
     }
 
     /**
@@ -160,7 +440,37 @@ public final class Parallel {
      */
     @SuppressWarnings({"WeakerAccess", "UnusedReturnValue"})
     public static TaskState queue(Task task, Object state) throws InterruptedException {
-        return _operator.queue(task, state);
+        return _executor.queue(task, state);
+    }
+
+    /**
+     * Queues a tasks to be executed after a specified time
+     * @param task task to be executed
+     * @param state object to be passed to the task
+     * @param invocationStamp time, after which the task will be executed
+     * @param priority lane, through which the task is handed to a processing thread once it is due
+     * @return object, provides information about the queued task
+     *
+     * @exception InterruptedException throws if the calling thread is interrupted be for the
+     * queueing operation is completed
+     */
+    public static TaskState queue(Task task, Object state, long invocationStamp, TaskPriority priority) throws InterruptedException {
+        return _executor.queue(task, state, invocationStamp, priority);
+    }
+
+    /**
+     * Queues a task to be executed as soon as possible
+     * @param task task to be executed
+     * @param state object to be passed to the task
+     * @param priority lane, through which the task is handed to a processing thread
+     * @return object, provides information about the queued task
+     *
+     * @exception InterruptedException throws if the calling thread is interrupted be for the
+     * queueing operation is completed
+     */
+    @SuppressWarnings("UnusedReturnValue")
+    public static TaskState queue(Task task, Object state, TaskPriority priority) throws InterruptedException {
+        return _executor.queue(task, state, priority);
     }
 
     /**
@@ -174,7 +484,10 @@ public final class Parallel {
      */
     @SuppressWarnings("UnusedReturnValue")
     public static TaskState queue(Action task, long invocationStamp) throws InterruptedException {
-        return _operator.queue(task, invocationStamp);
+
+        if (task == null) throw new IllegalArgumentException();
+
+        return _executor.queue(_actionRunner, task, invocationStamp);
     }
 
     /**
@@ -187,7 +500,101 @@ public final class Parallel {
      */
     @SuppressWarnings("UnusedReturnValue")
     public static TaskState queue(Action task) throws InterruptedException {
-        return  _operator.queue(task);
+
+        if (task == null) throw new IllegalArgumentException();
+
+        return _executor.queue(_actionRunner, task);
+    }
+
+    /**
+     * Queues a tasks to be executed after a specified time
+     * @param task task to be executed
+     * @param invocationStamp time, after which the task will be executed
+     * @param priority lane, through which the task is handed to a processing thread once it is due
+     * @return object, provides information about the queued task
+     *
+     * @exception InterruptedException throws if the calling thread is interrupted be for the
+     * queueing operation is completed
+     */
+    @SuppressWarnings("UnusedReturnValue")
+    public static TaskState queue(Action task, long invocationStamp, TaskPriority priority) throws InterruptedException {
+
+        if (task == null) throw new IllegalArgumentException();
+
+        return _executor.queue(_actionRunner, task, invocationStamp, priority);
+    }
+
+    /**
+     * Queues a task to be executed as soon as possible
+     * @param task task to be executed
+     * @param priority lane, through which the task is handed to a processing thread
+     * @return object, provides information about the queued task
+     *
+     * @exception InterruptedException throws if the calling thread is interrupted be for the
+     * queueing operation is completed
+     */
+    @SuppressWarnings("UnusedReturnValue")
+    public static TaskState queue(Action task, TaskPriority priority) throws InterruptedException {
+
+        if (task == null) throw new IllegalArgumentException();
+
+        return _executor.queue(_actionRunner, task, priority);
+    }
+
+    /**
+     * Queues a task to be executed as soon as possible without tracking its execution. The
+     * default executor recycles its queue nodes, so that posting does not allocate
+     * @param task task to be executed
+     *
+     * @exception InterruptedException throws if the calling thread is interrupted be for the
+     * queueing operation is completed
+     */
+    public static void post(Action task) throws InterruptedException {
+        post(task, TaskPriority.Normal);
+    }
+
+    /**
+     * Queues a task to be executed as soon as possible without tracking its execution. The
+     * default executor recycles its queue nodes, so that posting does not allocate
+     * @param task task to be executed
+     * @param priority lane, through which the task is handed to a processing thread
+     *
+     * @exception InterruptedException throws if the calling thread is interrupted be for the
+     * queueing operation is completed
+     */
+    public static void post(Action task, TaskPriority priority) throws InterruptedException {
+
+        if (task == null) throw new IllegalArgumentException();
+
+        _executor.post(_actionRunner, task, priority);
+    }
+
+    /**
+     * Queues a task to be executed after a specified time without tracking its execution
+     * @param task task to be executed
+     * @param invocationStamp time, after which the task will be executed
+     *
+     * @exception InterruptedException throws if the calling thread is interrupted be for the
+     * queueing operation is completed
+     */
+    public static void post(Action task, long invocationStamp) throws InterruptedException {
+
+        if (task == null) throw new IllegalArgumentException();
+
+        _executor.post(_actionRunner, task, invocationStamp, TaskPriority.Normal);
+    }
+
+    /**
+     * Queues a task to be executed as soon as possible without tracking its execution. The
+     * default executor recycles its queue nodes, so that posting does not allocate
+     * @param task task to be executed
+     * @param state object to be passed to the task
+     *
+     * @exception InterruptedException throws if the calling thread is interrupted be for the
+     * queueing operation is completed
+     */
+    public static void post(Task task, Object state) throws InterruptedException {
+        _executor.post(task, state, TaskPriority.Normal);
     }
 
     /**
@@ -216,63 +623,246 @@ public final class Parallel {
     }
 
     /**
-     * Executes a for loop in which iterations run in parallel
+     * Executes a for loop in which iterations run in parallel. Iterations are executed in chunks,
+     * the size of which is chosen according to the number of iterations and available processors
      * @param fromInclusive the start index, inclusive
      * @param toExclusive the end index, exclusive
      * @param body the task that is invoked once per iteration.
      * @throws InterruptedException throws if the calling thread is interrupted before the loop
      * completed
+     * @exception RuntimeException the first exception thrown by the body is rethrown when all
+     * started chunks are completed, chunks which are not yet started are skipped
      */
     public static void loop(int fromInclusive, int toExclusive, Action1<Integer> body) throws InterruptedException {
 
-        final LoopCounter counter = singleton.new LoopCounter();
+        if (body == null) throw new IllegalArgumentException("body");
 
-        int step = fromInclusive < toExclusive ? 1 : -1;
+        range(fromInclusive, toExclusive, 0, body::run);
+    }
 
-        for(int i = fromInclusive; step > 0 ? i < toExclusive : i > toExclusive; i+=step) {
+    /**
+     * Executes a for loop in which iterations run in parallel without boxing the iteration index.
+     * Iterations are executed in chunks, the size of which is chosen according to the number of
+     * iterations and available processors
+     * @param fromInclusive the start index, inclusive
+     * @param toExclusive the end index, exclusive
+     * @param body the task that is invoked once per iteration.
+     * @throws InterruptedException throws if the calling thread is interrupted before the loop
+     * completed
+     * @exception RuntimeException the first exception thrown by the body is rethrown when all
+     * started chunks are completed, chunks which are not yet started are skipped
+     */
+    public static void range(int fromInclusive, int toExclusive, IntAction body) throws InterruptedException {
+        range(fromInclusive, toExclusive, 0, body);
+    }
 
-            int index = i;
+    /**
+     * Executes a for loop in which iterations run in parallel without boxing the iteration index.
+     * The range of iterations is split recursively until chunks are not larger than the grain
+     * size, each chunk is executed as one task
+     * @param fromInclusive the start index, inclusive
+     * @param toExclusive the end index, exclusive
+     * @param grainSize maximum number of iterations of a chunk, 0 to choose it according to the
+     *                  number of iterations and available processors
+     * @param body the task that is invoked once per iteration.
+     * @throws InterruptedException throws if the calling thread is interrupted before the loop
+     * completed
+     * @exception RuntimeException the first exception thrown by the body is rethrown when all
+     * started chunks are completed, chunks which are not yet started are skipped
+     */
+    public static void range(int fromInclusive, int toExclusive, int grainSize, IntAction body) throws InterruptedException {
 
-            queue(() -> {
-                try {
-                    counter.increase();
-                    body.run(index);
-                } finally {
-                    counter.decrease();
-                }
+        if (body == null) throw new IllegalArgumentException("body");
+        if (grainSize < 0) throw new IllegalArgumentException("grainSize");
 
-            });
-        }
+        boolean ascending = fromInclusive <= toExclusive;
+        int count = ascending ? toExclusive - fromInclusive : fromInclusive - toExclusive;
 
-        while (counter.isWaiting()) Parallel.sleep();
-    }
+        new RangeLoop(count, grainSize) {
 
+            @Override
+            void process(int from, int to) {
+
+                if (ascending) {
+                    for (int i = fromInclusive + from, end = fromInclusive + to; i < end; i++) body.run(i);
+                } else {
+                    for (int i = fromInclusive - from, end = fromInclusive - to; i > end; i--) body.run(i);
+                }
+            }
+        }.invoke();
+    }
 
     /**
-     * Executes a foreach operation on a collection in which iterations run in parallel
+     * Executes a foreach operation on a collection in which iterations run in parallel. Elements
+     * are processed in chunks, the size of which is chosen according to the number of elements
+     * and available processors
      * @param collection enumerable data source
      * @param body the task that is invoked once per iteration.
      * @param <T> type of data in the collection
      * @throws InterruptedException throws if the calling thread is interrupted before the operation
      * is completed
+     * @exception RuntimeException the first exception thrown by the body is rethrown when all
+     * started chunks are completed, chunks which are not yet started are skipped
      */
     public static <T> void each(Iterable<T> collection, final Action1<T> body) throws InterruptedException {
+        each(collection, 0, body);
+    }
+
+    /**
+     * Executes a foreach operation on a collection in which iterations run in parallel. Elements
+     * are split recursively into chunks which are not larger than the grain size, each chunk is
+     * executed as one task
+     * @param collection enumerable data source
+     * @param grainSize maximum number of elements of a chunk, 0 to choose it according to the
+     *                  number of elements and available processors
+     * @param body the task that is invoked once per iteration.
+     * @param <T> type of data in the collection
+     * @throws InterruptedException throws if the calling thread is interrupted before the operation
+     * is completed
+     * @exception RuntimeException the first exception thrown by the body is rethrown when all
+     * started chunks are completed, chunks which are not yet started are skipped
+     */
+    public static <T> void each(Iterable<T> collection, int grainSize, final Action1<T> body) throws InterruptedException {
 
-        final LoopCounter counter = singleton.new LoopCounter();
+        if (collection == null) throw new IllegalArgumentException("collection");
+        if (body == null) throw new IllegalArgumentException("body");
+        if (grainSize < 0) throw new IllegalArgumentException("grainSize");
 
-        for (T one : collection){
-            queue(state -> {
-                try {
-                    counter.increase();
-                    //noinspection unchecked
-                    body.run((T) state);
-                } finally {
-                    counter.decrease();
-                }
-            }, one);
-        }
+        final List<T> list = _asList(collection);
+
+        new RangeLoop(list.size(), grainSize) {
+
+            @Override
+            void process(int from, int to) {
+                for (int i = from; i < to; i++) body.run(list.get(i));
+            }
+        }.invoke();
+    }
+
+    /**
+     * Projects each element of a collection into a new form in parallel
+     * @param collection enumerable data source
+     * @param selector function, which projects an element
+     * @param <T> type of data in the collection
+     * @param <R> type of projected data
+     * @return list of projected elements, in the order of the collection
+     * @throws InterruptedException throws if the calling thread is interrupted before the operation
+     * is completed
+     * @exception RuntimeException the first exception thrown by the selector is rethrown when all
+     * started chunks are completed
+     */
+    public static <T, R> List<R> map(Iterable<T> collection, final Function1<T, R> selector) throws InterruptedException {
+
+        if (collection == null) throw new IllegalArgumentException("collection");
+        if (selector == null) throw new IllegalArgumentException("selector");
+
+        final List<T> list = _asList(collection);
+        final Object[] results = new Object[list.size()];
+
+        new RangeLoop(list.size(), 0) {
+
+            @Override
+            void process(int from, int to) {
+                for (int i = from; i < to; i++) results[i] = selector.run(list.get(i));
+            }
+        }.invoke();
+
+        //noinspection unchecked
+        return (List<R>) Arrays.asList(results);
+    }
+
+    /**
+     * Reduces values extracted from elements of a collection to a single value in parallel. Each
+     * chunk of elements is reduced to a partial value without locking, partial values are then
+     * combined in the order of the collection, so the combiner only needs to be associative
+     * @param collection enumerable data source
+     * @param selector function, which extracts the value to be reduced from an element
+     * @param combiner function, which combines two values, such as {@link shark.utils.linq#IntegerAdder}
+     * @param <T> type of data in the collection
+     * @param <R> type of reduced value
+     * @return reduced value if the collection is not empty; otherwise null
+     * @throws InterruptedException throws if the calling thread is interrupted before the operation
+     * is completed
+     * @exception RuntimeException the first exception thrown by the selector or the combiner is
+     * rethrown when all started chunks are completed
+     */
+    public static <T, R> R reduce(Iterable<T> collection, final Function1<T, R> selector, final Function2<R, R, R> combiner) throws InterruptedException {
+
+        if (collection == null) throw new IllegalArgumentException("collection");
+        if (selector == null) throw new IllegalArgumentException("selector");
+        if (combiner == null) throw new IllegalArgumentException("combiner");
+
+        final List<T> list = _asList(collection);
+
+        return new FoldingLoop<R>(list.size()) {
+
+            @Override
+            R fold(int from, int to) {
+
+                R result = selector.run(list.get(from));
+                for (int i = from + 1; i < to; i++) result = combiner.run(result, selector.run(list.get(i)));
+
+                return result;
+            }
+        }.invoke(combiner, null);
+    }
+
+    /**
+     * Aggregates elements of a collection in parallel. Each chunk of elements is accumulated into
+     * its own partial result, created by the seed function, without locking. Partial results are
+     * then combined in the order of the collection
+     * @param collection enumerable data source
+     * @param seed function, which creates an empty partial result
+     * @param accumulator function, which accumulates an element into a partial result
+     * @param combiner function, which combines two partial results
+     * @param <T> type of data in the collection
+     * @param <A> type of aggregated result
+     * @return aggregated result
+     * @throws InterruptedException throws if the calling thread is interrupted before the operation
+     * is completed
+     * @exception RuntimeException the first exception thrown by provided functions is rethrown
+     * when all started chunks are completed
+     */
+    public static <T, A> A aggregate(Iterable<T> collection, final Function<A> seed, final Function2<A, T, A> accumulator, final Function2<A, A, A> combiner) throws InterruptedException {
+
+        if (collection == null) throw new IllegalArgumentException("collection");
+        if (seed == null) throw new IllegalArgumentException("seed");
+        if (accumulator == null) throw new IllegalArgumentException("accumulator");
+        if (combiner == null) throw new IllegalArgumentException("combiner");
+
+        final List<T> list = _asList(collection);
+
+        A result = new FoldingLoop<A>(list.size()) {
+
+            @Override
+            A fold(int from, int to) {
+
+                A partial = seed.run();
+                for (int i = from; i < to; i++) partial = accumulator.run(partial, list.get(i));
+
+                return partial;
+            }
+        }.invoke(combiner, null);
+
+        return list.isEmpty() ? seed.run() : result;
+    }
+
+    /**
+     * Gets a random access list of elements of a collection
+     * @param collection enumerable data source
+     * @param <T> type of data in the collection
+     * @return the collection itself if it is a random access list; otherwise a copy of the
+     * collection elements
+     */
+    private static <T> List<T> _asList(Iterable<T> collection) {
+
+        //noinspection unchecked
+        if (collection instanceof List && collection instanceof RandomAccess) return (List<T>) collection;
+
+        ArrayList<T> list = collection instanceof Collection ? new ArrayList<>(((Collection<T>) collection).size()) : new ArrayList<>();
+        for (T one : collection) list.add(one);
 
-        while (counter.isWaiting()) Parallel.sleep();
+        return list;
     }
 
     /**
@@ -1,18 +1,29 @@
 package shark.runtime;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import shark.Framework;
 import shark.delegates.Action1;
 import shark.delegates.Function1;
+import shark.utils.Log;
 
 /**
- * Operates continuous asynchronous operation
+ * Operates continuous asynchronous operation. Threads waiting for the result are parked until the
+ * operation is completed, continuations registered before completion are invoked once, in
+ * registration order, either by the thread which completes the operation or by a specified
+ * executor
  * @param <T> type of operation result
  */
 public final class Promise<T> {
 
     private T result = null;
-    private Action1<T> callback = null;
+    private ArrayList<Action1<T>> continuations = null;
     private boolean resolverAllocated = false;
-    private boolean resultAvailable = false;
+    private volatile boolean resultAvailable = false;
 
     /**
      * Gets resolver of current promise. This method could only be invoked once so that only the
@@ -27,20 +38,106 @@ public final class Promise<T> {
             promise.resolverAllocated = true;
         }
 
-        return arg -> {
+        return promise::_resolve;
+    }
+
+    /**
+     * Creates a promise, which is completed when all specified promises are completed
+     * @param promises promises to be awaited
+     * @param <T> type of operation results
+     * @return an instance of {@link Promise}, the result of which is the list of results of the
+     * specified promises, in the same order
+     */
+    @SafeVarargs
+    public static <T> Promise<List<T>> all(Promise<T>... promises) {
+
+        if (promises == null) throw new IllegalArgumentException("promises");
+
+        // the generic array is copied here, passing it on could pollute the heap
+        ArrayList<Promise<T>> list = new ArrayList<>(promises.length);
+        for (Promise<T> one : promises) list.add(one);
+
+        return all(list);
+    }
+
+    /**
+     * Creates a promise, which is completed when all specified promises are completed
+     * @param promises promises to be awaited
+     * @param <T> type of operation results
+     * @return an instance of {@link Promise}, the result of which is the list of results of the
+     * specified promises, in the same order
+     */
+    public static <T> Promise<List<T>> all(Iterable<Promise<T>> promises) {
+
+        if (promises == null) throw new IllegalArgumentException("promises");
+
+        ArrayList<Promise<T>> list = new ArrayList<>();
+        for (Promise<T> one : promises) list.add(one);
+
+        Promise<List<T>> promise = new Promise<>();
+        Action1<List<T>> resolver = Promise.getResolver(promise);
 
-            synchronized (promise) {
+        ArrayList<T> results = new ArrayList<>(list.size());
+        for (int i = 0; i < list.size(); i++) results.add(null);
 
-                if (promise.resultAvailable) return;
+        AtomicInteger remaining = new AtomicInteger(list.size());
 
-                promise.resultAvailable = true;
-                promise.result = arg;
+        //noinspection ConstantConditions
+        if (list.isEmpty()) resolver.run(results);
+
+        for (int i = 0; i < list.size(); i++) {
+
+            final int index = i;
 
-                if (promise.callback != null) {
-                    promise.callback.run(promise.result);
+            list.get(i).then(data -> {
+
+                synchronized (results) {
+                    results.set(index, data);
                 }
-            }
-        };
+
+                //noinspection ConstantConditions
+                if (remaining.decrementAndGet() == 0) resolver.run(results);
+            });
+        }
+
+        return promise;
+    }
+
+    /**
+     * Creates a promise, which is completed when any of specified promises is completed
+     * @param promises promises to be awaited
+     * @param <T> type of operation results
+     * @return an instance of {@link Promise}, the result of which is the result of the first
+     * completed promise
+     */
+    @SafeVarargs
+    public static <T> Promise<T> any(Promise<T>... promises) {
+
+        if (promises == null) throw new IllegalArgumentException("promises");
+
+        ArrayList<Promise<T>> list = new ArrayList<>(promises.length);
+        for (Promise<T> one : promises) list.add(one);
+
+        return any(list);
+    }
+
+    /**
+     * Creates a promise, which is completed when any of specified promises is completed
+     * @param promises promises to be awaited
+     * @param <T> type of operation results
+     * @return an instance of {@link Promise}, the result of which is the result of the first
+     * completed promise
+     */
+    public static <T> Promise<T> any(Iterable<Promise<T>> promises) {
+
+        if (promises == null) throw new IllegalArgumentException("promises");
+
+        Promise<T> promise = new Promise<>();
+        Action1<T> resolver = Promise.getResolver(promise);
+
+        for (Promise<T> one : promises) one.then(resolver);
+
+        return promise;
     }
 
     /**
@@ -59,6 +156,107 @@ public final class Promise<T> {
         Promise.getResolver(this).run(data);
     }
 
+    /**
+     * Completes the operation and invokes registered continuations
+     * @param data operation result
+     */
+    private void _resolve(T data) {
+
+        ArrayList<Action1<T>> continuations;
+
+        synchronized (this) {
+
+            if (resultAvailable) return;
+
+            result = data;
+            resultAvailable = true;
+
+            continuations = this.continuations;
+            this.continuations = null;
+
+            notifyAll();
+        }
+
+        if (continuations != null) {
+            for (Action1<T> one : continuations) _invoke(one, data);
+        }
+    }
+
+    /**
+     * Registers a continuation, or invokes it on the calling thread if the operation is already
+     * completed
+     * @param continuation continuation to be registered
+     */
+    private void _continue(Action1<T> continuation) {
+
+        synchronized (this) {
+
+            if (!resultAvailable) {
+                if (continuations == null) continuations = new ArrayList<>(2);
+                continuations.add(continuation);
+                return;
+            }
+        }
+
+        _invoke(continuation, result);
+    }
+
+    /**
+     * Invokes a continuation, errors of which are logged instead of being propagated to the
+     * thread which completes the operation
+     * @param continuation continuation to be invoked
+     * @param data operation result
+     */
+    private static <T> void _invoke(Action1<T> continuation, T data) {
+
+        try {
+            continuation.run(data);
+        }
+        catch (Exception e) {
+
+            //noinspection ConstantConditions
+            if (Framework.log) {
+                Log.error(Promise.class,
+                        "Error detected while invoking continuation",
+                        "Class: " + continuation.getClass().getName(),
+                        "Error: " + e.getMessage(),
+                        Log.stringify(e.getStackTrace()));
+            }
+        }
+    }
+
+    /**
+     * Wraps a continuation so that it is posted to an executor instead of being invoked by the
+     * thread which completes the operation. If posting is interrupted, the continuation is invoked
+     * by the calling thread
+     * @param task continuation to be wrapped
+     * @param executor executor of the continuation, null to invoke it on the completing thread
+     * @return wrapped continuation
+     */
+    private static <T> Action1<T> _dispatch(Action1<T> task, ITaskExecutor executor) {
+
+        if (executor == null) return task;
+
+        return data -> {
+
+            try {
+                executor.post(state -> task.run(data), null, TaskPriority.Normal);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                _invoke(task, data);
+            }
+        };
+    }
+
+    /**
+     * Indicates whether the operation is completed or not
+     * @return true if the operation is completed; otherwise false
+     */
+    public final boolean isCompleted() {
+        return resultAvailable;
+    }
+
     /**
      * Gets result of the operation. This method will block the running thread until the operation
      * is completed
@@ -69,26 +267,62 @@ public final class Promise<T> {
      */
     public final T result() throws InterruptedException {
 
-        while (true) {
+        if (resultAvailable) return result;
+
+        synchronized (this) {
+            while (!resultAvailable) wait();
+            return result;
+        }
+    }
+
+    /**
+     * Gets result of the operation. This method will block the running thread until the operation
+     * is completed or a specified time elapses
+     *
+     * @param timeout maximum time, in milliseconds, to wait
+     * @return operation result
+     * @exception InterruptedException throws if the calling thread is interrupted before operation
+     * is completed
+     * @exception TimeoutException throws if the operation is not completed in time
+     */
+    public final T result(long timeout) throws InterruptedException, TimeoutException {
+
+        if (resultAvailable) return result;
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+
+        synchronized (this) {
+
+            while (!resultAvailable) {
+
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) throw new TimeoutException();
 
-            synchronized (this) {
-                if (resultAvailable) return result;
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
             }
 
-            Parallel.sleep();
+            return result;
         }
     }
 
     /**
-     * Directs the operation to invoke a specified task when it is completed
+     * Directs the operation to invoke a specified task when it is completed. Tasks are invoked in
+     * the order they are registered
      * @param task Task to be invoked when the operation is completed
      */
     public final void then(Action1<T> task) {
+        if (task != null) _continue(task);
+    }
 
-        synchronized (this) {
-            callback = task;
-            if (task != null && resultAvailable) task.run(result);
-        }
+    /**
+     * Directs the operation to post a specified task to an executor when it is completed. Unlike
+     * {@link #then(Function1, ITaskExecutor)} the task returns no data
+     * @param task Task to be invoked when the operation is completed
+     * @param executor executor, which invokes the task, null to invoke the task on the thread
+     *                 which completes the operation
+     */
+    public final void thenAccept(Action1<T> task, ITaskExecutor executor) {
+        if (task != null) _continue(_dispatch(task, executor));
     }
 
     /**
@@ -100,23 +334,111 @@ public final class Promise<T> {
      */
     @SuppressWarnings("TypeParameterHidesVisibleType")
     public final <R> Promise<R> then(Function1<T, R> task){
+        return then(task, null);
+    }
 
-        synchronized (this) {
+    /**
+     * Directs the operation to post a specified task to an executor when it is completed
+     * @param task Task to be invoked when the operation is completed
+     * @param executor executor, which invokes the task, null to invoke the task on the thread
+     *                 which completes the operation
+     * @param <R> Type of data to be returned by the task
+     * @return an instance of {@link Promise}, which treats the provided task return data as its
+     * operation result, or null if the task fails
+     */
+    @SuppressWarnings("TypeParameterHidesVisibleType")
+    public final <R> Promise<R> then(Function1<T, R> task, ITaskExecutor executor) {
 
-            Promise<R> promise = new Promise<>();
-            Action1<R> resolver = Promise.getResolver(promise);
+        Promise<R> promise = new Promise<>();
+        Action1<R> resolver = Promise.getResolver(promise);
 
-            if (task != null) {
+        if (task != null) {
 
-                //noinspection ConstantConditions
-                callback = data -> resolver.run(task.run(data));
-                if (resultAvailable) callback.run(result);
-            }
-            else {
-                callback = null;
-            }
+            _continue(_dispatch(data -> {
+
+                R value = null;
 
-            return promise;
+                try {
+                    value = task.run(data);
+                }
+                finally {
+                    //noinspection ConstantConditions
+                    resolver.run(value);
+                }
+            }, executor));
         }
+
+        return promise;
+    }
+
+    /**
+     * Directs the operation to start another operation, provided by a specified task, when it is
+     * completed
+     * @param task Task which starts the next operation
+     * @param <R> Type of result of the next operation
+     * @return an instance of {@link Promise}, which is completed with the result of the next
+     * operation, or null if the task fails
+     */
+    @SuppressWarnings("TypeParameterHidesVisibleType")
+    public final <R> Promise<R> thenCompose(Function1<T, Promise<R>> task) {
+        return thenCompose(task, null);
+    }
+
+    /**
+     * Directs the operation to post a specified task, which starts another operation, to an
+     * executor when it is completed
+     * @param task Task which starts the next operation
+     * @param executor executor, which invokes the task, null to invoke the task on the thread
+     *                 which completes the operation
+     * @param <R> Type of result of the next operation
+     * @return an instance of {@link Promise}, which is completed with the result of the next
+     * operation, or null if the task fails
+     */
+    @SuppressWarnings("TypeParameterHidesVisibleType")
+    public final <R> Promise<R> thenCompose(Function1<T, Promise<R>> task, ITaskExecutor executor) {
+
+        Promise<R> promise = new Promise<>();
+        Action1<R> resolver = Promise.getResolver(promise);
+
+        if (task != null) {
+
+            _continue(_dispatch(data -> {
+
+                Promise<R> next = null;
+
+                try {
+                    next = task.run(data);
+                }
+                finally {
+                    //noinspection ConstantConditions
+                    if (next == null) resolver.run(null); else next.then(resolver);
+                }
+            }, executor));
+        }
+
+        return promise;
+    }
+
+    /**
+     * Creates a promise, which is completed with the result of the operation, or with a
+     * specified value if the operation is not completed in time
+     * @param timeout maximum time, in milliseconds, to wait for the operation
+     * @param onTimeout value to be used as result if the operation is not completed in time
+     * @return an instance of {@link Promise}
+     *
+     * @exception InterruptedException throws if the calling thread is interrupted before the
+     * timeout is scheduled
+     */
+    public final Promise<T> timeout(long timeout, T onTimeout) throws InterruptedException {
+
+        Promise<T> promise = new Promise<>();
+        Action1<T> resolver = Promise.getResolver(promise);
+
+        then(resolver);
+
+        //noinspection ConstantConditions
+        if (!promise.isCompleted()) Parallel.post(() -> resolver.run(onTimeout), System.currentTimeMillis() + timeout);
+
+        return promise;
     }
 }
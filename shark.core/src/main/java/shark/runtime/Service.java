@@ -248,7 +248,7 @@ public final class Service {
         }
 
         //noinspection ConstantConditions
-        while (!result.isCompleted()) Parallel.sleep();
+        result.await();
 
         return new ServiceExecutionResult(result.getResponse(), result.getRequest());
     }
@@ -0,0 +1,111 @@
+package shark.runtime;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Provides execution metrics of an {@link Operator} or a {@link Worker}: how long tasks wait in
+ * the queue before a thread picks them up, how long they run, how many of them complete, fail or
+ * find the queue full, and how many threads are started and stopped to run them. Metrics are
+ * recorded without locking, so that they could be kept enabled in production
+ */
+@SuppressWarnings("WeakerAccess")
+public final class TaskMetrics {
+
+    private final LatencyHistogram waitTime = new LatencyHistogram();
+    private final LatencyHistogram runTime = new LatencyHistogram();
+
+    private final AtomicLong completedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong startedThreadCount = new AtomicLong();
+    private final AtomicLong stoppedThreadCount = new AtomicLong();
+
+    TaskMetrics() {
+    }
+
+    void _recordWait(long nanos) {
+        waitTime.record(nanos);
+    }
+
+    void _recordRun(long nanos, boolean succeeded) {
+
+        runTime.record(nanos);
+
+        if (succeeded) {
+            completedCount.incrementAndGet();
+        } else {
+            failedCount.incrementAndGet();
+        }
+    }
+
+    void _recordRejection() {
+        rejectedCount.incrementAndGet();
+    }
+
+    void _recordThreadStart() {
+        startedThreadCount.incrementAndGet();
+    }
+
+    void _recordThreadStop() {
+        stoppedThreadCount.incrementAndGet();
+    }
+
+    /**
+     * Gets the histogram of times, in nanoseconds, tasks wait in the queue before being picked up
+     * by a thread. Workers do not queue tasks, their histogram stays empty
+     * @return histogram of wait times
+     */
+    public LatencyHistogram getWaitTime() {
+        return waitTime;
+    }
+
+    /**
+     * Gets the histogram of times, in nanoseconds, tasks take to run. Repeatable tasks of workers
+     * are recorded once per run
+     * @return histogram of run times
+     */
+    public LatencyHistogram getRunTime() {
+        return runTime;
+    }
+
+    /**
+     * Gets the number of task runs, which succeeded
+     * @return number of runs
+     */
+    public long getCompletedCount() {
+        return completedCount.get();
+    }
+
+    /**
+     * Gets the number of task runs, which failed
+     * @return number of runs
+     */
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    /**
+     * Gets the number of tasks, which found the queue full, regardless of the overflow policy
+     * applied to them
+     * @return number of tasks
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * Gets the number of threads started to run tasks
+     * @return number of threads
+     */
+    public long getStartedThreadCount() {
+        return startedThreadCount.get();
+    }
+
+    /**
+     * Gets the number of threads, which stopped running tasks
+     * @return number of threads
+     */
+    public long getStoppedThreadCount() {
+        return stoppedThreadCount.get();
+    }
+}
@@ -0,0 +1,24 @@
+package shark.runtime;
+
+/**
+ * Describes lanes, through which queued tasks of {@link Operator} are handed to processing
+ * threads. Lanes are served in weighted fair order so that tasks of a higher priority are picked
+ * more often while tasks of a lower priority are never starved.
+ */
+public enum TaskPriority {
+
+    /**
+     * Latency sensitive tasks, such as network writes and connection checks
+     */
+    Critical,
+
+    /**
+     * Regular tasks. Tasks queued without a priority are placed in this lane
+     */
+    Normal,
+
+    /**
+     * Throughput oriented tasks, which could wait while tasks of higher priorities are waiting
+     */
+    Bulk
+}
@@ -1,5 +1,8 @@
 package shark.runtime;
 
+import shark.Framework;
+import shark.utils.Log;
+
 public class TaskState extends AsyncOperationState {
 
     private Thread thread = null;
@@ -45,4 +48,52 @@ public class TaskState extends AsyncOperationState {
     void _notifyFailure(Exception e) {
         notifyFailure(e);
     }
+
+    /**
+     * Executes the task on the calling thread and records its outcome
+     * @param owner class of the executor, used as owner of error logs
+     * @return exception thrown by the task, or null if the task succeeded
+     */
+    Exception _run(Class<?> owner) {
+
+        _notifyStart(Thread.currentThread());
+
+        Exception e = _invoke(task, state, owner);
+
+        if (e == null) {
+            _notifySuccess();
+        } else {
+            notifyFailure(e);
+        }
+
+        return e;
+    }
+
+    /**
+     * Executes a task on the calling thread and logs its error, if any
+     * @param task task to be executed
+     * @param state object to be passed to the task
+     * @param owner class of the executor, used as owner of error logs
+     * @return exception thrown by the task, or null if the task succeeded
+     */
+    static Exception _invoke(Task task, Object state, Class<?> owner) {
+
+        try {
+            task.run(state);
+            return null;
+        }
+        catch (Exception e) {
+
+            //noinspection ConstantConditions
+            if (!InterruptedException.class.isAssignableFrom(e.getClass()) && Framework.log) {
+                Log.error(owner,
+                        "Error detected while processing task",
+                        "Class: " + task.getClass().getName(),
+                        "Error: " + e.getMessage(),
+                        Log.stringify(e.getStackTrace()));
+            }
+
+            return e;
+        }
+    }
 }
@@ -0,0 +1,146 @@
+package shark.runtime;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Executes tasks on a pool of threads, each of which owns a double-ended task queue. Tasks queued
+ * by a pool thread are pushed to its own queue, idle threads steal tasks from the queues of busy
+ * threads so that short tasks scale with the number of cores without contending on a shared
+ * queue. Priorities of queued tasks are not distinguished by this executor.
+ */
+@SuppressWarnings("WeakerAccess")
+public class WorkStealingExecutor implements ITaskExecutor {
+
+    private class TaskJob extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final TaskState state;
+
+        TaskJob(TaskState state) {
+            this.state = state;
+        }
+
+        @Override
+        protected void compute() {
+            state._run(WorkStealingExecutor.class);
+        }
+    }
+
+    private final ForkJoinPool _pool;
+
+    /**
+     * Delayed tasks are kept by an operator until they are due, then pushed to the pool
+     */
+    private final Operator _timer = new Operator(1, 20, 100);
+
+    /**
+     * Create an executor, the number of threads of which equals to the number of available
+     * processors
+     */
+    public WorkStealingExecutor() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create an executor
+     * @param parallelism number of threads, kept busy by the executor
+     */
+    public WorkStealingExecutor(int parallelism) {
+
+        if (parallelism < 1) throw new IllegalArgumentException("parallelism");
+
+        _pool = new ForkJoinPool(parallelism, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, false);
+    }
+
+    /**
+     * Gets the number of threads, kept busy by the executor
+     * @return number of threads
+     */
+    public int getParallelism() {
+        return _pool.getParallelism();
+    }
+
+    /**
+     * Gets the number of tasks stolen by idle threads from the queues of busy threads
+     * @return number of tasks
+     */
+    public long getStealCount() {
+        return _pool.getStealCount();
+    }
+
+    @Override
+    public int getThreadCount() {
+        return _pool.getPoolSize();
+    }
+
+    @Override
+    public int getPendingTaskCount() {
+        return _timer.getPendingTaskCount() + _timer.getWaitingTaskCount();
+    }
+
+    @Override
+    public int getWaitingTaskCount() {
+        return (int) Math.min(Integer.MAX_VALUE, _pool.getQueuedSubmissionCount() + _pool.getQueuedTaskCount());
+    }
+
+    @Override
+    public TaskState queue(Task task, Object state) {
+
+        if (task == null) throw new IllegalArgumentException("task");
+
+        TaskState info = new TaskState(task, state, false);
+        _submit(new TaskJob(info));
+
+        return info;
+    }
+
+    @Override
+    public TaskState queue(Task task, Object state, long invocationStamp) throws InterruptedException {
+
+        if (task == null) throw new IllegalArgumentException("task");
+
+        if (invocationStamp <= System.currentTimeMillis()) return queue(task, state);
+
+        TaskState info = new TaskState(task, state, false);
+        _timer.queue(job -> _submit((TaskJob) job), new TaskJob(info), invocationStamp);
+
+        return info;
+    }
+
+    @Override
+    public TaskState queue(Task task, Object state, TaskPriority priority) {
+        return queue(task, state);
+    }
+
+    @Override
+    public TaskState queue(Task task, Object state, long invocationStamp, TaskPriority priority) throws InterruptedException {
+        return queue(task, state, invocationStamp);
+    }
+
+    @Override
+    public void post(Task task, Object state, TaskPriority priority) {
+        queue(task, state);
+    }
+
+    @Override
+    public void post(Task task, Object state, long invocationStamp, TaskPriority priority) throws InterruptedException {
+        queue(task, state, invocationStamp);
+    }
+
+    /**
+     * Pushes a job to the local queue of the calling thread if it belongs to the pool; otherwise
+     * submits the job to the pool
+     * @param job job to be executed
+     */
+    void _submit(ForkJoinTask<?> job) {
+
+        if (ForkJoinTask.getPool() == _pool) {
+            job.fork();
+        } else {
+            _pool.execute(job);
+        }
+    }
+}
@@ -9,10 +9,11 @@ import shark.utils.Log;
 public abstract class Worker {
 
     private final HashSet<TaskState> _tasks = new HashSet<>();
+    private final TaskMetrics _metrics = new TaskMetrics();
 
-    private boolean isRunning;
-    private boolean isStarting;
-    private boolean isStopping;
+    private volatile boolean isRunning;
+    private volatile boolean isStarting;
+    private volatile boolean isStopping;
 
     @SuppressWarnings("WeakerAccess")
     public Worker() {
@@ -46,6 +47,17 @@ public abstract class Worker {
         return Automations.isRegistered(this);
     }
 
+    /**
+     * Gets execution metrics of the worker: run time of its tasks, completed and failed runs, and
+     * started and stopped task threads. Metrics could be exported periodically by registering
+     * them with {@link Metrics}
+     * @return metrics of the worker
+     */
+    @SuppressWarnings("WeakerAccess")
+    public TaskMetrics getMetrics() {
+        return _metrics;
+    }
+
     private Runnable _taskHandler(final TaskState info) {
 
         final Worker worker = this;
@@ -53,11 +65,23 @@ public abstract class Worker {
         return new Runnable() {
             @Override
             public void run() {
+                _metrics._recordThreadStart();
+
                 try {
                     info._notifyStart(Thread.currentThread());
 
                     do {
-                        info._getTask().run(info.getState());
+                        long anchor = System.nanoTime();
+                        boolean succeeded = false;
+
+                        try {
+                            info._getTask().run(info.getState());
+                            succeeded = true;
+                        }
+                        finally {
+                            _metrics._recordRun(System.nanoTime() - anchor, succeeded);
+                        }
+
                         if (info.isRepeatable && !isStopping) Parallel.sleep();
 
                     } while (info.isRepeatable && !isStopping);
@@ -82,10 +106,14 @@ public abstract class Worker {
                             "Task: " + info._getTask().getClass().getPackage().getName() + "/" + info._getTask().getClass().getName(),
                             "Error: " + e.getMessage(),
                             Log.stringify(e.getStackTrace()));
+
+                    info._notifyFailure(e);
                 }
                 finally {
 
                     synchronized (_tasks) {
+                        _tasks.remove(info);
+
                         if (_tasks.size() == 0) {
 
                             try {
@@ -109,6 +137,8 @@ public abstract class Worker {
                                     "Instance: " + this);
                         }
                     }
+
+                    _metrics._recordThreadStop();
                 }
             }
         };
@@ -128,24 +158,7 @@ public abstract class Worker {
                 try {
                     if (isRunning) {
 
-                        Thread T = new Thread(() -> {
-                            try {
-                                info._notifyStart(Thread.currentThread());
-
-                                do {
-                                    info._getTask().run(info.getState());
-                                    if (info.isRepeatable && !isStopping) Parallel.sleep();
-                                } while (info.isRepeatable && !isStopping);
-
-                                info._notifySuccess();
-                            }
-                            catch (InterruptedException e) {
-
-                                info._notifyFailure(e);
-                            }
-                        });
-
-                        T.setDaemon(true);
+                        Thread T = Workers._createThread(_taskHandler(info));
                         T.start();
                     }
 
@@ -215,10 +228,11 @@ public abstract class Worker {
                     for (TaskState info: _tasks) {
 
                         try {
-                            Thread T = new Thread(_taskHandler(info));
-                            T.setDaemon(true);
-                            T.start();
+                            Thread T = Workers._createThread(_taskHandler(info));
+
+                            // tasks observe isRunning() as soon as they start
                             isRunning = true;
+                            T.start();
                         }
                         catch (Exception e) {
 
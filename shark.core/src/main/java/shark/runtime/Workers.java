@@ -1,6 +1,8 @@
 package shark.runtime;
 
+import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.concurrent.ThreadFactory;
 
 public final class Workers {
 
@@ -11,6 +13,27 @@ public final class Workers {
 
     private static long stopTimeout = 10000;
     private static long taskSleepInterval = 10; // for weak android devices this amount of sleeping time is reasonable
+    private static volatile ExecutionMode executionMode = ExecutionMode.Platform;
+
+    private static final ThreadFactory virtualThreadFactory = _virtualThreadFactory();
+
+    /**
+     * Gets the factory of virtual threads if it is supported by the runtime
+     * @return factory of virtual threads if supported; otherwise null
+     */
+    private static ThreadFactory _virtualThreadFactory() {
+
+        try {
+            // Thread.ofVirtual().factory(), only available on runtimes supporting virtual threads
+            Method ofVirtual = Thread.class.getMethod("ofVirtual");
+            Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+
+            return (ThreadFactory) factory.invoke(ofVirtual.invoke(null));
+        }
+        catch (Throwable e) {
+            return null;
+        }
+    }
 
     @SuppressWarnings("WeakerAccess")
     public static long getTaskSleepInterval() {
@@ -36,6 +59,62 @@ public final class Workers {
         }
     }
 
+    /**
+     * Indicates whether the runtime supports virtual threads or not
+     * @return true if virtual threads are supported; otherwise false
+     */
+    public static boolean isVirtualThreadSupported() {
+        return virtualThreadFactory != null;
+    }
+
+    /**
+     * Gets the kind of threads, on which tasks of workers and operators are executed
+     * @return {@link ExecutionMode#Virtual} if virtual threads are requested and supported;
+     * otherwise {@link ExecutionMode#Platform}
+     */
+    public static ExecutionMode getExecutionMode() {
+        return executionMode == ExecutionMode.Virtual && isVirtualThreadSupported() ? ExecutionMode.Virtual : ExecutionMode.Platform;
+    }
+
+    /**
+     * Sets the kind of threads, on which tasks of workers and operators are executed. The mode
+     * applies to threads created after this call, running threads are not affected. If virtual
+     * threads are not supported by the runtime, platform threads are used.
+     * @param mode execution mode to be used
+     */
+    public static void setExecutionMode(ExecutionMode mode) {
+
+        if (mode == null) throw new IllegalArgumentException("mode");
+
+        if (StoredStates.set(Workers.class, "execution-mode", mode.name())) {
+            executionMode = mode;
+        }
+    }
+
+    /**
+     * Creates a daemon thread according to current execution mode
+     * @param task task to be executed by the thread
+     * @return created thread, not yet started
+     */
+    static Thread _createThread(Runnable task) {
+
+        ThreadFactory factory = getExecutionMode() == ExecutionMode.Virtual ? virtualThreadFactory : null;
+
+        if (factory != null) {
+            try {
+                Thread thread = factory.newThread(task);
+                if (thread != null) return thread;
+            }
+            catch (Exception ignored) {
+            }
+        }
+
+        Thread thread = new Thread(task);
+        thread.setDaemon(true);
+
+        return thread;
+    }
+
     @SuppressWarnings("WeakerAccess")
     public static Worker[] getAll() {
 
@@ -1,5 +1,6 @@
 package shark.utils;
 
+import java.util.AbstractCollection;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -184,6 +185,61 @@ public final class linq<T> implements Iterable<T> {
         return new linq<>(() -> collection);
     }
 
+    /**
+     * Applies LINQ to a sequence, which is iterated whenever the elements are enumerated. The
+     * elements are not copied, so that a lazy sequence is only loaded as far as it is enumerated,
+     * and every operation walks the sequence at most once
+     * @param iterable sequence to be applied
+     * @param <T> type of sequence element
+     * @return instance of {@link linq}
+     */
+    public static <T> linq<T> of(Iterable<T> iterable) {
+
+        Collection<T> collection = new AbstractCollection<T>() {
+
+            @Override
+            public Iterator<T> iterator() {
+                return iterable.iterator();
+            }
+
+            @Override
+            public int size() {
+
+                int count = 0;
+                for (Iterator<T> iterator = iterable.iterator(); iterator.hasNext(); iterator.next()) count++;
+
+                return count;
+            }
+
+            @Override
+            public boolean isEmpty() {
+                return !iterable.iterator().hasNext();
+            }
+
+            // copies are built while walking the sequence, rather than after counting it
+            private ArrayList<T> _copy() {
+
+                ArrayList<T> copy = new ArrayList<>();
+                for (T one : iterable) copy.add(one);
+
+                return copy;
+            }
+
+            @Override
+            public Object[] toArray() {
+                return _copy().toArray();
+            }
+
+            @Override
+            public <T1> T1[] toArray(T1[] a) {
+                //noinspection SuspiciousToArrayCall
+                return _copy().toArray(a);
+            }
+        };
+
+        return new linq<>(() -> collection);
+    }
+
     /**
      * Applies LINQ to a collection
      * @param map collection to be applied
@@ -512,20 +568,17 @@ public final class linq<T> implements Iterable<T> {
 
             Collection<T> collection = generator.run();
 
-            if (index < 0 || index >= collection.size()) throw new NoSuchElementException();
+            if (index < 0) throw new NoSuchElementException();
 
-            if (collection instanceof List) return ((List<T>)collection).get(index);
-
-            Iterator<T> iterator = collection.iterator();
-
-            T result;
-
-            do {
-                result = iterator.next();
+            if (collection instanceof List) {
+                if (index >= collection.size()) throw new NoSuchElementException();
+                return ((List<T>)collection).get(index);
             }
-            while (--index > -1);
 
-            return result;
+            // the collection is walked once, its size could take a walk of its own
+            for (T one : collection) if (index-- == 0) return one;
+
+            throw new NoSuchElementException();
         }
     }
 
@@ -540,20 +593,17 @@ public final class linq<T> implements Iterable<T> {
 
             Collection<T> collection = generator.run();
 
-            if (index < 0 || index >= collection.size()) return null;
-
-            if (collection instanceof List) return ((List<T>)collection).get(index);
-
-            Iterator<T> iterator = collection.iterator();
+            if (index < 0) return null;
 
-            T result;
-
-            do {
-                result = iterator.next();
+            if (collection instanceof List) {
+                if (index >= collection.size()) return null;
+                return ((List<T>)collection).get(index);
             }
-            while (--index > -1);
 
-            return result;
+            // the collection is walked once, its size could take a walk of its own
+            for (T one : collection) if (index-- == 0) return one;
+
+            return null;
         }
     }
 
@@ -918,9 +968,13 @@ public final class linq<T> implements Iterable<T> {
      */
     public HashSet<T> toHashSet() {
 
+        HashSet<T> results = new HashSet<>();
+
         synchronized (generator) {
-            return new HashSet<>(generator.run());
+            for (T one : generator.run()) results.add(one);
         }
+
+        return results;
     }
 
     /**
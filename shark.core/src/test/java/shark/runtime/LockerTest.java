@@ -0,0 +1,220 @@
+package shark.runtime;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Exclusion of {@link Locker} runs, which are nested or lock overlapping sets of objects
+ */
+public class LockerTest {
+
+    private static final class Resource implements ITypeScopeDistinguishable {
+
+        private final long id;
+        private int count = 0;
+
+        Resource(long id) {
+            this.id = id;
+        }
+
+        @Override
+        public long getTypeScopeUniqueIdentifier() {
+            return id;
+        }
+
+        @Override
+        public ITypeScopeDistinguishable getTypeScopeUniqueInstance() {
+            return this;
+        }
+    }
+
+    private static Resource[] _resources(int count) {
+
+        Resource[] resources = new Resource[count];
+        for (int i = 0; i < count; i++) resources[i] = new Resource(i);
+
+        return resources;
+    }
+
+    /**
+     * Runs a loop on several threads at once
+     * @param threadCount number of threads
+     * @param loop loop run by each thread, with the index of the thread
+     * @throws Exception throws if any loop fails
+     */
+    private static void _concurrently(int threadCount, final Loop loop) throws Exception {
+
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread[] threads = new Thread[threadCount];
+
+        for (int i = 0; i < threadCount; i++) {
+
+            final int index = i;
+
+            threads[i] = new Thread(() -> {
+                try {
+                    loop.run(index);
+                }
+                catch (Throwable e) {
+                    error.compareAndSet(null, e);
+                }
+            });
+            threads[i].start();
+        }
+
+        for (Thread thread : threads) thread.join();
+
+        if (error.get() instanceof Exception) throw (Exception) error.get();
+        if (error.get() != null) throw new AssertionError(error.get());
+    }
+
+    private interface Loop {
+        void run(int thread) throws Exception;
+    }
+
+    @Test
+    public void nestedRunsComplete() throws Exception {
+
+        final Resource[] resources = _resources(64);
+        final int[] count = new int[1];
+
+        // pairs of unrelated objects, half of them are nested out of the stripe order
+        for (int i = 0; i < resources.length; i++) {
+            for (int j = i + 1; j < resources.length; j++) {
+
+                final Locker inner = new Locker().acquire(resources[i], resources[j]);
+                final Locker nested = new Locker().acquire(resources[j]);
+
+                new Locker().acquire(resources[i]).then(() -> inner.then(() -> nested.then(() -> count[0]++)));
+            }
+        }
+
+        assertEquals(resources.length * (resources.length - 1) / 2, count[0]);
+    }
+
+    @Test(timeout = 60000)
+    public void nestedAndOverlappingRunsAreExclusive() throws Exception {
+
+        final Resource[] resources = _resources(16);
+        final int iterations = 5000;
+
+        _concurrently(8, thread -> {
+
+            Random random = new Random(thread);
+
+            for (int n = 0; n < iterations; n++) {
+
+                int first = random.nextInt(resources.length - 1);
+                final Resource outer = resources[first];
+                final Resource inner = resources[first + 1 + random.nextInt(resources.length - first - 1)];
+
+                if (thread % 2 == 0) {
+
+                    // nested lockers take objects in the same order, so they never wait on each other
+                    new Locker().acquire(outer).then(() -> {
+                        outer.count++;
+                        new Locker().acquire(inner).then(() -> inner.count++);
+                    });
+                }
+                else {
+                    new Locker().acquire(outer, inner).then(() -> {
+                        outer.count++;
+                        inner.count++;
+                    });
+                }
+            }
+        });
+
+        int total = 0;
+        for (Resource resource : resources) total += resource.count;
+
+        assertEquals(8 * iterations * 2, total);
+    }
+
+    @Test(timeout = 10000)
+    public void runsAreExclusiveWithSynchronizedCode() throws Exception {
+
+        final Resource resource = new Resource(1);
+        final CountDownLatch locked = new CountDownLatch(1);
+        final AtomicBoolean released = new AtomicBoolean();
+
+        Thread holder = new Thread(() -> {
+            synchronized (resource) {
+
+                locked.countDown();
+                try {
+                    Thread.sleep(200);
+                }
+                catch (InterruptedException ignored) {
+                }
+
+                released.set(true);
+            }
+        });
+        holder.start();
+
+        assertTrue(locked.await(5, TimeUnit.SECONDS));
+
+        boolean isReleased = new Locker().acquire(resource).then(released::get);
+        holder.join();
+
+        assertTrue(isReleased);
+    }
+
+    @Test(timeout = 10000)
+    public void timedRunTimesOut() throws Exception {
+
+        final Resource resource = new Resource(1);
+        final CountDownLatch locked = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+
+        Thread holder = new Thread(() -> {
+            try {
+                new Locker().acquire(resource).then(() -> {
+                    locked.countDown();
+                    done.await();
+                });
+            }
+            catch (Exception ignored) {
+            }
+        });
+        holder.start();
+
+        assertTrue(locked.await(5, TimeUnit.SECONDS));
+
+        try {
+            new Locker().acquire(resource).then(() -> fail("Run is not timed out"), 50);
+            fail("Run is not timed out");
+        }
+        catch (TimeoutException ignored) {
+        }
+        finally {
+            done.countDown();
+        }
+
+        holder.join();
+
+        assertEquals(Integer.valueOf(1), new Locker().acquire(resource).then(() -> 1, 1000));
+    }
+
+    @Test(timeout = 10000)
+    public void runsOfLockerWithoutObjectsAreSerialized() throws Exception {
+
+        final Locker locker = new Locker();
+        final int[] count = new int[1];
+
+        _concurrently(4, thread -> {
+            for (int n = 0; n < 10000; n++) locker.then(() -> count[0]++);
+        });
+
+        assertEquals(40000, count[0]);
+    }
+}
@@ -0,0 +1,252 @@
+package shark.runtime;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Ordering of delayed tasks, overflow policies and wake-ups of {@link Operator}
+ */
+public class OperatorTest {
+
+    /**
+     * Occupies every processing thread of an operator until the returned latch is released
+     * @param operator operator to be occupied
+     * @param threadCount number of processing threads of the operator
+     * @return latch releasing the threads
+     * @throws Exception throws if the threads could not be occupied
+     */
+    private static CountDownLatch _occupy(Operator operator, int threadCount) throws Exception {
+
+        final CountDownLatch started = new CountDownLatch(threadCount);
+        final CountDownLatch gate = new CountDownLatch(1);
+
+        for (int i = 0; i < threadCount; i++) {
+            operator.queue(() -> {
+                started.countDown();
+                gate.await();
+            });
+        }
+
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        return gate;
+    }
+
+    @Test(timeout = 10000)
+    public void delayedTasksRunInOrderOfTheirStamps() throws Exception {
+
+        Operator operator = new Operator(1, 1, 100);
+
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch done = new CountDownLatch(5);
+
+        long now = System.currentTimeMillis();
+        int[] delays = { 300, 100, 200, 200, 0 };
+
+        for (int i = 0; i < delays.length; i++) {
+
+            final int id = i;
+
+            operator.queue(() -> {
+                order.add(id);
+                done.countDown();
+            }, now + delays[i]);
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        // tasks due at the same time run in the order they are queued
+        assertEquals(Arrays.asList(4, 1, 2, 3, 0), order);
+    }
+
+    @Test(timeout = 10000)
+    public void delayedTaskDoesNotRunEarly() throws Exception {
+
+        Operator operator = new Operator(1, 1, 100);
+
+        final long stamp = System.currentTimeMillis() + 200;
+        final AtomicReference<Long> executed = new AtomicReference<>();
+
+        TaskState state = operator.queue(() -> executed.set(System.currentTimeMillis()), stamp);
+
+        assertTrue(state.await(5000));
+        assertTrue(executed.get() >= stamp);
+    }
+
+    @Test(timeout = 10000)
+    public void rejectPolicyRefusesTasks() throws Exception {
+
+        Operator operator = new Operator(1, 1, 100);
+        CountDownLatch gate = _occupy(operator, 1);
+
+        operator.setCapacity(2);
+        operator.setOverflowPolicy(OverflowPolicy.Reject);
+
+        TaskState first = operator.queue(() -> { });
+        TaskState second = operator.queue(() -> { });
+
+        try {
+            operator.queue(() -> fail("Refused task is executed"));
+            fail("Task is not refused");
+        }
+        catch (RejectedExecutionException ignored) {
+        }
+
+        assertEquals(1, operator.getRejectedTaskCount());
+        assertEquals(2, operator.getWaitingTaskCount());
+
+        gate.countDown();
+
+        assertTrue(first.await(5000));
+        assertTrue(second.await(5000));
+        assertTrue(first.isSucceed() && second.isSucceed());
+    }
+
+    @Test(timeout = 10000)
+    public void dropOldestPolicyFailsDroppedTask() throws Exception {
+
+        Operator operator = new Operator(1, 1, 100);
+        CountDownLatch gate = _occupy(operator, 1);
+
+        operator.setCapacity(2);
+        operator.setOverflowPolicy(OverflowPolicy.DropOldest);
+
+        TaskState oldest = operator.queue(() -> fail("Dropped task is executed"));
+        TaskState second = operator.queue(() -> { });
+        TaskState third = operator.queue(() -> { });
+
+        assertTrue(oldest.isFailed());
+        assertTrue(oldest.getException() instanceof RejectedExecutionException);
+        assertEquals(1, operator.getDroppedTaskCount());
+
+        gate.countDown();
+
+        assertTrue(second.await(5000));
+        assertTrue(third.await(5000));
+        assertTrue(second.isSucceed() && third.isSucceed());
+    }
+
+    @Test(timeout = 10000)
+    public void callerRunsPolicyRunsTaskOnCallingThread() throws Exception {
+
+        Operator operator = new Operator(1, 1, 100);
+        CountDownLatch gate = _occupy(operator, 1);
+
+        operator.setCapacity(1);
+        operator.setOverflowPolicy(OverflowPolicy.CallerRuns);
+
+        final AtomicReference<Thread> thread = new AtomicReference<>();
+
+        TaskState queued = operator.queue(() -> { });
+        TaskState executed = operator.queue(() -> thread.set(Thread.currentThread()));
+
+        assertTrue(executed.isSucceed());
+        assertSame(Thread.currentThread(), thread.get());
+
+        // delayed tasks are refused instead
+        try {
+            operator.queue(() -> { }, System.currentTimeMillis() + 1000);
+            fail("Delayed task is not refused");
+        }
+        catch (RejectedExecutionException ignored) {
+        }
+
+        gate.countDown();
+        assertTrue(queued.await(5000));
+    }
+
+    @Test(timeout = 10000)
+    public void blockPolicyBlocksUntilTaskLeavesQueue() throws Exception {
+
+        final Operator operator = new Operator(1, 1, 100);
+        CountDownLatch gate = _occupy(operator, 1);
+
+        operator.setCapacity(1);
+        operator.setOverflowPolicy(OverflowPolicy.Block);
+
+        operator.queue(() -> { });
+
+        final CountDownLatch queued = new CountDownLatch(1);
+        final AtomicReference<TaskState> blocked = new AtomicReference<>();
+
+        Thread caller = new Thread(() -> {
+            try {
+                blocked.set(operator.queue(() -> { }));
+                queued.countDown();
+            }
+            catch (InterruptedException ignored) {
+            }
+        });
+        caller.start();
+
+        assertFalse(queued.await(200, TimeUnit.MILLISECONDS));
+
+        gate.countDown();
+
+        assertTrue(queued.await(5, TimeUnit.SECONDS));
+        assertTrue(blocked.get().await(5000));
+    }
+
+    @Test(timeout = 20000)
+    public void eachTaskWakesDistinctIdleThread() throws Exception {
+
+        final int threadCount = 4;
+        Operator operator = new Operator(threadCount, 1, 1000);
+
+        _occupy(operator, threadCount).countDown();
+
+        // wait until every thread is parked again
+        long deadline = System.currentTimeMillis() + 5000;
+        while (operator.getTaskCount() > 0 && System.currentTimeMillis() < deadline) Thread.sleep(10);
+
+        Thread.sleep(100);
+
+        // tasks queued back to back are only completed if each of them wakes another thread
+        for (int round = 0; round < 20; round++) {
+
+            final CyclicBarrier barrier = new CyclicBarrier(threadCount);
+            final AtomicInteger passed = new AtomicInteger();
+            TaskState[] states = new TaskState[threadCount];
+
+            for (int i = 0; i < threadCount; i++) {
+                states[i] = operator.queue(() -> {
+                    try {
+                        barrier.await(5, TimeUnit.SECONDS);
+                        passed.incrementAndGet();
+                    }
+                    catch (Exception ignored) {
+                    }
+                });
+            }
+
+            for (TaskState state : states) assertTrue(state.await(10000));
+            assertEquals(threadCount, passed.get());
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void dispatcherIsRestartedAfterIdleExit() throws Exception {
+
+        Operator operator = new Operator(1, 1, 1);
+
+        for (int i = 0; i < 5; i++) {
+
+            TaskState state = operator.queue(() -> { });
+            assertTrue(state.await(5000));
+
+            // lets the operator stop its threads once it is idle
+            Thread.sleep(Workers.getTaskSleepInterval() * 10 + 100);
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package shark.runtime;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import shark.delegates.Action1;
+import shark.delegates.Function1;
+
+import static org.junit.Assert.*;
+
+/**
+ * Continuations, combinators and timeouts of {@link Promise}
+ */
+public class PromiseTest {
+
+    @Test
+    public void continuationsAreInvokedInRegistrationOrder() throws Exception {
+
+        Promise<Integer> promise = new Promise<>();
+        Action1<Integer> resolver = Promise.getResolver(promise);
+
+        final List<String> invoked = Collections.synchronizedList(new ArrayList<String>());
+
+        promise.then(data -> { invoked.add("a" + data); });
+        promise.then(data -> { invoked.add("b" + data); });
+
+        assertFalse(promise.isCompleted());
+        assertTrue(invoked.isEmpty());
+
+        //noinspection ConstantConditions
+        resolver.run(1);
+
+        // continuations registered after completion are invoked at once
+        promise.then(data -> { invoked.add("c" + data); });
+
+        assertTrue(promise.isCompleted());
+        assertEquals(Arrays.asList("a1", "b1", "c1"), invoked);
+    }
+
+    @Test
+    public void resolverIsAllocatedOnceAndResolvesOnce() throws Exception {
+
+        Promise<Integer> promise = new Promise<>();
+        Action1<Integer> resolver = Promise.getResolver(promise);
+
+        assertNull(Promise.getResolver(promise));
+
+        //noinspection ConstantConditions
+        resolver.run(1);
+        resolver.run(2);
+
+        assertEquals(Integer.valueOf(1), promise.result());
+    }
+
+    @Test
+    public void failingContinuationDoesNotStopOthers() throws Exception {
+
+        Promise<Integer> promise = new Promise<>();
+        final AtomicReference<Integer> invoked = new AtomicReference<>();
+
+        promise.then((Action1<Integer>) data -> {
+            throw new IllegalStateException();
+        });
+        promise.then(invoked::set);
+
+        //noinspection ConstantConditions
+        Promise.getResolver(promise).run(1);
+
+        assertEquals(Integer.valueOf(1), invoked.get());
+    }
+
+    @Test(timeout = 10000)
+    public void resultBlocksUntilCompletion() throws Exception {
+
+        final Promise<String> promise = new Promise<>();
+        final Action1<String> resolver = Promise.getResolver(promise);
+
+        Thread completing = new Thread(() -> {
+            try {
+                Thread.sleep(100);
+                //noinspection ConstantConditions
+                resolver.run("done");
+            }
+            catch (Exception ignored) {
+            }
+        });
+        completing.start();
+
+        assertEquals("done", promise.result());
+        completing.join();
+    }
+
+    @Test(timeout = 10000)
+    public void resultTimesOut() throws Exception {
+
+        Promise<String> promise = new Promise<>();
+
+        try {
+            promise.result(50);
+            fail("Result is not timed out");
+        }
+        catch (TimeoutException ignored) {
+        }
+
+        assertEquals("late", new Promise<>("late").result(50));
+    }
+
+    @Test(timeout = 10000)
+    public void timeoutCompletesWithFallback() throws Exception {
+
+        Promise<String> pending = new Promise<>();
+        assertEquals("fallback", pending.timeout(50, "fallback").result());
+
+        Promise<String> completed = new Promise<>("value");
+        assertEquals("value", completed.timeout(50, "fallback").result());
+    }
+
+    @Test
+    public void functionsAreChained() throws Exception {
+
+        Promise<Integer> promise = new Promise<>();
+
+        Promise<String> chained = promise.then(data -> data * 2).then(data -> "#" + data);
+
+        //noinspection ConstantConditions
+        Promise.getResolver(promise).run(21);
+
+        assertEquals("#42", chained.result());
+    }
+
+    @Test
+    public void failingFunctionCompletesWithNull() throws Exception {
+
+        Promise<Integer> promise = new Promise<>(1);
+
+        Promise<String> chained = promise.then((Function1<Integer, String>) data -> {
+            throw new IllegalStateException();
+        });
+
+        assertTrue(chained.isCompleted());
+        assertNull(chained.result());
+    }
+
+    @Test(timeout = 10000)
+    public void composedOperationIsAwaited() throws Exception {
+
+        Promise<Integer> first = new Promise<>();
+        final Promise<String> second = new Promise<>();
+
+        Promise<String> composed = first.thenCompose(data -> second);
+
+        //noinspection ConstantConditions
+        Promise.getResolver(first).run(1);
+        assertFalse(composed.isCompleted());
+
+        //noinspection ConstantConditions
+        Promise.getResolver(second).run("second");
+        assertEquals("second", composed.result());
+    }
+
+    @Test(timeout = 10000)
+    public void allCompletesWithResultsInOrder() throws Exception {
+
+        Promise<Integer> a = new Promise<>();
+        Promise<Integer> b = new Promise<>();
+        Promise<Integer> c = new Promise<>(3);
+
+        Promise<List<Integer>> all = Promise.all(a, b, c);
+
+        //noinspection ConstantConditions
+        Promise.getResolver(b).run(2);
+        assertFalse(all.isCompleted());
+
+        //noinspection ConstantConditions
+        Promise.getResolver(a).run(1);
+        assertEquals(Arrays.asList(1, 2, 3), all.result());
+
+        assertTrue(Promise.all(new ArrayList<Promise<Integer>>()).result().isEmpty());
+    }
+
+    @Test(timeout = 10000)
+    public void anyCompletesWithFirstResult() throws Exception {
+
+        Promise<Integer> a = new Promise<>();
+        Promise<Integer> b = new Promise<>();
+
+        Promise<Integer> any = Promise.any(a, b);
+        assertFalse(any.isCompleted());
+
+        //noinspection ConstantConditions
+        Promise.getResolver(b).run(2);
+        //noinspection ConstantConditions
+        Promise.getResolver(a).run(1);
+
+        assertEquals(Integer.valueOf(2), any.result());
+    }
+
+    @Test(timeout = 10000)
+    public void continuationsArePostedToExecutor() throws Exception {
+
+        Operator operator = new Operator(1, 1, 100);
+
+        Promise<Integer> promise = new Promise<>();
+        final AtomicReference<Thread> accepted = new AtomicReference<>();
+        final CountDownLatch done = new CountDownLatch(1);
+
+        promise.thenAccept(data -> {
+            accepted.set(Thread.currentThread());
+            done.countDown();
+        }, operator);
+
+        Promise<Thread> applied = promise.then(data -> Thread.currentThread(), operator);
+
+        //noinspection ConstantConditions
+        Promise.getResolver(promise).run(1);
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertNotSame(Thread.currentThread(), accepted.get());
+        assertNotSame(Thread.currentThread(), applied.result());
+    }
+}
@@ -18,6 +18,7 @@ import java.util.LinkedList;
 import shark.Framework;
 import shark.components.InvalidServiceDataException;
 import shark.components.NotProceedServiceException;
+import shark.delegates.Action;
 import shark.delegates.Action1;
 import shark.io.IncomingStream;
 import shark.io.OutgoingStream;
@@ -41,6 +42,7 @@ import shark.runtime.Parallel;
 import shark.runtime.Service;
 import shark.runtime.ServiceExecutionResult;
 import shark.runtime.Services;
+import shark.runtime.TaskPriority;
 import shark.runtime.events.ActionEvent;
 import shark.utils.Log;
 
@@ -112,6 +114,12 @@ public class Connection implements Closeable {
     private boolean notifyOnClosing = true;
     private final Object opLock = new Object();
 
+    // operations requeued to network operators are bound once, so that requeueing does not allocate
+    private final Action readAction = this::read;
+    private final Action writeAction = this::write;
+    private final Action checkAction = this::check;
+    private final Action processAction = this::beginProcess;
+
     private IncomingStream incomingStream;
     private OutgoingStream outgoingStream;
 
@@ -407,7 +415,7 @@ public class Connection implements Closeable {
         ServiceRequestState state = requestAsync(expecting, service, data, null, null, null);
 
         try {
-            while (!state.isCompleted()) Parallel.sleep();
+            state.await();
         }
         catch (InterruptedException ignored) {
         }
@@ -617,7 +625,7 @@ public class Connection implements Closeable {
 
                         if (protocol.isProcessingOperationNeeded(this) && (activeOperations & Operations.Processing) == Operations.None) {
                             activeOperations |= Operations.Processing;
-                            NetworkOperator._enqueueProcessor(this::beginProcess);
+                            NetworkOperator._enqueueProcessor(processAction);
                         }
                     }
 
@@ -650,7 +658,7 @@ public class Connection implements Closeable {
                         if (protocol.isWritingOperationNeeded(this) && (activeOperations & Operations.Writing) == Operations.None)
                         {
                             activeOperations |= Operations.Writing;
-                            NetworkOperator._enqueueIO(this::write);
+                            NetworkOperator._enqueueIO(writeAction, TaskPriority.Critical);
                         }
                     }
 
@@ -781,12 +789,12 @@ public class Connection implements Closeable {
                     while (queuedDuringHandShaking.size() > 0) queue(queuedDuringHandShaking.poll());
 
                     activeOperations = Operations.Checking;
-                    NetworkOperator._enqueueChecker(this::check, System.currentTimeMillis() + 1000);
+                    NetworkOperator._enqueueChecker(checkAction, System.currentTimeMillis() + 1000);
 
                     if (protocol.isReadingOperationNeeded(this))
                     {
                         activeOperations |= Operations.Reading;
-                        NetworkOperator._enqueueIO(this::read);
+                        NetworkOperator._enqueueIO(readAction);
                     }
 
                     try { //noinspection ConstantConditions
@@ -1232,12 +1240,12 @@ public class Connection implements Closeable {
             if (state == ConnectionState.Active && protocol.isReadingOperationNeeded(this) && (activeOperations & Operations.Reading) == Operations.None)
             {
                 activeOperations |= Operations.Reading;
-                NetworkOperator._enqueueIO(this::read);
+                NetworkOperator._enqueueIO(readAction);
             }
 
             if (state == ConnectionState.Active && protocol.isProcessingOperationNeeded(this))
             {
-                NetworkOperator._enqueueProcessor(this::beginProcess);
+                NetworkOperator._enqueueProcessor(processAction);
             }
             else
             {
@@ -1342,11 +1350,11 @@ public class Connection implements Closeable {
                 {
                     if (hasWaitingData)
                     {
-                        NetworkOperator._enqueueIO(this::read);
+                        NetworkOperator._enqueueIO(readAction);
                     }
                     else
                     {
-                        NetworkOperator._enqueueIO(this::read, System.currentTimeMillis() + 10);
+                        NetworkOperator._enqueueIO(readAction, System.currentTimeMillis() + 10, TaskPriority.Bulk);
                     }
                 }
                 else
@@ -1429,7 +1437,7 @@ public class Connection implements Closeable {
             {
                 if (state != ConnectionState.Closed)
                 {
-                    NetworkOperator._enqueueChecker(this::check, System.currentTimeMillis() + 1000);
+                    NetworkOperator._enqueueChecker(checkAction, System.currentTimeMillis() + 1000);
                 }
                 else
                 {
@@ -1539,12 +1547,12 @@ public class Connection implements Closeable {
                 if (state == ConnectionState.Active && protocol.isReadingOperationNeeded(this) && (activeOperations & Operations.Reading) == Operations.None)
                 {
                     activeOperations |= Operations.Reading;
-                    NetworkOperator._enqueueIO(this::read);
+                    NetworkOperator._enqueueIO(readAction);
                 }
 
                 if (state == ConnectionState.Active && protocol.isWritingOperationNeeded(this))
                 {
-                    NetworkOperator._enqueueIO(this::write);
+                    NetworkOperator._enqueueIO(writeAction, TaskPriority.Critical);
                 }
                 else
                 {
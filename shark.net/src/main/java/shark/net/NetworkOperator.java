@@ -3,8 +3,10 @@ package shark.net;
 import java.util.HashSet;
 
 import shark.delegates.Action;
+import shark.runtime.Metrics;
 import shark.runtime.Operator;
 import shark.runtime.StoredStates;
+import shark.runtime.TaskPriority;
 
 @SuppressWarnings("WeakerAccess")
 public class NetworkOperator {
@@ -15,20 +17,55 @@ public class NetworkOperator {
 
     private static HashSet<Action> _Lookup = new HashSet<>();
 
+    static {
+
+        // threads are sized by their thresholds unless adaptive sizing is enabled explicitly
+        boolean adaptive = StoredStates.getBoolean(NetworkOperator.class, "adaptive-sizing", false);
+
+        operatorPR.setAdaptive(adaptive);
+        operatorCK.setAdaptive(adaptive);
+        operatorIO.setAdaptive(adaptive);
+
+        Metrics.register("network-processor", operatorPR);
+        Metrics.register("network-checker", operatorCK);
+        Metrics.register("network-io", operatorIO);
+    }
+
     static void _enqueueIO(Action action) throws InterruptedException {
-        operatorIO.queue(action);
+        operatorIO.post(action);
+    }
+
+    static void _enqueueIO(Action action, TaskPriority priority) throws InterruptedException {
+        operatorIO.post(action, priority);
     }
 
     static void _enqueueIO(Action action, long timeUtc) throws InterruptedException {
-        operatorIO.queue(action, timeUtc);
+        operatorIO.post(action, timeUtc);
+    }
+
+    static void _enqueueIO(Action action, long timeUtc, TaskPriority priority) throws InterruptedException {
+        operatorIO.post(action, timeUtc, priority);
     }
 
     static void _enqueueChecker(Action checker, long timeUtc) throws InterruptedException {
-        operatorCK.queue(checker, timeUtc);
+        operatorCK.post(checker, timeUtc);
     }
 
     static void _enqueueProcessor(Action action) throws InterruptedException {
-        operatorPR.queue(action);
+        operatorPR.post(action);
+    }
+
+    public static boolean isAdaptiveSizing() {
+        return operatorIO.isAdaptive();
+    }
+
+    public static void setAdaptiveSizing(boolean value) {
+
+        if (StoredStates.set(NetworkOperator.class, "adaptive-sizing", value)) {
+            operatorPR.setAdaptive(value);
+            operatorCK.setAdaptive(value);
+            operatorIO.setAdaptive(value);
+        }
     }
 
     public static int getThreadCreationThreshold(){
@@ -92,14 +129,34 @@ public class NetworkOperator {
         return operatorPR.getThreadCount();
     }
 
+    public static int getIOThreadLimit() {
+        return operatorIO.getThreadLimit();
+    }
+
+    public static int getCheckerThreadLimit() {
+        return operatorCK.getThreadLimit();
+    }
+
+    public static int getProcessorThreadLimit() {
+        return operatorPR.getThreadLimit();
+    }
+
     public static int getWaitingIOCount() {
         return operatorIO.getWaitingTaskCount();
     }
 
+    public static int getWaitingIOCount(TaskPriority priority) {
+        return operatorIO.getWaitingTaskCount(priority);
+    }
+
     public static int getPendingIOCount() {
         return operatorIO.getPendingTaskCount();
     }
 
+    public static int getPendingIOCount(TaskPriority priority) {
+        return operatorIO.getPendingTaskCount(priority);
+    }
+
     public static int getWaitingCheckerCount() {
         return operatorCK.getWaitingTaskCount();
     }
@@ -1,16 +1,28 @@
 package shark.runtime;
 
-import android.annotation.SuppressLint;
-
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.lang.ref.WeakReference;
 import java.lang.reflect.Array;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
-
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import shark.delegates.Action;
 import shark.delegates.Action1;
+import shark.delegates.Function1;
 import shark.io.File;
 import shark.io.primitive;
 import shark.runtime.events.ActionEvent;
@@ -29,18 +41,94 @@ public class Cache<TIndex, TData> {
 
     private final long identifier;
     private boolean ready = false;
+    private CacheStore store = null;
 
     private Serializer serializer = CacheController.getDefaultSerializer();
 
-    private final HashMap<TIndex, Object> entries = new HashMap<>();
-    private final HashMap<TIndex, Long> entryFileIndexes = new HashMap<>();
-    private final HashMap<TIndex, WeakReference<CacheEntry<TIndex, TData>>> unsettled = new HashMap<>();
-    @SuppressLint("UseSparseArrays")
-    private final HashMap<Long, CacheEntry<TIndex, TData>> pendingEntries = new HashMap<>();
+    /**
+     * Modification of an entry waiting to be committed to storage. A new instance is queued for
+     * each modification, so that a commit only dequeues the modification it has written
+     */
+    private static final class PendingModification<TIndex, TData> {
+
+        final CacheEntry<TIndex, TData> entry;
+        final long actionStampUtc;
+
+        /**
+         * Creates a pending modification
+         * @param entry modified entry, or null if the entry is deleted
+         * @param actionStampUtc timestamp of the action, recorded with the tombstone of a deleted
+         *                       entry
+         */
+        PendingModification(CacheEntry<TIndex, TData> entry, long actionStampUtc) {
+            this.entry = entry;
+            this.actionStampUtc = actionStampUtc;
+        }
+    }
+
+    private static final int stripeCount = 64;
+
+    private final ConcurrentHashMap<TIndex, Object> entries = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<TIndex, CacheIndex.Item> entryHeaders = new ConcurrentHashMap<>();
+
+    private static final String lastModifiedIndexName = "lastModifiedUtc";
+
+    private final CacheSecondaryIndex<TIndex, TData, Long> lastModifiedIndex;
+    private final ConcurrentHashMap<String, CacheSecondaryIndex<TIndex, TData, ?>> secondaryIndexes = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<TIndex, WeakReference<CacheEntry<TIndex, TData>>> unsettled = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, PendingModification<TIndex, TData>> pendingEntries = new ConcurrentHashMap<>();
+    private final Object[] stripes = new Object[stripeCount];
+
+    /**
+     * Serializes commits to storage, so that modifications of a write batch are never committed
+     * apart from each other
+     */
+    private final Object commitLock = new Object();
+
+    private final AtomicLong currentFileIndex = new AtomicLong();
+    private volatile int commitBatchSize = CacheController.getMaxCommitBatchSize();
+
+    private CacheIndex persistedIndex = null;
+    private volatile boolean isSnapshotDirty = false;
 
-    private long currentFileIndex = 0;
-    private Long lastEntryModifiedUtc = null;
+    /**
+     * Stored entries to be warmed up. Records of all entries are verified, indexes of entries
+     * found in the persisted index are known, indexes of the other entries have to be decoded
+     */
+    private static final class WarmUpChunk<TIndex> {
+
+        final long[] fileIndexes;
+        final ArrayList<TIndex> indexes;
+
+        /**
+         * Headers installed from the persisted index, in the order of indexes
+         */
+        final ArrayList<CacheIndex.Item> headers;
+
+        WarmUpChunk(long[] fileIndexes, ArrayList<TIndex> indexes, ArrayList<CacheIndex.Item> headers) {
+            this.fileIndexes = fileIndexes;
+            this.indexes = indexes;
+            this.headers = headers;
+        }
+    }
+
+    private static final int warmUpChunkSize = 256;
+
+    private final ConcurrentLinkedQueue<WarmUpChunk<TIndex>> warmUpChunks = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingWarmUpChunks = new AtomicInteger();
+    private final AtomicInteger pendingDecodingChunks = new AtomicInteger();
+    private volatile boolean isIndexComplete = false;
+    private volatile boolean isIndexFailed = false;
+    private final AtomicLong warmedUpCount = new AtomicLong();
+    private final AtomicLong failedWarmUpCount = new AtomicLong();
+    private long warmUpTotal = 0;
+    private volatile boolean isWarmedUp = false;
+    private final Promise<Cache<TIndex, TData>> warmUp = new Promise<>();
+    private final Action1<Cache<TIndex, TData>> warmUpResolver = Promise.getResolver(warmUp);
+    private final AtomicReference<Long> lastEntryModifiedUtc = new AtomicReference<>();
     private CachingMode mode;
+    private CacheResidency<TIndex, CacheEntry<TIndex, TData>> residency = null;
+    private final CacheStatistics statistics = new CacheStatistics();
 
     final Class<TIndex> _indexClass;
     final Class<TData> _dataClass;
@@ -54,6 +142,10 @@ public class Cache<TIndex, TData> {
         _indexClass = index;
         _dataClass = data;
 
+        lastModifiedIndex = new CacheSecondaryIndex<>(lastModifiedIndexName, index, null, (Comparator<Long>) (a, b) -> Long.compare(a, b));
+
+        for (int i = 0; i < stripes.length; i++) stripes[i] = new Object();
+
         identifier = CacheController.allocate(index, data);
 
         if (identifier == 0) {
@@ -69,45 +161,30 @@ public class Cache<TIndex, TData> {
 
         mode = CacheController.getMode();
 
-        synchronized (entries) {
-
-            for (String file : dir.list()) {
-
-                try {
-                    long fileIndex = Long.parseLong(file.split("\\.")[0]);
-                    CacheEntry<TIndex, TData> entry = new CacheEntry<>(this, fileIndex);
-
-                    if (entry._load()) {
-                        switch (mode) {
-                            case Static:
-                                entries.put(entry.getIndex(), entry);
-                                break;
-                            default:
-                                entries.put(entry.getIndex(), new WeakReference<TData>(null));
-                                break;
-
-                        }
+        if (mode == CachingMode.Bounded) {
+            residency = new CacheResidency<>(CacheController.getEvictionPolicy(), CacheController.getMaxEntryCount(), CacheController.getMaxWeight(), statistics);
+        }
 
-                        entryFileIndexes.put(entry.getIndex(), fileIndex);
-                        currentFileIndex = Math.max(fileIndex, currentFileIndex);
-                    } else {
-                        try {
-                            //noinspection ResultOfMethodCallIgnored
-                            new File(dir + "/" + file).delete();
-                        } catch (Exception ignored) {
+        try {
+            CacheStore store = new CacheStore(dir, CacheController.isMemoryMapped());
+            store.open();
+            this.store = store;
+        }
+        catch (IOException e) {
+            Log.error(this.getClass(),
+                    "Could not open cache storage",
+                    "Directory: " + dir.getAbsolutePath(),
+                    "Error: " + e.getMessage());
+        }
 
-                        }
-                    }
-                } catch (NumberFormatException e) {
+        if (store != null) {
 
-                    try {
-                        //noinspection ResultOfMethodCallIgnored
-                        new File(dir + "/" + file).delete();
-                    } catch (Exception ignored) {
-                    }
-                } catch (IOException ignored) {
-                }
-            }
+            _migrate(dir);
+            _startWarmUp(store.fileIndexes(), _openIndex(dir));
+        }
+        else {
+            _completeIndex();
+            _completeWarmUp();
         }
 
         ready = true;
@@ -125,11 +202,529 @@ public class Cache<TIndex, TData> {
         instances.put(key, this);
     }
 
+    /**
+     * Opens the persisted index of the cache
+     * @param dir cache directory
+     * @return persisted items by file index of entries, empty if the index could not be opened
+     */
+    private HashMap<Long, CacheIndex.Item> _openIndex(File dir) {
+
+        CacheIndex index = new CacheIndex(dir);
+
+        try {
+            HashMap<Long, CacheIndex.Item> items = index.open();
+            persistedIndex = index;
+            return items;
+        }
+        catch (IOException e) {
+            Log.warning(this.getClass(),
+                    "Could not open cache index",
+                    "Directory: " + dir.getAbsolutePath(),
+                    "Error: " + e.getMessage());
+            return new HashMap<>();
+        }
+    }
+
+    /**
+     * Allocates stored entries found in the persisted index, and starts warming entries up in the
+     * background: records of entries are verified, since the storage recovers sealed segments
+     * without reading them, indexes of entries missing from the persisted index are decoded,
+     * stamps of the others are verified against the storage. Stored entries are split into
+     * chunks, which are processed by several tasks of {@link Parallel}, and by threads waiting for
+     * the warm-up to complete
+     * @param fileIndexes file indexes of stored entries
+     * @param persisted persisted items by file index of entries
+     */
+    private void _startWarmUp(long[] fileIndexes, HashMap<Long, CacheIndex.Item> persisted) {
+
+        long lastFileIndex = 0;
+
+        ArrayList<Long> indexed = new ArrayList<>();
+        ArrayList<TIndex> indexes = new ArrayList<>();
+        ArrayList<CacheIndex.Item> headers = new ArrayList<>();
+        ArrayList<Long> decoding = new ArrayList<>();
+
+        for (long fileIndex : fileIndexes) {
+
+            lastFileIndex = Math.max(fileIndex, lastFileIndex);
+
+            CacheIndex.Item item = persisted.remove(fileIndex);
+            TIndex index = item == null ? null : _decodeKey(item.key);
+
+            if (index == null || entries.containsKey(index)) {
+                decoding.add(fileIndex);
+                continue;
+            }
+
+            CacheIndex.Item header = new CacheIndex.Item(fileIndex, null, item.creationStampUtc, item.lastModifiedUtc);
+
+            entries.put(index, mode == CachingMode.Static ? new CacheEntry<>(this, fileIndex) : new WeakReference<CacheEntry<TIndex, TData>>(null));
+            _setHeader(index, header);
+
+            indexed.add(fileIndex);
+            indexes.add(index);
+            headers.add(header);
+        }
+
+        // items of entries, which are no longer stored, or entries missing from the persisted index
+        if (!persisted.isEmpty() || !decoding.isEmpty()) isSnapshotDirty = true;
+
+        currentFileIndex.set(lastFileIndex);
+        warmUpTotal = fileIndexes.length;
+
+        for (int offset = 0; offset < decoding.size(); offset += warmUpChunkSize) {
+
+            long[] chunk = new long[Math.min(warmUpChunkSize, decoding.size() - offset)];
+            for (int i = 0; i < chunk.length; i++) chunk[i] = decoding.get(offset + i);
+
+            warmUpChunks.add(new WarmUpChunk<TIndex>(chunk, null, null));
+        }
+
+        pendingDecodingChunks.set(warmUpChunks.size());
+
+        for (int offset = 0; offset < indexed.size(); offset += warmUpChunkSize) {
+
+            long[] chunk = new long[Math.min(warmUpChunkSize, indexed.size() - offset)];
+            for (int i = 0; i < chunk.length; i++) chunk[i] = indexed.get(offset + i);
+
+            warmUpChunks.add(new WarmUpChunk<>(chunk, new ArrayList<>(indexes.subList(offset, offset + chunk.length)), new ArrayList<>(headers.subList(offset, offset + chunk.length))));
+        }
+
+        pendingWarmUpChunks.set(warmUpChunks.size());
+
+        if (pendingDecodingChunks.get() == 0) _completeIndex();
+
+        if (warmUpChunks.isEmpty()) {
+            _completeWarmUp();
+            return;
+        }
+
+        int tasks = Math.min(warmUpChunks.size(), Math.max(1, Runtime.getRuntime().availableProcessors()));
+        int queued = 0;
+
+        try {
+            for (; queued < tasks; queued++) {
+                Parallel.queue(() -> {
+                    //noinspection StatementWithEmptyBody
+                    while (_warmUpStep()) ;
+                }, TaskPriority.Bulk);
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        catch (RejectedExecutionException e) {
+            Log.warning(this.getClass(),
+                    "Warm-up tasks are rejected by the executor",
+                    "Directory: " + getCacheDirectory().getAbsolutePath(),
+                    "Queued tasks: " + queued);
+        }
+
+        // chunks left behind are processed by queued tasks and threads waiting for the warm-up,
+        // the warm-up is completed here if no task could be queued
+        //noinspection StatementWithEmptyBody
+        if (queued == 0) while (_warmUpStep()) ;
+    }
+
+    /**
+     * Warms up entries of a chunk, if any is left
+     * @return true if a chunk is processed; otherwise false
+     */
+    private boolean _warmUpStep() {
+
+        WarmUpChunk<TIndex> chunk = warmUpChunks.poll();
+        if (chunk == null) return false;
+
+        boolean processed = false;
+
+        try {
+            _warmUp(chunk);
+            processed = true;
+        }
+        finally {
+
+            // indexes of a chunk, which is not decoded, stay unknown and lookups fail
+            if (!processed && chunk.indexes == null) isIndexFailed = true;
+
+            if (chunk.indexes == null && pendingDecodingChunks.decrementAndGet() == 0) _completeIndex();
+            if (pendingWarmUpChunks.decrementAndGet() == 0) _completeWarmUp();
+        }
+
+        return true;
+    }
+
+    /**
+     * Warms up entries of a chunk
+     * @param chunk chunk to be warmed up
+     */
+    private void _warmUp(WarmUpChunk<TIndex> chunk) {
+
+        for (int i = 0; i < chunk.fileIndexes.length; i++) {
+
+            long fileIndex = chunk.fileIndexes[i];
+
+            try {
+
+                CacheStore.Record record = store.verify(fileIndex);
+
+                if (record == null) {
+
+                    failedWarmUpCount.incrementAndGet();
+                    if (chunk.indexes != null) _drop(chunk.indexes.get(i), chunk.headers.get(i));
+                }
+                else if (chunk.indexes != null) {
+                    _verify(chunk.indexes.get(i), chunk.headers.get(i), record);
+                }
+                else {
+                    _decode(fileIndex, record);
+                }
+            }
+            catch (Exception e) {
+                failedWarmUpCount.incrementAndGet();
+            }
+
+            warmedUpCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Decodes the index of a stored entry missing from the persisted index, and allocates the
+     * entry
+     * @param fileIndex file index of the entry
+     * @param header verified record of the entry
+     * @throws Exception throws if the entry could not be read or decoded
+     */
+    private void _decode(long fileIndex, CacheStore.Record header) throws Exception {
+
+        CacheEntry<TIndex, TData> entry = null;
+        TIndex index;
+
+        if (mode == CachingMode.Static) {
+
+            entry = new CacheEntry<>(this, fileIndex);
+            index = entry._load() ? entry.getIndex() : null;
+        }
+        else {
+            index = _readIndex(header);
+        }
+
+        if (index == null) {
+            failedWarmUpCount.incrementAndGet();
+            return;
+        }
+
+        synchronized (_stripe(index)) {
+            entries.put(index, entry != null ? entry : new WeakReference<CacheEntry<TIndex, TData>>(null));
+            _setHeader(index, new CacheIndex.Item(fileIndex, null, header.creationStampUtc, header.lastModifiedUtc));
+        }
+    }
+
+    /**
+     * Corrects stamps of an entry found in the persisted index, if they differ from the stored
+     * ones, and loads the entry in {@link CachingMode#Static} mode. Stamps are only corrected if
+     * the entry is not modified since its header was installed, since the storage does not hold
+     * modifications, which are not committed yet
+     * @param index index of the entry
+     * @param installed header installed from the persisted index
+     * @param header stored header of the entry
+     */
+    private void _verify(TIndex index, CacheIndex.Item installed, CacheStore.Record header) {
+
+        synchronized (_stripe(index)) {
+
+            CacheIndex.Item item = entryHeaders.get(index);
+
+            if (item == installed && (!_equals(item.creationStampUtc, header.creationStampUtc) || !_equals(item.lastModifiedUtc, header.lastModifiedUtc))) {
+                _setHeader(index, new CacheIndex.Item(header.fileIndex, null, header.creationStampUtc, header.lastModifiedUtc));
+                isSnapshotDirty = true;
+            }
+        }
+
+        if (mode == CachingMode.Static) {
+
+            Object allocated = entries.get(index);
+
+            //noinspection unchecked
+            if (allocated instanceof CacheEntry) ((CacheEntry<TIndex, TData>) allocated)._load();
+        }
+    }
+
+    /**
+     * Drops an entry found in the persisted index, whose record is no longer stored or is
+     * corrupted, unless the entry is modified since its header was installed
+     * @param index index of the entry
+     * @param installed header installed from the persisted index
+     */
+    private void _drop(TIndex index, CacheIndex.Item installed) {
+
+        synchronized (_stripe(index)) {
+
+            if (entryHeaders.get(index) != installed) return;
+
+            entries.remove(index);
+            _removeHeader(index);
+            if (residency != null) residency.remove(index);
+
+            isSnapshotDirty = true;
+        }
+    }
+
+    /**
+     * Sets the header of an entry, and indexes the entry by its last modification stamp. The
+     * caller must hold the monitor of the index, unless the cache is being initialised
+     * @param index index of the entry
+     * @param header header of the entry
+     */
+    private void _setHeader(TIndex index, CacheIndex.Item header) {
+
+        entryHeaders.put(index, header);
+        lastModifiedIndex._put(index, header.fileIndex, header.lastModifiedUtc);
+    }
+
+    /**
+     * Removes the header of an entry, and the entry from secondary indexes. The caller must hold
+     * the monitor of the index
+     * @param index index of the entry
+     */
+    private void _removeHeader(TIndex index) {
+
+        entryHeaders.remove(index);
+        lastModifiedIndex._remove(index);
+
+        for (CacheSecondaryIndex<TIndex, TData, ?> one : secondaryIndexes.values()) one._remove(index);
+    }
+
+    /**
+     * Indexes an entry by keys extracted from its data. The caller must hold the monitor of the
+     * entry
+     * @param entry entry to be indexed
+     * @param secondaryIndex secondary index to be updated
+     * @param <K> type of key
+     * @throws IOException throws if data of the entry could not be loaded
+     */
+    private <K> void _index(CacheEntry<TIndex, TData> entry, CacheSecondaryIndex<TIndex, TData, K> secondaryIndex) throws IOException {
+        secondaryIndex._put(entry.getIndex(), entry.getFileIndex(), secondaryIndex._extract(entry.getData()));
+    }
+
+    private static boolean _equals(Long a, Long b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * Decodes the index of a stored entry without decoding its data
+     * @param record record of the entry
+     * @return index of the entry
+     * @throws Exception throws if the entry could not be decoded
+     */
+    private TIndex _readIndex(CacheStore.Record record) throws Exception {
+
+        try (InputStream stream = record.open()) {
+            return serializer.deserializeWithLengthPrefix(stream, _indexClass);
+        }
+    }
+
+    /**
+     * Serializes an index of the cache for the persisted index
+     * @param index index to be serialized
+     * @return serialized index
+     * @throws Exception throws if the index could not be serialized
+     */
+    private byte[] _encodeKey(TIndex index) throws Exception {
+
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        serializer.serializeWithLengthPrefix(stream, index);
+
+        return stream.toByteArray();
+    }
+
+    /**
+     * Deserializes an index of the cache read from the persisted index
+     * @param key serialized index
+     * @return the index, or null if it could not be deserialized
+     */
+    private TIndex _decodeKey(byte[] key) {
+
+        try {
+            return serializer.deserializeWithLengthPrefix(new ByteArrayInputStream(key), _indexClass);
+        }
+        catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Lets lookups, which waited for indexes of stored entries to be decoded, proceed
+     */
+    private void _completeIndex() {
+
+        synchronized (warmUpChunks) {
+            isIndexComplete = true;
+            warmUpChunks.notifyAll();
+        }
+    }
+
+    private void _completeWarmUp() {
+
+        long failed = failedWarmUpCount.get();
+
+        if (failed > 0) {
+            Log.warning(this.getClass(),
+                    "Some cache entries could not be decoded and are ignored",
+                    "Directory: " + getCacheDirectory().getAbsolutePath(),
+                    "Entries: " + failed);
+        }
+
+        if (isIndexFailed) {
+            Log.warning(this.getClass(),
+                    "Warm-up of the cache failed, indexes of some cache entries are not known",
+                    "Directory: " + getCacheDirectory().getAbsolutePath());
+        }
+
+        synchronized (warmUpChunks) {
+            isWarmedUp = true;
+            warmUpChunks.notifyAll();
+        }
+
+        //noinspection ConstantConditions
+        warmUpResolver.run(this);
+    }
+
+    /**
+     * Waits until indexes of all stored entries are known, helping to decode them meanwhile
+     * @throws IllegalStateException throws if indexes of some stored entries could not be decoded
+     * by the warm-up
+     */
+    private void _awaitWarmUp() {
+
+        if (isIndexComplete) {
+            if (isIndexFailed) throw new IllegalStateException("Warm-up of the cache failed");
+            return;
+        }
+
+        //noinspection StatementWithEmptyBody
+        while (!isIndexComplete && _warmUpStep()) ;
+
+        boolean interrupted = false;
+
+        synchronized (warmUpChunks) {
+            while (!isIndexComplete) {
+                try {
+                    warmUpChunks.wait();
+                }
+                catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+
+        if (interrupted) Thread.currentThread().interrupt();
+        if (isIndexFailed) throw new IllegalStateException("Warm-up of the cache failed");
+    }
+
+    /**
+     * Indicates whether all stored entries are warmed up or not: indexes of entries missing from
+     * the persisted index are decoded, and stamps of the others are verified. The cache is ready
+     * to be used before its warm-up completes, lookups of indexes, which are not known yet, wait
+     * until indexes of all entries are known
+     * @return true if the warm-up is completed; otherwise false
+     */
+    public boolean isWarmedUp() {
+        return isWarmedUp;
+    }
+
+    /**
+     * Gets the progress of the warm-up of the cache
+     * @return ratio of stored entries, which are warmed up, from 0 to 1
+     */
+    public double getWarmUpProgress() {
+        return isWarmedUp || warmUpTotal == 0 ? 1 : Math.min(1, warmedUpCount.get() / (double) warmUpTotal);
+    }
+
+    /**
+     * Gets the warm-up of the cache
+     * @return {@link Promise} resolved with the cache once all stored entries are warmed up
+     */
+    public Promise<Cache<TIndex, TData>> getWarmUp() {
+        return warmUp;
+    }
+
+    /**
+     * Moves entries stored in their own files by earlier versions to segments of the cache.
+     * Entries are committed in batches, each of which is synced before files of its entries are
+     * deleted, so that an entry is never lost by a crash during migration
+     * @param dir cache directory
+     */
+    private void _migrate(File dir) {
+
+        String[] files = dir.list();
+        if (files == null) return;
+
+        int batchSize = CacheController.getMaxCommitBatchSize();
+
+        CacheStore.Batch batch = new CacheStore.Batch();
+        ArrayList<File> migrated = new ArrayList<>();
+
+        for (String file : files) {
+
+            if (!file.endsWith(".data")) continue;
+
+            try {
+                CacheEntry<TIndex, TData> entry = new CacheEntry<>(this, Long.parseLong(file.substring(0, file.length() - 5)));
+
+                if (entry._migrate(batch)) {
+                    migrated.add(new File(dir + "/" + file));
+                }
+                else {
+                    //noinspection ResultOfMethodCallIgnored
+                    new File(dir + "/" + file).delete();
+                }
+            }
+            catch (NumberFormatException e) {
+                //noinspection ResultOfMethodCallIgnored
+                new File(dir + "/" + file).delete();
+            }
+
+            if (batch.size() >= batchSize) {
+                _migrate(batch, migrated);
+
+                batch = new CacheStore.Batch();
+                migrated.clear();
+            }
+        }
+
+        _migrate(batch, migrated);
+    }
+
+    /**
+     * Commits a batch of migrated entries, and deletes their files once the batch is committed.
+     * Files of a batch, which could not be committed, are kept to be migrated again
+     * @param batch batch of migrated entries
+     * @param migrated files of the entries
+     */
+    private void _migrate(CacheStore.Batch batch, ArrayList<File> migrated) {
+
+        if (batch.isEmpty()) return;
+
+        try {
+            store.commit(batch);
+        }
+        catch (IOException e) {
+            Log.warning(this.getClass(),
+                    "Could not migrate cache entries",
+                    "Entries: " + batch.size(),
+                    "Error: " + e.getMessage());
+            return;
+        }
+
+        //noinspection ResultOfMethodCallIgnored
+        for (File file : migrated) file.delete();
+    }
+
     private Long storedLastModified = null;
 
     private boolean commitCacheChangesToStorage() {
 
-        Long current = lastEntryModifiedUtc;
+        Long current = lastEntryModifiedUtc.get();
 
         //noinspection NumberEquality
         if (storedLastModified != current) {
@@ -161,63 +756,232 @@ public class Cache<TIndex, TData> {
         return true;
     }
 
+    /**
+     * Commits pending modifications of entries to storage. Modifications are coalesced per entry
+     * and written in batches of at most {@link CacheController#getMaxCommitBatchSize()} records,
+     * each batch by a single write followed by a single sync. An entry, which could not be
+     * serialized, or a batch, which could not be written, stays pending for the next commit
+     * without holding back the others
+     * @return true if no modification is left pending; otherwise false
+     */
     private boolean commitEntryChangesToStorage() {
-        Long[] indexes;
+        if (store == null) return false;
 
-        synchronized (pendingEntries) {
-            indexes = pendingEntries.keySet().toArray(new Long[0]);
+        synchronized (commitLock) {
+            return _commitPending();
         }
+    }
 
-        for (long index : indexes) {
+    /**
+     * Commits pending modifications of entries to storage. The caller must hold the commit monitor
+     * @return true if no modification is left pending; otherwise false
+     */
+    private boolean _commitPending() {
+
+        int batchSize = CacheController.getMaxCommitBatchSize();
+        commitBatchSize = batchSize;
+
+        CacheStore.Batch batch = new CacheStore.Batch();
+        ArrayList<Long> indexes = new ArrayList<>();
+        ArrayList<PendingModification<TIndex, TData>> modifications = new ArrayList<>();
 
-            CacheEntry<TIndex, TData> entry;
-            synchronized (pendingEntries) {
-                entry = pendingEntries.get(index);
+        for (Long index : pendingEntries.keySet()) {
+
+            PendingModification<TIndex, TData> modification = pendingEntries.get(index);
+            if (modification == null) continue;
+
+            if (modification.entry == null) {
+                batch.delete(index, modification.actionStampUtc);
+            }
+            else if (!modification.entry._write(batch)) {
+                continue;
             }
 
-            if (entry == null) {
-                try {
-                    File file = new File(getCacheDirectory() + "/" + index + ".data");
+            indexes.add(index);
+            modifications.add(modification);
+
+            if (batch.size() >= batchSize) {
+
+                _commit(batch, indexes, modifications);
+
+                batch = new CacheStore.Batch();
+                indexes.clear();
+                modifications.clear();
+            }
+        }
+
+        _commit(batch, indexes, modifications);
+        _snapshot();
+
+        try {
+            store.compact();
+        }
+        catch (IOException e) {
+            Log.warning(this.getClass(),
+                    "Could not compact cache storage",
+                    "Error: " + e.getMessage());
+        }
+
+        return pendingEntries.isEmpty();
+    }
+
+    /**
+     * Commits a batch of records and dequeues the modifications it has written
+     * @param batch batch of records
+     * @param indexes file indexes of the modified entries
+     * @param modifications modifications written to the batch, in the order of indexes
+     * @return true if the batch is committed; otherwise false
+     */
+    private boolean _commit(CacheStore.Batch batch, ArrayList<Long> indexes, ArrayList<PendingModification<TIndex, TData>> modifications) {
+
+        if (batch.isEmpty()) return true;
+
+        long start = System.nanoTime();
+
+        try {
+            store.commit(batch);
+        }
+        catch (IOException e) {
+
+            statistics._recordFailedCommit();
+
+            Log.warning(this.getClass(),
+                    "Could not commit cache changes to storage",
+                    "Records: " + batch.size(),
+                    "Error: " + e.getMessage());
+            return false;
+        }
+
+        statistics._recordCommit(batch.size(), System.nanoTime() - start);
+
+        for (int i = 0; i < indexes.size(); i++) pendingEntries.remove(indexes.get(i), modifications.get(i));
+
+        // entries are weighed by their stored records, which are only known once committed
+        if (residency != null) {
+            for (PendingModification<TIndex, TData> one : modifications) {
+
+                if (one.entry == null) continue;
 
-                    if (file.exists() && file.isFile() && !file.delete()) break;
-                    synchronized (pendingEntries) {
-                        if (pendingEntries.get(index) == null) pendingEntries.remove(index);
-                    }
-                } catch (Exception e) {
-                    break;
-                }
-            } else {
                 try {
-                    long savingVersion = entry.version;
+                    residency.weigh(one.entry.getIndex(), store.length(one.entry.getFileIndex()));
+                }
+                catch (IOException ignored) {
+                }
+            }
+        }
 
-                    if (entry._save()) {
-                        synchronized (pendingEntries) {
-                            if (pendingEntries.get(index) == entry && entry.version == savingVersion)
-                                pendingEntries.remove(index);
-                        }
-                    } else {
-                        break;
-                    }
-                } catch (Exception e) {
-                    break;
+        if (persistedIndex == null) return true;
+
+        ArrayList<CacheIndex.Item> stored = new ArrayList<>();
+        ArrayList<Long> deleted = new ArrayList<>();
+
+        for (int i = 0; i < indexes.size(); i++) {
+
+            CacheEntry<TIndex, TData> entry = modifications.get(i).entry;
+
+            if (entry == null) {
+                deleted.add(indexes.get(i));
+                continue;
+            }
+
+            try {
+                synchronized (entry) {
+                    stored.add(new CacheIndex.Item(entry.getFileIndex(), _encodeKey(entry.getIndex()), entry.getCreationStampUtc(), entry.getLastModifiedUtc()));
                 }
             }
+            catch (Exception e) {
+                isSnapshotDirty = true;
+            }
+        }
+
+        _journal(stored, deleted);
+        return true;
+    }
+
+    /**
+     * Appends committed changes to the journal of the persisted index
+     * @param stored items of stored entries, with their keys
+     * @param deleted file indexes of deleted entries
+     */
+    private void _journal(ArrayList<CacheIndex.Item> stored, ArrayList<Long> deleted) {
+
+        if (persistedIndex == null) return;
+
+        try {
+            persistedIndex.append(stored, deleted);
+        }
+        catch (IOException e) {
+
+            isSnapshotDirty = true;
+
+            Log.warning(this.getClass(),
+                    "Could not append changes to cache index",
+                    "Error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes a new snapshot of the persisted index, if the journal has outgrown the snapshot or
+     * the persisted index differs from stored entries. Entries, which are not stored yet, are
+     * left to the journal
+     */
+    private void _snapshot() {
+
+        if (persistedIndex == null || !isWarmedUp || !(isSnapshotDirty || persistedIndex.isSnapshotDue())) return;
+
+        isSnapshotDirty = false;
+
+        ArrayList<CacheIndex.Item> items = new ArrayList<>(entryHeaders.size());
+
+        try {
+
+            for (Map.Entry<TIndex, CacheIndex.Item> one : entryHeaders.entrySet()) {
+
+                CacheIndex.Item header = one.getValue();
+                if (!store.contains(header.fileIndex)) continue;
+
+                items.add(new CacheIndex.Item(header.fileIndex, _encodeKey(one.getKey()), header.creationStampUtc, header.lastModifiedUtc));
+            }
+
+            persistedIndex.snapshot(items);
         }
+        catch (Exception e) {
+
+            isSnapshotDirty = true;
 
-        synchronized (pendingEntries) {
-            return pendingEntries.size() < 1;
+            Log.warning(this.getClass(),
+                    "Could not write cache index snapshot",
+                    "Error: " + e.getMessage());
         }
     }
 
+    /**
+     * Gets the storage of the cache
+     * @return storage of the cache, or null if it could not be opened
+     */
+    CacheStore _store() {
+        return store;
+    }
+
     /**
      * Marks an entry as freed and could be collected by GC. Cache entry instances, allocated but
      * not saved could be freed.
      * @param index index of an entry to be freed
      */
     void _free(TIndex index) {
-        synchronized (entries) {
-            unsettled.remove(index);
-        }
+        unsettled.remove(index);
+    }
+
+    /**
+     * Gets the monitor guarding changes of a specified index. Indexes are spread over a fixed
+     * number of monitors, so that changes of different indexes rarely wait for each other
+     * @param index index to be changed
+     * @return monitor of the index
+     */
+    private Object _stripe(TIndex index) {
+
+        int hash = index.hashCode() * 0x9E3779B9;
+        return stripes[(hash >>> 16 ^ hash) & (stripeCount - 1)];
     }
 
     /**
@@ -229,49 +993,219 @@ public class Cache<TIndex, TData> {
      */
     void _modify(CacheEntry<TIndex, TData> entry, CacheEntryAction action, long actionStampUtc) {
 
-        setLastEntryModifiedUtc(actionStampUtc);
+        setLastEntryModifiedUtc(actionStampUtc);
+
+        CacheController.setPersistent(false);
+        pendingEntries.put(entry.getFileIndex(), new PendingModification<>(action == CacheEntryAction.Delete ? null : entry, actionStampUtc));
+
+        if (pendingEntries.size() >= commitBatchSize) CacheController._requestCommit();
+
+        _settle(entry, action);
+
+        //noinspection unchecked,ConstantConditions
+        onEntryModifiedInvoker.run(new CacheEntryModifiedEventArgs(entry, action));
+    }
+
+    /**
+     * Reflects a modification of an entry in allocated entries, headers and secondary indexes.
+     * The caller must hold the monitor of the entry
+     * @param entry modified entry
+     * @param action action committed
+     */
+    private void _settle(CacheEntry<TIndex, TData> entry, CacheEntryAction action) {
+
+        try {
+
+            switch (action) {
+                case Create:
+
+                    synchronized (_stripe(entry.getIndex())) {
+                        switch (mode) {
+                            case Static:
+                                entries.put(entry.getIndex(), entry);
+                                break;
+
+                            default:
+                                entries.put(entry.getIndex(), new WeakReference<>(entry));
+                                if (residency != null) residency.access(entry.getIndex(), entry, store == null ? 0 : store.length(entry.getFileIndex()));
+                                break;
+                        }
+
+                        _setHeader(entry.getIndex(), new CacheIndex.Item(entry.getFileIndex(), null, entry.getCreationStampUtc(), entry.getLastModifiedUtc()));
+                        unsettled.remove(entry.getIndex());
+
+                        for (CacheSecondaryIndex<TIndex, TData, ?> one : secondaryIndexes.values()) _index(entry, one);
+                    }
+
+                    break;
+
+                case Update:
+
+                    synchronized (_stripe(entry.getIndex())) {
+
+                        if (entryHeaders.containsKey(entry.getIndex())) {
+
+                            _setHeader(entry.getIndex(), new CacheIndex.Item(entry.getFileIndex(), null, entry.getCreationStampUtc(), entry.getLastModifiedUtc()));
+
+                            for (CacheSecondaryIndex<TIndex, TData, ?> one : secondaryIndexes.values()) _index(entry, one);
+                        }
+                    }
+
+                    break;
+
+                case Delete:
+
+                    synchronized (_stripe(entry.getIndex())) {
+                        entries.remove(entry.getIndex());
+                        _removeHeader(entry.getIndex());
+                        if (residency != null) residency.remove(entry.getIndex());
+                    }
+
+                    break;
+            }
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Change of a write batch, prepared to be applied
+     */
+    private static final class PreparedChange<TIndex, TData> {
+
+        final TIndex index;
+        final CacheEntry<TIndex, TData> entry;
+        final CacheWriteBatch.Change<TData> change;
+        final CacheEntryAction action;
+        final Long creationStampUtc;
+
+        PreparedChange(TIndex index, CacheEntry<TIndex, TData> entry, CacheWriteBatch.Change<TData> change, CacheEntryAction action, Long creationStampUtc) {
+            this.index = index;
+            this.entry = entry;
+            this.change = change;
+            this.action = action;
+            this.creationStampUtc = creationStampUtc;
+        }
+    }
+
+    /**
+     * Applies changes of a write batch. Every change is serialized and the batch is committed to
+     * storage, as a single atomic group of records, before any entry is modified; the commit
+     * monitor is held meanwhile, so that no other commit could interleave with the batch
+     * @param changes changes by index of entries
+     * @return true if all changes are applied; otherwise false, no change is applied then
+     */
+    boolean _apply(Map<TIndex, CacheWriteBatch.Change<TData>> changes) {
+
+        if (changes.isEmpty()) return true;
+        if (!isSpaceAllocated()) throw new UnsupportedOperationException("caching space is not allocated");
+        if (store == null) return false;
+
+        _awaitWarmUp();
+
+        ArrayList<CacheEntryModifiedEventArgs<TIndex, TData>> modified = new ArrayList<>(changes.size());
+
+        synchronized (commitLock) {
+
+            CacheStore.Batch batch = new CacheStore.Batch(true);
+            ArrayList<PreparedChange<TIndex, TData>> prepared = new ArrayList<>(changes.size());
+
+            for (Map.Entry<TIndex, CacheWriteBatch.Change<TData>> one : changes.entrySet()) {
+
+                TIndex index = one.getKey();
+                CacheWriteBatch.Change<TData> change = one.getValue();
+                CacheEntry<TIndex, TData> entry = change.isDeleted ? _peek(index) : _getOrCreate(index, false);
+
+                if (entry == null) continue;
+
+                if (change.isDeleted) {
+
+                    batch.delete(entry.getFileIndex(), change.stampUtc);
+                    prepared.add(new PreparedChange<>(index, entry, change, CacheEntryAction.Delete, null));
+                    continue;
+                }
+
+                CacheIndex.Item header = entryHeaders.get(index);
+                Long creationStampUtc = header == null || header.creationStampUtc == null ? change.stampUtc : header.creationStampUtc;
+
+                try {
+                    batch.put(entry.getFileIndex(), creationStampUtc, change.stampUtc, CacheEntry._payload(serializer, index, change.data));
+                }
+                catch (Exception e) {
+
+                    Log.warning(this.getClass(),
+                            "Could not serialize cache entry, write batch is not applied",
+                            "Index: " + index,
+                            "Error: " + e.getMessage());
+                    return false;
+                }
+
+                prepared.add(new PreparedChange<>(index, entry, change, header == null ? CacheEntryAction.Create : CacheEntryAction.Update, creationStampUtc));
+            }
+
+            if (prepared.isEmpty()) return true;
 
-        synchronized (pendingEntries) {
             CacheController.setPersistent(false);
-            pendingEntries.put(entry.getFileIndex(), action == CacheEntryAction.Delete ? null : entry);
-        }
 
-        try {
+            long start = System.nanoTime();
 
-            switch (action) {
-                case Create:
+            try {
+                store.commit(batch);
+            }
+            catch (IOException e) {
 
-                    synchronized (entries) {
-                        switch (mode) {
-                            case Static:
-                                entries.put(entry.getIndex(), entry);
-                                break;
+                statistics._recordFailedCommit();
 
-                            default:
-                                entries.put(entry.getIndex(), new WeakReference<>(entry));
-                                break;
-                        }
+                Log.warning(this.getClass(),
+                        "Could not commit write batch to storage, write batch is not applied",
+                        "Records: " + batch.size(),
+                        "Error: " + e.getMessage());
+                return false;
+            }
 
-                        entryFileIndexes.put(entry.getIndex(), entry.getFileIndex());
-                        unsettled.remove(entry.getIndex());
-                    }
+            statistics._recordCommit(batch.size(), System.nanoTime() - start);
 
-                    break;
+            ArrayList<CacheIndex.Item> stored = new ArrayList<>();
+            ArrayList<Long> deleted = new ArrayList<>();
+            long stampUtc = Long.MIN_VALUE;
 
-                case Delete:
+            for (PreparedChange<TIndex, TData> one : prepared) {
 
-                    synchronized (entries) {
-                        entries.remove(entry.getIndex());
-                        entryFileIndexes.remove(entry.getIndex());
+                CacheEntry<TIndex, TData> entry = one.entry;
+
+                synchronized (entry) {
+
+                    if (one.action != CacheEntryAction.Delete) entry._replace(one.index, one.change.data, one.creationStampUtc, one.change.stampUtc);
+                    _settle(entry, one.action);
+
+                    // the stored state supersedes modifications, which are not committed yet
+                    pendingEntries.remove(entry.getFileIndex());
+                }
+
+                if (one.action == CacheEntryAction.Delete) {
+                    deleted.add(entry.getFileIndex());
+                }
+                else {
+
+                    if (residency != null) residency.weigh(one.index, store.length(entry.getFileIndex()));
+
+                    try {
+                        stored.add(new CacheIndex.Item(entry.getFileIndex(), _encodeKey(one.index), one.creationStampUtc, one.change.stampUtc));
+                    }
+                    catch (Exception e) {
+                        isSnapshotDirty = true;
                     }
+                }
 
-                    break;
+                modified.add(new CacheEntryModifiedEventArgs<>(entry, one.action));
+                stampUtc = Math.max(stampUtc, one.change.stampUtc);
             }
-        } catch (IOException ignored) {
+
+            setLastEntryModifiedUtc(stampUtc);
+            _journal(stored, deleted);
         }
 
-        //noinspection unchecked,ConstantConditions
-        onEntryModifiedInvoker.run(new CacheEntryModifiedEventArgs(entry, action));
+        onEntriesModifiedInvoker.run(new CacheEntriesModifiedEventArgs<>(modified));
+        return true;
     }
 
     /**
@@ -280,6 +1214,13 @@ public class Cache<TIndex, TData> {
     public final ActionEvent<CacheEntryModifiedEventArgs<TIndex, TData>> onEntryModified = new ActionEvent<>();
     private final Action1<CacheEntryModifiedEventArgs<TIndex, TData>> onEntryModifiedInvoker = ActionEvent.getInvoker(onEntryModified);
 
+    /**
+     * Triggers once whenever entries of current cache type are modified by a write batch. Entries
+     * modified by a write batch do not trigger {@link #onEntryModified}
+     */
+    public final ActionEvent<CacheEntriesModifiedEventArgs<TIndex, TData>> onEntriesModified = new ActionEvent<>();
+    private final Action1<CacheEntriesModifiedEventArgs<TIndex, TData>> onEntriesModifiedInvoker = ActionEvent.getInvoker(onEntriesModified);
+
     /**
      * Gets a specified type of cache.
      * @param index class of the cache index
@@ -287,7 +1228,7 @@ public class Cache<TIndex, TData> {
      * @param <TIndex> type of cache index
      * @param <TData> type of cache data
      * @return instance of {@link Cache} via {@link Promise} which provides access to the specified
-     * cache type
+     * cache type. The cache is initialised on the calling thread if the executor rejects the task
      *
      * @exception InterruptedException throws if the calling thread is interrupted be for the
      * cache initialisation is completed
@@ -316,14 +1257,21 @@ public class Cache<TIndex, TData> {
 
             if (!pass) {
 
-                Parallel.queue(() -> {
+                Action initializer = () -> {
 
                     synchronized (instances) {
 
                         //noinspection unchecked,ConstantConditions
                         resolver.run(instances.containsKey(key) ? instances.get(key) : new Cache<>(key, index, data));
                     }
-                });
+                };
+
+                try {
+                    Parallel.queue(initializer, TaskPriority.Bulk);
+                }
+                catch (RejectedExecutionException e) {
+                    initializer.run();
+                }
             }
         }
     }
@@ -333,9 +1281,8 @@ public class Cache<TIndex, TData> {
      * @return number of allocated entries
      */
     public int size() {
-        synchronized (entries) {
-            return entries.size();
-        }
+        _awaitWarmUp();
+        return entries.size();
     }
 
     /**
@@ -370,32 +1317,42 @@ public class Cache<TIndex, TData> {
      * @return unix time stamp at which the cache data is last modified
      */
     public long getLastEntryModifiedUtc() {
-        synchronized (entries) {
-            if (isSpaceAllocated() && lastEntryModifiedUtc == null) {
 
-                try {
-                    File path = new File(getCacheDirectory() + "/.info");
+        Long current = lastEntryModifiedUtc.get();
 
-                    if (path.exists() && path.isFile()) {
+        if (isSpaceAllocated() && current == null) {
 
-                        try (FileInputStream stream = new FileInputStream(path)) {
-                            lastEntryModifiedUtc = primitive.readLong(stream);
-                        }
+            try {
+                File path = new File(getCacheDirectory() + "/.info");
+
+                if (path.exists() && path.isFile()) {
+
+                    try (FileInputStream stream = new FileInputStream(path)) {
+                        lastEntryModifiedUtc.compareAndSet(null, primitive.readLong(stream));
                     }
                 }
-                catch (Exception ignored) {
-                }
             }
+            catch (Exception ignored) {
+            }
+
+            current = lastEntryModifiedUtc.get();
         }
 
-        return lastEntryModifiedUtc == null ? 0 : (long) lastEntryModifiedUtc;
+        return current == null ? 0 : (long) current;
     }
 
     private void setLastEntryModifiedUtc(long value) {
-        synchronized (entries) {
-            if (isSpaceAllocated() && (lastEntryModifiedUtc == null || lastEntryModifiedUtc < value)) {
+
+        if (!isSpaceAllocated()) return;
+
+        while (true) {
+
+            Long current = lastEntryModifiedUtc.get();
+            if (current != null && current >= value) return;
+
+            if (lastEntryModifiedUtc.compareAndSet(current, value)) {
                 CacheController.setPersistent(false);
-                lastEntryModifiedUtc = value;
+                return;
             }
         }
     }
@@ -408,13 +1365,13 @@ public class Cache<TIndex, TData> {
     public CacheEntry<TIndex, TData>[] entries() {
         ArrayList<CacheEntry<TIndex, TData>> results = new ArrayList<>();
 
-        synchronized (entries) {
+        _awaitWarmUp();
 
-            for (TIndex index : entries.keySet()) {
-                CacheEntry<TIndex, TData> entry = get(index);
-                results.add(entry);
-            }
+        for (TIndex index : entries.keySet()) {
+            CacheEntry<TIndex, TData> entry = get(index);
+            if (entry != null) results.add(entry);
         }
+
         return results.toArray(arraySample);
     }
 
@@ -423,10 +1380,9 @@ public class Cache<TIndex, TData> {
      * @return array of allocated index of the cache
      */
     public TIndex[] indexes() {
-        synchronized (entries) {
-            //noinspection unchecked
-            return entries.keySet().toArray((TIndex[])Array.newInstance(_indexClass, 0));
-        }
+        _awaitWarmUp();
+        //noinspection unchecked
+        return entries.keySet().toArray((TIndex[])Array.newInstance(_indexClass, 0));
     }
 
     /**
@@ -454,9 +1410,7 @@ public class Cache<TIndex, TData> {
     public final boolean hasAll(TIndex... indexes) {
         if (!isSpaceAllocated()) return false;
 
-        synchronized (entries) {
-            for (TIndex index : indexes) if (!has(index)) return false;
-        }
+        for (TIndex index : indexes) if (!has(index)) return false;
 
         return true;
     }
@@ -471,9 +1425,7 @@ public class Cache<TIndex, TData> {
 
         if (!isSpaceAllocated()) return false;
 
-        synchronized (entries) {
-            for (TIndex index: indexes) if (has(index)) return true;
-        }
+        for (TIndex index: indexes) if (has(index)) return true;
 
         return false;
     }
@@ -485,9 +1437,254 @@ public class Cache<TIndex, TData> {
      */
     public boolean has(TIndex index) {
         if (index == null || !isSpaceAllocated()) return false;
-        synchronized (entries) {
-            return entries.containsKey(index);
+        if (entries.containsKey(index)) return true;
+
+        if (isIndexComplete) return false;
+
+        _awaitWarmUp();
+        return entries.containsKey(index);
+    }
+
+    /**
+     * Gets the instance of an allocated entry, creating the instance if it is not in memory, and
+     * records the access. Instances in memory are returned without locking; an instance is only
+     * created while holding the monitor of the index
+     * @param index index of the entry
+     * @param allocated value mapped to the index in {@link #entries}
+     * @param isRecorded true to record the access in statistics and residency of the cache;
+     *                   otherwise false
+     * @return instance of the entry, or null if the entry has been deleted meanwhile
+     */
+    private CacheEntry<TIndex, TData> _resident(TIndex index, Object allocated, boolean isRecorded) {
+
+        CacheEntry<TIndex, TData> entry;
+
+        switch (mode) {
+            case Static:
+
+                //noinspection unchecked
+                entry = (CacheEntry<TIndex, TData>) allocated;
+                if (isRecorded) statistics._recordHit();
+
+                return entry;
+
+            default:
+
+                //noinspection unchecked
+                entry = ((WeakReference<CacheEntry<TIndex, TData>>) allocated).get();
+
+                if (entry == null) {
+
+                    synchronized (_stripe(index)) {
+
+                        allocated = entries.get(index);
+                        if (allocated == null) return null;
+
+                        //noinspection unchecked
+                        entry = ((WeakReference<CacheEntry<TIndex, TData>>) allocated).get();
+
+                        if (entry == null) {
+
+                            CacheIndex.Item header = entryHeaders.get(index);
+                            if (header == null) return null;
+
+                            entry = new CacheEntry<>(this, header.fileIndex);
+                            entries.put(index, new WeakReference<>(entry));
+                            if (isRecorded) statistics._recordMiss();
+                        }
+                        else {
+                            if (isRecorded) statistics._recordHit();
+                        }
+                    }
+                }
+                else {
+                    if (isRecorded) statistics._recordHit();
+                }
+
+                if (isRecorded && residency != null) residency.access(index, entry, store == null ? 0 : store.length(entry.getFileIndex()));
+
+                return entry;
+        }
+    }
+
+    /**
+     * Gets the instance of an allocated entry without recording the access, so that scans of
+     * the cache do not displace entries kept in memory
+     * @param index index of the entry
+     * @return instance of the entry, or null if the entry is not allocated
+     */
+    CacheEntry<TIndex, TData> _peek(TIndex index) {
+
+        Object allocated = entries.get(index);
+        return allocated == null ? null : _resident(index, allocated, false);
+    }
+
+    /**
+     * Gets a weakly consistent iterator of allocated indexes, which reflects some modifications
+     * made during the iteration and never throws {@link java.util.ConcurrentModificationException}
+     * @return iterator of allocated indexes
+     */
+    Iterator<TIndex> _indexIterator() {
+
+        _awaitWarmUp();
+        return entries.keySet().iterator();
+    }
+
+    /**
+     * Gets a streaming cursor over entries of the cache
+     * @return cursor over all entries, which could be narrowed down before it is iterated
+     */
+    public CacheCursor<TIndex, TData> cursor() {
+        return new CacheCursor<>(this);
+    }
+
+    /**
+     * Gets the header of an allocated entry: its file index and stamps, without loading the entry
+     * @param index index of the entry
+     * @return header of the entry, or null if the entry is not allocated
+     */
+    CacheIndex.Item _header(TIndex index) {
+
+        if (index == null || !isSpaceAllocated()) return null;
+
+        CacheIndex.Item header = entryHeaders.get(index);
+
+        if (header == null && !isIndexComplete) {
+            _awaitWarmUp();
+            header = entryHeaders.get(index);
+        }
+
+        return header;
+    }
+
+    /**
+     * Adds a secondary index, which supports exact lookups of entries by a key extracted from
+     * their data. Building the index loads every entry of the cache once; the index is then kept
+     * up to date as entries are modified. Secondary indexes are not persisted, they have to be
+     * added whenever the cache is initialised
+     * @param name name of the index
+     * @param extractor extractor of keys from data of entries, entries with null keys are not
+     *                  indexed
+     * @param <K> type of key
+     * @return the secondary index
+     * @exception IllegalArgumentException throws if an index with the same name exists
+     */
+    public <K> CacheSecondaryIndex<TIndex, TData, K> addIndex(String name, Function1<TData, K> extractor) {
+        return _addIndex(name, extractor, null);
+    }
+
+    /**
+     * Adds an ordered secondary index, which supports exact lookups and range scans of entries
+     * by a key extracted from their data, in the natural order of keys. Building the index loads
+     * every entry of the cache once; the index is then kept up to date as entries are modified.
+     * Secondary indexes are not persisted, they have to be added whenever the cache is
+     * initialised
+     * @param name name of the index
+     * @param extractor extractor of keys from data of entries, entries with null keys are not
+     *                  indexed
+     * @param <K> type of key
+     * @return the secondary index
+     * @exception IllegalArgumentException throws if an index with the same name exists
+     */
+    public <K extends Comparable<? super K>> CacheSecondaryIndex<TIndex, TData, K> addOrderedIndex(String name, Function1<TData, K> extractor) {
+        return _addIndex(name, extractor, (Comparator<K>) (a, b) -> a.compareTo(b));
+    }
+
+    /**
+     * Adds an ordered secondary index, which supports exact lookups and range scans of entries
+     * by a key extracted from their data, in the order of a comparator
+     * @param name name of the index
+     * @param extractor extractor of keys from data of entries, entries with null keys are not
+     *                  indexed
+     * @param comparator comparator of keys
+     * @param <K> type of key
+     * @return the secondary index
+     * @exception IllegalArgumentException throws if an index with the same name exists
+     */
+    public <K> CacheSecondaryIndex<TIndex, TData, K> addOrderedIndex(String name, Function1<TData, K> extractor, Comparator<? super K> comparator) {
+
+        if (comparator == null) throw new IllegalArgumentException("comparator");
+        return _addIndex(name, extractor, comparator);
+    }
+
+    private <K> CacheSecondaryIndex<TIndex, TData, K> _addIndex(String name, Function1<TData, K> extractor, Comparator<? super K> comparator) {
+
+        if (name == null || name.equals(lastModifiedIndexName)) throw new IllegalArgumentException("name");
+        if (extractor == null) throw new IllegalArgumentException("extractor");
+
+        CacheSecondaryIndex<TIndex, TData, K> secondaryIndex = new CacheSecondaryIndex<>(name, _indexClass, extractor, comparator);
+
+        if (secondaryIndexes.putIfAbsent(name, secondaryIndex) != null) throw new IllegalArgumentException("index " + name + " exists");
+
+        // entries modified from now on are indexed by _modify, the others are indexed here
+        _awaitWarmUp();
+
+        for (TIndex index : entries.keySet()) {
+
+            CacheEntry<TIndex, TData> entry = get(index);
+            if (entry == null) continue;
+
+            try {
+                synchronized (entry) {
+                    if (entries.containsKey(index)) _index(entry, secondaryIndex);
+                }
+            }
+            catch (IOException ignored) {
+            }
         }
+
+        return secondaryIndex;
+    }
+
+    /**
+     * Gets a secondary index
+     * @param name name of the index
+     * @return the secondary index, or null if no index has the name
+     */
+    public CacheSecondaryIndex<TIndex, TData, ?> getIndex(String name) {
+        return lastModifiedIndexName.equals(name) ? lastModifiedIndex : name == null ? null : secondaryIndexes.get(name);
+    }
+
+    /**
+     * Removes a secondary index. The built-in index of last modification stamps could not be
+     * removed
+     * @param name name of the index
+     * @return true if the index is removed; otherwise false
+     */
+    public boolean removeIndex(String name) {
+        return name != null && secondaryIndexes.remove(name) != null;
+    }
+
+    /**
+     * Gets the built-in ordered index of entries by their last modification stamps. The index is
+     * built from the persisted index of the cache, without loading entries
+     * @return index of last modification stamps
+     */
+    public CacheSecondaryIndex<TIndex, TData, Long> getLastModifiedIndex() {
+        return lastModifiedIndex;
+    }
+
+    /**
+     * Gets indexes of entries modified after a specified time, in the order of their last
+     * modification stamps
+     * @param stampUtc unix time stamp, entries modified at or before which are excluded
+     * @return indexes of entries
+     */
+    public TIndex[] indexesModifiedAfter(long stampUtc) {
+
+        _awaitWarmUp();
+
+        //noinspection unchecked
+        return stampUtc == Long.MAX_VALUE ? (TIndex[]) Array.newInstance(_indexClass, 0) : lastModifiedIndex.range(stampUtc + 1, null);
+    }
+
+    /**
+     * Gets access statistics of the cache: hits and misses of entry lookups, and, in
+     * {@link CachingMode#Bounded} mode, evicted and resident entries
+     * @return statistics of the cache
+     */
+    public CacheStatistics getStatistics() {
+        return statistics;
     }
 
     /**
@@ -501,39 +1698,45 @@ public class Cache<TIndex, TData> {
         if (index == null) throw new IllegalArgumentException("index is null");
         if (!isSpaceAllocated()) throw new UnsupportedOperationException("caching space is not allocated");
 
-        synchronized (entries) {
-            if (entries.containsKey(index)) {
-                switch (mode) {
-                    case Static:
-                        //noinspection unchecked
-                        return (CacheEntry<TIndex, TData>) entries.get(index);
-                    default:
+        return _getOrCreate(index, true);
+    }
 
-                        @SuppressWarnings("unchecked") WeakReference<CacheEntry<TIndex, TData>> reference = (WeakReference<CacheEntry<TIndex, TData>>) entries.get(index);
-                        @SuppressWarnings("ConstantConditions") CacheEntry<TIndex, TData> entry = reference.get();
+    /**
+     * Gets an entry, allocating it if it does not exist
+     * @param index index of the entry
+     * @param isRecorded true to record the access in statistics and residency; otherwise false
+     * @return the entry
+     */
+    private CacheEntry<TIndex, TData> _getOrCreate(TIndex index, boolean isRecorded) {
 
-                        if (entry == null) {
-                            //noinspection ConstantConditions
-                            entry = new CacheEntry<>(this, entryFileIndexes.get(index));
-                            entries.put(index, new WeakReference<>(entry));
-                        }
+        Object allocated = entries.get(index);
 
-                        return entry;
-                }
-            }
-            else {
-                if (!unsettled.containsKey(index)) unsettled.put(index, new WeakReference<>(null));
+        if (allocated != null) {
+            CacheEntry<TIndex, TData> entry = _resident(index, allocated, isRecorded);
+            if (entry != null) return entry;
+        }
 
-                @SuppressWarnings("ConstantConditions") CacheEntry<TIndex, TData> entry = unsettled.get(index).get();
+        _awaitWarmUp();
 
-                if (entry == null) {
-                    currentFileIndex++;
-                    entry = new CacheEntry<>(this, index, currentFileIndex);
-                    unsettled.put(index, new WeakReference<>(entry));
-                }
+        synchronized (_stripe(index)) {
 
-                return entry;
+            allocated = entries.get(index);
+
+            if (allocated != null) {
+                CacheEntry<TIndex, TData> entry = _resident(index, allocated, isRecorded);
+                if (entry != null) return entry;
+            }
+
+            WeakReference<CacheEntry<TIndex, TData>> reference = unsettled.get(index);
+            CacheEntry<TIndex, TData> entry = reference == null ? null : reference.get();
+
+            if (entry == null) {
+                entry = new CacheEntry<>(this, index, currentFileIndex.incrementAndGet());
+                unsettled.put(index, new WeakReference<>(entry));
             }
+
+            if (isRecorded) statistics._recordMiss();
+            return entry;
         }
     }
 
@@ -547,30 +1750,14 @@ public class Cache<TIndex, TData> {
 
         if (index == null) throw new IllegalArgumentException("index is null");
 
-        synchronized (entries) {
-
-            if (!entries.containsKey(index)) return null;
-
-            switch (mode) {
-                case Static:
-
-                    //noinspection unchecked
-                    return (CacheEntry<TIndex, TData>) entries.get(index);
-
-                default:
+        Object allocated = entries.get(index);
 
-                    @SuppressWarnings("unchecked") WeakReference<CacheEntry<TIndex, TData>> reference = (WeakReference<CacheEntry<TIndex, TData>>) entries.get(index);
-                    @SuppressWarnings("ConstantConditions") CacheEntry<TIndex, TData> entry = reference.get();
-
-                    if (entry == null) {
-                        //noinspection ConstantConditions
-                        entry = new CacheEntry<>(this, entryFileIndexes.get(index));
-                        entries.put(index, new WeakReference<>(entry));
-                    }
-
-                    return entry;
-            }
+        if (allocated == null && !isIndexComplete) {
+            _awaitWarmUp();
+            allocated = entries.get(index);
         }
+
+        return allocated == null ? null : _resident(index, allocated, true);
     }
 
     /**
@@ -634,16 +1821,8 @@ public class Cache<TIndex, TData> {
      */
     public long getCreationStampUtc(TIndex index, long onFailed) {
 
-        if (index == null) return onFailed;
-
-        CacheEntry<TIndex, TData> entry = getOrCreate(index);
-
-        try {
-            return entry == null || !entry._load() || !has(index) ? onFailed : entry.getCreationStampUtc();
-        }
-        catch (IOException e) {
-            return onFailed;
-        }
+        CacheIndex.Item header = _header(index);
+        return header == null || header.creationStampUtc == null ? onFailed : header.creationStampUtc;
     }
 
     /**
@@ -664,16 +1843,8 @@ public class Cache<TIndex, TData> {
      * @return modification timestamp of the entry is succeed; otherwise provided onFailed value
      */
     public long getLastModifiedUtc(TIndex index, long onFailed) {
-        if (index == null) return onFailed;
-
-        CacheEntry<TIndex, TData> entry = getOrCreate(index);
-
-        try {
-            return entry == null || !entry._load() || !has(index) ? onFailed : entry.getLastModifiedUtc();
-        }
-        catch (IOException e) {
-            return onFailed;
-        }
+        CacheIndex.Item header = _header(index);
+        return header == null || header.lastModifiedUtc == null ? onFailed : header.lastModifiedUtc;
     }
 
     /**
@@ -712,6 +1883,44 @@ public class Cache<TIndex, TData> {
         return update(index, data, System.currentTimeMillis());
     }
 
+    /**
+     * Updates data of specified entries by a single write batch. Entries, which do not exist,
+     * will be created. This method blocks calling thread until {@link shark.Framework} is started
+     * @param data data to be set to the entries, by index of the entries
+     * @param lastModifiedUtc timestamp to be recorded as the last modification time of the entries
+     * @return true if succeed; otherwise false
+     */
+    public boolean updateAll(Map<TIndex, TData> data, long lastModifiedUtc) {
+
+        if (data == null) return false;
+
+        CacheWriteBatch<TIndex, TData> batch = batch();
+
+        for (Map.Entry<TIndex, TData> one : data.entrySet()) {
+            if (one.getKey() != null) batch.update(one.getKey(), one.getValue(), lastModifiedUtc);
+        }
+
+        return batch.commit();
+    }
+
+    /**
+     * Updates data of specified entries by a single write batch. Entries, which do not exist,
+     * will be created. This method blocks calling thread until {@link shark.Framework} is started
+     * @param data data to be set to the entries, by index of the entries
+     * @return true if succeed; otherwise false
+     */
+    public boolean updateAll(Map<TIndex, TData> data) {
+        return updateAll(data, System.currentTimeMillis());
+    }
+
+    /**
+     * Creates a write batch, which collects changes of entries to be applied together
+     * @return an empty write batch
+     */
+    public CacheWriteBatch<TIndex, TData> batch() {
+        return new CacheWriteBatch<>(this);
+    }
+
     /**
      * Deletes an entry. This method blocks the calling thread until {@link shark.Framework} is
      * started
@@ -744,18 +1953,19 @@ public class Cache<TIndex, TData> {
      * @param actionStampUtc timestamp to be set as cache last modification time
      */
     public void clear(long actionStampUtc) {
-        synchronized (entries) {
-            lastEntryModifiedUtc = null;
+        _awaitWarmUp();
 
-            if (entries.size() > 0) {
-                for (TIndex index : entries.keySet()) {
-                    get(index).delete(actionStampUtc);
-                }
-            }
-            else {
-                setLastEntryModifiedUtc(actionStampUtc);
+        lastEntryModifiedUtc.set(null);
+
+        if (entries.size() > 0) {
+            for (TIndex index : entries.keySet()) {
+                CacheEntry<TIndex, TData> entry = get(index);
+                if (entry != null) entry.delete(actionStampUtc);
             }
         }
+        else {
+            setLastEntryModifiedUtc(actionStampUtc);
+        }
 
         Log.information(this.getClass(), "Cache is clean");
      }
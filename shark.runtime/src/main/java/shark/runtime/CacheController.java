@@ -33,6 +33,12 @@ public final class CacheController {
     static final FunctionTrigger<Boolean> onCommitChangesToStorage = new FunctionTrigger<>();
     private static final Function1<Boolean[], Boolean> onCommitChangesToStorageInvoker = FunctionTrigger.getInvoker(onCommitChangesToStorage);
 
+    private static final Object _commitSignal = new Object();
+    private static volatile boolean _isCommitRequested = false;
+
+    private static final Object _persistentLock = new Object();
+    private static volatile Boolean _persistentState = null;
+
     private static boolean _commitChangesToStorage() {
         synchronized (_caches) {
             try {
@@ -63,12 +69,31 @@ public final class CacheController {
 
                 //noinspection ConstantConditions
                 setPersistent(onCommitChangesToStorageInvoker.run(new Boolean[] { true }));
-                Parallel.sleep(100);
+
+                long latency = getCommitLatency();
+
+                synchronized (_commitSignal) {
+                    if (!_isCommitRequested) _commitSignal.wait(latency);
+                    _isCommitRequested = false;
+                }
             }
         } catch (InterruptedException ignored) {
         }
     }
 
+    /**
+     * Wakes the storing task up, so that changes are committed before the commit latency elapses
+     */
+    static void _requestCommit() {
+
+        if (_isCommitRequested) return;
+
+        synchronized (_commitSignal) {
+            _isCommitRequested = true;
+            _commitSignal.notifyAll();
+        }
+    }
+
     private CacheController() {
 
         try {
@@ -146,18 +171,26 @@ public final class CacheController {
     }
 
     static void setPersistent(boolean value) {
-       try {
 
-           if (!value) {
-               (new File(getCacheDirectory() + "/.delay")).writeAllBytes(new byte[0]);
+       Boolean state = _persistentState;
+       if (state != null && state == value) return;
+
+       synchronized (_persistentLock) {
+           try {
+
+               if (!value) {
+                   (new File(getCacheDirectory() + "/.delay")).writeAllBytes(new byte[0]);
+               }
+               else {
+                   //noinspection ResultOfMethodCallIgnored
+                   (new File(getCacheDirectory() + "/.delay")).delete();
+               }
+
+               _persistentState = value;
            }
-           else {
-               //noinspection ResultOfMethodCallIgnored
-               (new File(getCacheDirectory() + "/.delay")).delete();
+           catch (Exception ignored) {
            }
        }
-       catch (Exception ignored) {
-       }
     }
 
     static Long getLastCleanupStamp() {
@@ -214,7 +247,9 @@ public final class CacheController {
      * @return caching mode of the caches
      */
     public static CachingMode getMode() {
-        return StoredStates.getInt(CacheController.class, "caching-mode", 0) == 0 ? CachingMode.Dynamic : CachingMode.Static;
+
+        int mode = StoredStates.getInt(CacheController.class, "caching-mode", 0);
+        return mode > 0 && mode < CachingMode.values().length ? CachingMode.values()[mode] : CachingMode.Dynamic;
     }
 
     /**
@@ -222,7 +257,121 @@ public final class CacheController {
      * @param mode caching mode to be set
      */
     public static void setMode(CachingMode mode) {
-        StoredStates.set(CacheController.class, "caching-mode", (mode == CachingMode.Static ? 0 : 1));
+        if (mode != null) StoredStates.set(CacheController.class, "caching-mode", mode.ordinal());
+    }
+
+    /**
+     * Gets the maximum number of entries, which a cache in {@link CachingMode#Bounded} mode keeps
+     * in memory. The setting only applies if no maximum weight is set
+     * @return maximum number of entries
+     */
+    public static long getMaxEntryCount() {
+        return StoredStates.getLong(CacheController.class, "max-entry-count", 10000);
+    }
+
+    /**
+     * Sets the maximum number of entries, which a cache in {@link CachingMode#Bounded} mode keeps
+     * in memory. The setting is applied to caches initialised afterwards
+     * @param value maximum number of entries
+     */
+    public static void setMaxEntryCount(long value) {
+        if (value > 0) StoredStates.set(CacheController.class, "max-entry-count", value);
+    }
+
+    /**
+     * Gets the maximum total weight, in bytes of stored records, of entries, which a cache in
+     * {@link CachingMode#Bounded} mode keeps in memory
+     * @return maximum weight, or 0 if the number of entries is bounded instead
+     */
+    public static long getMaxWeight() {
+        return StoredStates.getLong(CacheController.class, "max-weight", 0);
+    }
+
+    /**
+     * Sets the maximum total weight, in bytes of stored records, of entries, which a cache in
+     * {@link CachingMode#Bounded} mode keeps in memory. The setting is applied to caches
+     * initialised afterwards
+     * @param value maximum weight, 0 to bound the number of entries instead
+     */
+    public static void setMaxWeight(long value) {
+        StoredStates.set(CacheController.class, "max-weight", Math.max(0, value));
+    }
+
+    /**
+     * Gets the policy, by which caches in {@link CachingMode#Bounded} mode evict entries
+     * @return eviction policy
+     */
+    public static EvictionPolicy getEvictionPolicy() {
+
+        try {
+            return EvictionPolicy.valueOf(StoredStates.getString(CacheController.class, "eviction-policy", EvictionPolicy.TinyLfu.name()));
+        }
+        catch (IllegalArgumentException e) {
+            return EvictionPolicy.TinyLfu;
+        }
+    }
+
+    /**
+     * Sets the policy, by which caches in {@link CachingMode#Bounded} mode evict entries. The
+     * setting is applied to caches initialised afterwards
+     * @param policy eviction policy
+     */
+    public static void setEvictionPolicy(EvictionPolicy policy) {
+        if (policy != null) StoredStates.set(CacheController.class, "eviction-policy", policy.name());
+    }
+
+    /**
+     * Indicates whether segments of caches are memory-mapped for reading or not. The setting is
+     * applied to caches initialised afterwards
+     * @return true if segments are memory-mapped; otherwise false
+     */
+    public static boolean isMemoryMapped() {
+        return StoredStates.getBoolean(CacheController.class, "memory-mapped", true);
+    }
+
+    /**
+     * Sets whether segments of caches are memory-mapped for reading or not. The setting is
+     * applied to caches initialised afterwards
+     * @param value true to memory-map segments; otherwise false
+     */
+    public static void setMemoryMapped(boolean value) {
+        StoredStates.set(CacheController.class, "memory-mapped", value);
+    }
+
+    /**
+     * Gets the maximum time, in milliseconds, a modification of a cache entry waits before it is
+     * committed to storage. Modifications made within this time are committed together
+     * @return commit latency in milliseconds
+     */
+    public static long getCommitLatency() {
+        return StoredStates.getLong(CacheController.class, "commit-latency", 100);
+    }
+
+    /**
+     * Sets the maximum time, in milliseconds, a modification of a cache entry waits before it is
+     * committed to storage. Longer latency groups more modifications into each commit
+     * @param value commit latency in milliseconds
+     */
+    public static void setCommitLatency(long value) {
+        if (value > 0) StoredStates.set(CacheController.class, "commit-latency", value);
+    }
+
+    /**
+     * Gets the maximum number of records committed to storage by a single write. A cache with
+     * this many pending modifications commits them without waiting for the commit latency
+     * @return maximum batch size
+     */
+    public static int getMaxCommitBatchSize() {
+        return StoredStates.getInt(CacheController.class, "max-commit-batch-size", 256);
+    }
+
+    /**
+     * Sets the maximum number of records committed to storage by a single write. The setting is
+     * applied from the next commit
+     * @param value maximum batch size
+     */
+    public static void setMaxCommitBatchSize(int value) {
+        if (value > 0) StoredStates.set(CacheController.class, "max-commit-batch-size", value);
     }
 
     public static boolean getDeleteIfNotPersistent() {
@@ -0,0 +1,337 @@
+package shark.runtime;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.RejectedExecutionException;
+
+import shark.delegates.Action1;
+import shark.delegates.Function1;
+import shark.utils.linq;
+
+/**
+ * Streaming cursor over entries of a cache. Entries are enumerated lazily, in batches: indexes
+ * of a batch are taken from a weakly consistent view of the cache, filtered by their index and
+ * stamps without loading entries, and entries passing the filters are loaded together. Batches
+ * could be loaded ahead in the background, while earlier ones are consumed. Only the batches in
+ * flight are referenced by the cursor, so that a whole cache is enumerated in constant memory.
+ *
+ * Enumeration takes no lock of the cache, entries created or deleted meanwhile may or may not be
+ * enumerated. Entries enumerated by a cursor are not recorded as accesses of the cache, so that
+ * scans do not displace entries kept in memory. Each call of {@link #iterator()} starts a new
+ * enumeration.
+ * @param <TIndex> type of caching index
+ * @param <TData> type of caching data
+ */
+@SuppressWarnings("WeakerAccess")
+public final class CacheCursor<TIndex, TData> implements Iterable<CacheEntry<TIndex, TData>> {
+
+    private final Cache<TIndex, TData> cache;
+
+    private int batchSize = 64;
+    private int prefetch = 0;
+    private boolean isDataLoaded = true;
+
+    private Function1<TIndex, Boolean> indexFilter = null;
+    private long modifiedFrom = Long.MIN_VALUE;
+    private long modifiedTo = Long.MAX_VALUE;
+    private long createdFrom = Long.MIN_VALUE;
+    private long createdTo = Long.MAX_VALUE;
+
+    CacheCursor(Cache<TIndex, TData> cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Sets the number of entries loaded together
+     * @param size number of entries of a batch
+     * @return current cursor
+     */
+    public CacheCursor<TIndex, TData> batch(int size) {
+
+        if (size < 1) throw new IllegalArgumentException("size");
+
+        batchSize = size;
+        return this;
+    }
+
+    /**
+     * Sets the number of batches loaded ahead in the background by {@link Parallel}
+     * @param batches number of batches, 0 to load each batch when it is reached
+     * @return current cursor
+     */
+    public CacheCursor<TIndex, TData> prefetch(int batches) {
+
+        if (batches < 0) throw new IllegalArgumentException("batches");
+
+        prefetch = batches;
+        return this;
+    }
+
+    /**
+     * Sets whether data of entries is loaded before the entries are enumerated or not
+     * @param value true to load data of entries with their batch; otherwise false, data is then
+     *              loaded when it is first requested
+     * @return current cursor
+     */
+    public CacheCursor<TIndex, TData> loadData(boolean value) {
+
+        isDataLoaded = value;
+        return this;
+    }
+
+    /**
+     * Limits the cursor to entries, whose index satisfies a condition. The condition is checked
+     * before entries are loaded
+     * @param predicate function, which determines whether an entry is enumerated or not
+     * @return current cursor
+     */
+    public CacheCursor<TIndex, TData> whereIndex(Function1<TIndex, Boolean> predicate) {
+
+        indexFilter = predicate;
+        return this;
+    }
+
+    /**
+     * Limits the cursor to entries last modified in a time range. The range is checked before
+     * entries are loaded
+     * @param fromUtc lowest stamp, inclusive
+     * @param toUtc highest stamp, exclusive
+     * @return current cursor
+     */
+    public CacheCursor<TIndex, TData> modifiedBetween(long fromUtc, long toUtc) {
+
+        modifiedFrom = fromUtc;
+        modifiedTo = toUtc;
+        return this;
+    }
+
+    /**
+     * Limits the cursor to entries created in a time range. The range is checked before entries
+     * are loaded
+     * @param fromUtc lowest stamp, inclusive
+     * @param toUtc highest stamp, exclusive
+     * @return current cursor
+     */
+    public CacheCursor<TIndex, TData> createdBetween(long fromUtc, long toUtc) {
+
+        createdFrom = fromUtc;
+        createdTo = toUtc;
+        return this;
+    }
+
+    /**
+     * Applies LINQ to the cursor. Entries are enumerated by the cursor whenever LINQ enumerates
+     * its elements
+     * @return instance of {@link linq}
+     */
+    public linq<CacheEntry<TIndex, TData>> toLinq() {
+        return linq.of(this);
+    }
+
+    /**
+     * Starts a new enumeration of entries
+     * @return iterator of entries
+     */
+    @Override
+    public Iterator<CacheEntry<TIndex, TData>> iterator() {
+        return new Enumeration();
+    }
+
+    private static boolean _isIn(Long stamp, long from, long to) {
+
+        if (from == Long.MIN_VALUE && to == Long.MAX_VALUE) return true;
+        return stamp != null && stamp >= from && stamp < to;
+    }
+
+    /**
+     * Checks whether an entry passes filters of the cursor, without loading the entry
+     */
+    private boolean _accepts(TIndex index) {
+
+        if (indexFilter != null) {
+
+            Boolean accepted = indexFilter.run(index);
+            if (accepted == null || !accepted) return false;
+        }
+
+        if (modifiedFrom == Long.MIN_VALUE && modifiedTo == Long.MAX_VALUE && createdFrom == Long.MIN_VALUE && createdTo == Long.MAX_VALUE) return true;
+
+        CacheIndex.Item header = cache._header(index);
+
+        return header != null && _isIn(header.lastModifiedUtc, modifiedFrom, modifiedTo) && _isIn(header.creationStampUtc, createdFrom, createdTo);
+    }
+
+    /**
+     * Loads entries of a batch. Entries deleted meanwhile, or which could not be loaded, are
+     * skipped
+     * @param indexes indexes of entries
+     * @param isDataLoaded true to load data of entries; otherwise false
+     * @return loaded entries
+     */
+    private ArrayList<CacheEntry<TIndex, TData>> _load(ArrayList<TIndex> indexes, boolean isDataLoaded) {
+
+        ArrayList<CacheEntry<TIndex, TData>> entries = new ArrayList<>(indexes.size());
+
+        for (TIndex index : indexes) {
+
+            CacheEntry<TIndex, TData> entry = cache._peek(index);
+            if (entry == null) continue;
+
+            if (!isDataLoaded || entry._load()) entries.add(entry);
+        }
+
+        return entries;
+    }
+
+    /**
+     * Batch of an enumeration, loaded in the background or when it is reached
+     */
+    private final class Batch {
+
+        final ArrayList<TIndex> indexes;
+        final Promise<ArrayList<CacheEntry<TIndex, TData>>> loaded;
+
+        /**
+         * Error, which failed loading of the batch in the background, or null if it is loaded
+         */
+        volatile Throwable failure = null;
+
+        Batch(ArrayList<TIndex> indexes, Promise<ArrayList<CacheEntry<TIndex, TData>>> loaded) {
+            this.indexes = indexes;
+            this.loaded = loaded;
+        }
+    }
+
+    private final class Enumeration implements Iterator<CacheEntry<TIndex, TData>> {
+
+        // settings are captured, so that an enumeration is not affected by later changes
+        private final int batchSize = CacheCursor.this.batchSize;
+        private final int prefetch = CacheCursor.this.prefetch;
+        private final boolean isDataLoaded = CacheCursor.this.isDataLoaded;
+
+        private final Iterator<TIndex> indexes = cache._indexIterator();
+        private final ArrayDeque<Batch> batches = new ArrayDeque<>();
+
+        private ArrayList<CacheEntry<TIndex, TData>> current = new ArrayList<>(0);
+        private int position = 0;
+
+        /**
+         * Takes indexes of the next batch, which pass filters of the cursor
+         * @return indexes of the batch, empty if the cache is enumerated
+         */
+        private ArrayList<TIndex> _take() {
+
+            ArrayList<TIndex> taken = new ArrayList<>(batchSize);
+
+            while (taken.size() < batchSize && indexes.hasNext()) {
+
+                TIndex index = indexes.next();
+                if (_accepts(index)) taken.add(index);
+            }
+
+            return taken;
+        }
+
+        private Batch _schedule(ArrayList<TIndex> taken) {
+
+            if (prefetch == 0) return new Batch(taken, new Promise<>(_load(taken, isDataLoaded)));
+
+            Promise<ArrayList<CacheEntry<TIndex, TData>>> loaded = new Promise<>();
+            Action1<ArrayList<CacheEntry<TIndex, TData>>> resolver = Promise.getResolver(loaded);
+
+            Batch batch = new Batch(taken, loaded);
+
+            try {
+                Parallel.queue(() -> {
+
+                    ArrayList<CacheEntry<TIndex, TData>> entries = null;
+
+                    // the promise is always resolved, a failure is rethrown by the enumeration
+                    try {
+                        entries = _load(taken, isDataLoaded);
+                    }
+                    catch (RuntimeException | Error e) {
+                        batch.failure = e;
+                        throw e;
+                    }
+                    finally {
+                        //noinspection ConstantConditions
+                        resolver.run(entries);
+                    }
+                }, TaskPriority.Bulk);
+            }
+            catch (InterruptedException e) {
+
+                Thread.currentThread().interrupt();
+                return new Batch(taken, new Promise<>(_load(taken, isDataLoaded)));
+            }
+            catch (RejectedExecutionException e) {
+                return new Batch(taken, new Promise<>(_load(taken, isDataLoaded)));
+            }
+
+            return batch;
+        }
+
+        /**
+         * Moves to the next batch, scheduling batches to be loaded ahead
+         * @return true if a batch is reached; otherwise false
+         * @throws RuntimeException throws if the batch could not be loaded in the background, the
+         * batch is skipped then
+         */
+        private boolean _advance() {
+
+            while (batches.size() <= prefetch) {
+
+                ArrayList<TIndex> taken = _take();
+                if (taken.isEmpty()) break;
+
+                batches.add(_schedule(taken));
+            }
+
+            Batch batch = batches.poll();
+            if (batch == null) return false;
+
+            try {
+                current = batch.loaded.result();
+            }
+            catch (InterruptedException e) {
+
+                Thread.currentThread().interrupt();
+                current = _load(batch.indexes, isDataLoaded);
+            }
+
+            position = 0;
+
+            if (batch.failure instanceof RuntimeException) throw (RuntimeException) batch.failure;
+            if (batch.failure instanceof Error) throw (Error) batch.failure;
+
+            if (current == null) current = new ArrayList<>(0);
+            return true;
+        }
+
+        @Override
+        public boolean hasNext() {
+
+            while (position >= current.size()) {
+                if (!_advance()) return false;
+            }
+
+            return true;
+        }
+
+        @Override
+        public CacheEntry<TIndex, TData> next() {
+
+            if (!hasNext()) throw new NoSuchElementException();
+
+            CacheEntry<TIndex, TData> entry = current.get(position);
+
+            // consumed entries are released, so that they could be collected
+            current.set(position++, null);
+
+            return entry;
+        }
+    }
+}
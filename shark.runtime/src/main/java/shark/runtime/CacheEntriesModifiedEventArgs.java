@@ -0,0 +1,36 @@
+package shark.runtime;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Argument of cache entries modification event, triggered once for all entries modified by a
+ * write batch
+ * @param <TIndex> type of entry index
+ * @param <TData> type of entry data
+ */
+@SuppressWarnings("WeakerAccess")
+public class CacheEntriesModifiedEventArgs<TIndex, TData> {
+
+    private final List<CacheEntryModifiedEventArgs<TIndex, TData>> modifications;
+
+    /**
+     * Gets modifications of the entries, in the order they are committed
+     * @return read-only list of modifications
+     */
+    public List<CacheEntryModifiedEventArgs<TIndex, TData>> getModifications() {
+        return modifications;
+    }
+
+    /**
+     * Gets the number of modified entries
+     * @return number of entries
+     */
+    public int size() {
+        return modifications.size();
+    }
+
+    CacheEntriesModifiedEventArgs(List<CacheEntryModifiedEventArgs<TIndex, TData>> modifications) {
+        this.modifications = Collections.unmodifiableList(modifications);
+    }
+}
@@ -1,10 +1,12 @@
 package shark.runtime;
 
+import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 
 import shark.io.File;
+import shark.runtime.serialization.SerializationException;
 import shark.runtime.serialization.Serializer;
 import shark.utils.Log;
 
@@ -21,8 +23,7 @@ public class CacheEntry<TIndex,TData> implements ITypeScopeDistinguishable {
     private TIndex index;
     private final long fileIndex;
     private boolean isLoaded;
-
-    long version = 0;
+    private boolean isHeaderLoaded;
 
     private final Cache<TIndex, TData> cache;
 
@@ -75,12 +76,15 @@ public class CacheEntry<TIndex,TData> implements ITypeScopeDistinguishable {
     }
 
     /**
-     * Gets the file which stored the entry information. This method blocks calling thread until
-     * {@link shark.Framework} is started
+     * Gets the file which stored the entry information before entries were stored in segments
+     * of the cache. The file only exists until the cache migrates it. This method blocks calling
+     * thread until {@link shark.Framework} is started
      * @return file which stored the entry information
      *
      * @exception RuntimeException throws if Shark is not initialised
+     * @deprecated entries are stored in segments of the cache directory
      */
+    @Deprecated
     @SuppressWarnings("WeakerAccess")
     public File getFile() {
         return new File(cache.getCacheDirectory() + "/" + fileIndex + ".data");
@@ -131,7 +135,7 @@ public class CacheEntry<TIndex,TData> implements ITypeScopeDistinguishable {
     public long getCreationStampUtc() throws IOException {
 
         synchronized (this) {
-            if (!isLoaded && !_load()) throw new IOException("Could not retrieve entry");
+            if (!isLoaded && !_loadHeader()) throw new IOException("Could not retrieve entry");
             return creationStampUtc == null ? System.currentTimeMillis() : creationStampUtc;
         }
     }
@@ -145,7 +149,7 @@ public class CacheEntry<TIndex,TData> implements ITypeScopeDistinguishable {
     public long getLastModifiedUtc() throws IOException {
 
         synchronized (this) {
-            if (!isLoaded && !_load()) throw new IOException("Could not retrieve entry");
+            if (!isLoaded && !_loadHeader()) throw new IOException("Could not retrieve entry");
             return lastModifiedUtc == null ? System.currentTimeMillis() : lastModifiedUtc;
         }
     }
@@ -160,8 +164,8 @@ public class CacheEntry<TIndex,TData> implements ITypeScopeDistinguishable {
     public boolean isDeletedOrNotInitialized() {
 
         synchronized (this) {
-            File file = getFile();
-            return file.exists() && file.isFile();
+            CacheStore store = cache._store();
+            return store == null || !store.contains(fileIndex);
         }
     }
 
@@ -171,25 +175,22 @@ public class CacheEntry<TIndex,TData> implements ITypeScopeDistinguishable {
             if (isLoaded) return true;
 
             try {
-                File file = getFile();
-                if (!file.exists() || !file.isFile()) return false;
+                CacheStore store = cache._store();
+                if (store == null) return false;
 
-                FileInputStream stream = null;
+                CacheStore.Record record = store.read(fileIndex, false);
+                if (record == null) return false;
 
-                try {
-                    Serializer serializer = cache.getSerializer();
-                    stream = new FileInputStream(file);
+                Serializer serializer = cache.getSerializer();
+                InputStream stream = record.open();
 
-                    creationStampUtc = serializer.deserializeWithLengthPrefix(stream, Long.class);
-                    lastModifiedUtc = serializer.deserializeWithLengthPrefix(stream, Long.class);
-                    index = serializer.deserializeWithLengthPrefix(stream, cache._indexClass);
-                    data = serializer.deserializeWithLengthPrefix(stream, cache._dataClass);
-                }
-                finally {
-                    if (stream != null) stream.close();
-                }
+                creationStampUtc = record.creationStampUtc;
+                lastModifiedUtc = record.lastModifiedUtc;
+                index = serializer.deserializeWithLengthPrefix(stream, cache._indexClass);
+                data = serializer.deserializeWithLengthPrefix(stream, cache._dataClass);
 
                 isLoaded = true;
+                isHeaderLoaded = true;
                 return true;
 
             }
@@ -199,43 +200,158 @@ public class CacheEntry<TIndex,TData> implements ITypeScopeDistinguishable {
         }
     }
 
-    boolean _save() {
+    /**
+     * Loads stamps of the entry without loading its index and data
+     * @return true if stamps are loaded; otherwise false
+     */
+    boolean _loadHeader() {
 
-        try {
+        synchronized (this) {
+            if (isLoaded || isHeaderLoaded) return true;
 
-            File dir = cache.getCacheDirectory();
-            if (!dir.exists() && !dir.mkdirs()) {
+            try {
+                CacheStore store = cache._store();
+                if (store == null) return false;
+
+                CacheStore.Record record = store.read(fileIndex, true);
+                if (record == null) return false;
+
+                creationStampUtc = record.creationStampUtc;
+                lastModifiedUtc = record.lastModifiedUtc;
 
-                Log.error(this.getClass(), "Could not create cache directory");
+                isHeaderLoaded = true;
+                return true;
+            }
+            catch (Exception e) {
                 return false;
             }
         }
-        catch (Exception e) {
-            Log.error(this.getClass(), "Could not create cache directory");
-            return false;
-        }
+    }
 
-        try {
-            synchronized (this) {
+    /**
+     * Reads the entry from its own file, written by earlier versions, and adds it to a batch of
+     * records to be committed to segments of the cache. The file is left to the caller, which
+     * deletes it once the batch is committed
+     * @param batch batch of records
+     * @return true if the entry is added; otherwise false
+     */
+    @SuppressWarnings("deprecation")
+    boolean _migrate(CacheStore.Batch batch) {
+
+        synchronized (this) {
+
+            File file = getFile();
+
+            try (FileInputStream stream = new FileInputStream(file)) {
 
                 Serializer serializer = cache.getSerializer();
 
-                try (FileOutputStream stream = new FileOutputStream(getFile())) {
+                creationStampUtc = serializer.deserializeWithLengthPrefix(stream, Long.class);
+                lastModifiedUtc = serializer.deserializeWithLengthPrefix(stream, Long.class);
+                index = serializer.deserializeWithLengthPrefix(stream, cache._indexClass);
+                data = serializer.deserializeWithLengthPrefix(stream, cache._dataClass);
+            }
+            catch (Exception e) {
+                return false;
+            }
+
+            isLoaded = true;
 
-                    serializer.serializeWithLengthPrefix(stream, creationStampUtc);
-                    serializer.serializeWithLengthPrefix(stream, lastModifiedUtc);
-                    serializer.serializeWithLengthPrefix(stream, index);
-                    serializer.serializeWithLengthPrefix(stream, data);
-                }
+            return _write(batch);
+        }
+    }
 
-                return true;
+    /**
+     * Serializes index and data of the entry. The caller must hold the monitor of the entry
+     * @return serialized index and data
+     * @throws SerializationException throws if the entry could not be serialized
+     */
+    private byte[] _payload() throws SerializationException {
+        return _payload(cache.getSerializer(), index, data);
+    }
+
+    /**
+     * Serializes index and data of an entry
+     * @param serializer serializer of the cache
+     * @param index index of the entry
+     * @param data data of the entry
+     * @return serialized index and data
+     * @throws SerializationException throws if the entry could not be serialized
+     */
+    static byte[] _payload(Serializer serializer, Object index, Object data) throws SerializationException {
+
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+
+        serializer.serializeWithLengthPrefix(stream, index);
+        serializer.serializeWithLengthPrefix(stream, data);
+
+        return stream.toByteArray();
+    }
+
+    /**
+     * Adds the current state of the entry to a batch of records to be committed
+     * @param batch batch of records
+     * @return true if the entry is added; otherwise false
+     */
+    boolean _write(CacheStore.Batch batch) {
+
+        try {
+
+            synchronized (this) {
+                batch.put(fileIndex, creationStampUtc, lastModifiedUtc, _payload());
             }
+
+            return true;
         }
         catch (Exception e) {
+            Log.warning(this.getClass(),
+                    "Could not serialize cache entry",
+                    "Index: " + index,
+                    "Error: " + e.getMessage());
             return false;
         }
     }
 
+    /**
+     * Sets entry data, without notifying the cache. The caller must hold the monitor of the entry
+     * @param value data to be set as entry data
+     * @param lastModifiedUtc timestamp to be set as entry last modification stamp
+     * @return action committed to the entry
+     */
+    CacheEntryAction _set(TData value, long lastModifiedUtc) {
+
+        if (!isLoaded) _load();
+        boolean create = creationStampUtc == null;
+
+        if (create) creationStampUtc = lastModifiedUtc;
+        this.lastModifiedUtc = lastModifiedUtc;
+        data = value;
+
+        isLoaded = true;
+        isHeaderLoaded = true;
+
+        return create ? CacheEntryAction.Create : CacheEntryAction.Update;
+    }
+
+    /**
+     * Replaces the state of the entry by a state, which is already stored, without loading the
+     * entry or notifying the cache. The caller must hold the monitor of the entry
+     * @param index index of the entry
+     * @param value data of the entry
+     * @param creationStampUtc creation stamp of the entry
+     * @param lastModifiedUtc last modification stamp of the entry
+     */
+    void _replace(TIndex index, TData value, Long creationStampUtc, long lastModifiedUtc) {
+
+        this.index = index;
+        this.creationStampUtc = creationStampUtc;
+        this.lastModifiedUtc = lastModifiedUtc;
+        data = value;
+
+        isLoaded = true;
+        isHeaderLoaded = true;
+    }
+
     /**
      * Updates entry data. This method block the calling thread until {@link shark.Framework} is
      * started
@@ -247,18 +363,7 @@ public class CacheEntry<TIndex,TData> implements ITypeScopeDistinguishable {
     public boolean update(TData value, long lastModifiedUtc) {
 
         synchronized (this) {
-
-            if (!isLoaded) _load();
-            boolean create = creationStampUtc == null;
-
-            if (create) creationStampUtc = lastModifiedUtc;
-            this.lastModifiedUtc = lastModifiedUtc;
-            data = value;
-            version++;
-
-            isLoaded = true;
-
-            cache._modify(this, create ? CacheEntryAction.Create : CacheEntryAction.Update, lastModifiedUtc);
+            cache._modify(this, _set(value, lastModifiedUtc), lastModifiedUtc);
         }
 
         return true;
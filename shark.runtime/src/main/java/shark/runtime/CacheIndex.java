@@ -0,0 +1,357 @@
+package shark.runtime;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+
+import shark.io.File;
+
+/**
+ * Persisted index of a cache. A snapshot, stored in the {@code .index} file of the cache
+ * directory, holds serialized indexes, file indexes and stamps of stored entries. Changes made
+ * after the snapshot was written are appended to the {@code .journal} file, which is folded into
+ * a new snapshot once it outgrows the snapshot.
+ *
+ * The persisted index is a hint: the storage of the cache stays authoritative. Items of entries,
+ * which are no longer stored, are ignored by the cache, and entries missing from the persisted
+ * index are decoded from the storage. The journal is therefore not synced, and a snapshot is
+ * written to a temporary file and renamed over the previous one, so that either is complete.
+ */
+final class CacheIndex {
+
+    /**
+     * Persisted information of an entry
+     */
+    static final class Item {
+
+        final long fileIndex;
+        final byte[] key;
+        final Long creationStampUtc;
+        final Long lastModifiedUtc;
+
+        /**
+         * Creates an item
+         * @param fileIndex file index of the entry
+         * @param key serialized index of the entry, or null if the item is not persisted
+         * @param creationStampUtc creation stamp of the entry
+         * @param lastModifiedUtc last modification stamp of the entry
+         */
+        Item(long fileIndex, byte[] key, Long creationStampUtc, Long lastModifiedUtc) {
+            this.fileIndex = fileIndex;
+            this.key = key;
+            this.creationStampUtc = creationStampUtc;
+            this.lastModifiedUtc = lastModifiedUtc;
+        }
+    }
+
+    private static final int _magic = 0x53484B49;
+    private static final int _version = 1;
+    private static final int _snapshotHeaderSize = 12;
+
+    /**
+     * Size of the journal record header: type, file index, creation and last modification stamps
+     */
+    private static final int _recordHeaderSize = 1 + 8 + 8 + 8;
+
+    private static final byte _put = 1;
+    private static final byte _delete = 2;
+
+    /**
+     * Stored in place of a null stamp
+     */
+    private static final long _noStamp = Long.MIN_VALUE;
+
+    private static final long _minJournalSize = 64 * 1024;
+
+    private final File snapshotFile;
+    private final File temporaryFile;
+    private final File journalFile;
+
+    private FileChannel journal = null;
+    private long journalSize = 0;
+    private long snapshotSize = 0;
+
+    CacheIndex(File directory) {
+        snapshotFile = new File(directory + "/.index");
+        temporaryFile = new File(directory + "/.index.tmp");
+        journalFile = new File(directory + "/.journal");
+    }
+
+    private static void _readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+
+        while (buffer.hasRemaining()) {
+            int count = channel.read(buffer, position + buffer.position());
+            if (count < 0) throw new EOFException();
+        }
+    }
+
+    private static void _writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) channel.write(buffer, position + buffer.position());
+    }
+
+    private static Long _stamp(long value) {
+        return value == _noStamp ? null : value;
+    }
+
+    /**
+     * Reads the snapshot
+     * @param items items to which persisted items are added
+     * @return true if the snapshot is read; otherwise false, no item is added then
+     */
+    private boolean _readSnapshot(HashMap<Long, Item> items) {
+
+        if (!snapshotFile.exists()) return false;
+
+        try (RandomAccessFile input = new RandomAccessFile(snapshotFile, "r")) {
+
+            FileChannel channel = input.getChannel();
+            long size = channel.size();
+
+            if (size < _snapshotHeaderSize + 4 || size > Integer.MAX_VALUE) return false;
+
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            _readFully(channel, buffer, 0);
+
+            CRC32 crc = new CRC32();
+            crc.update(buffer.array(), 0, (int) size - 4);
+
+            if ((int) crc.getValue() != buffer.getInt((int) size - 4)) return false;
+
+            buffer.flip();
+            buffer.limit((int) size - 4);
+
+            if (buffer.getInt() != _magic || buffer.getInt() != _version) return false;
+
+            int count = buffer.getInt();
+            HashMap<Long, Item> read = new HashMap<>();
+
+            for (int i = 0; i < count; i++) {
+
+                long fileIndex = buffer.getLong();
+                Long creationStampUtc = _stamp(buffer.getLong());
+                Long lastModifiedUtc = _stamp(buffer.getLong());
+
+                byte[] key = new byte[buffer.getInt()];
+                buffer.get(key);
+
+                read.put(fileIndex, new Item(fileIndex, key, creationStampUtc, lastModifiedUtc));
+            }
+
+            items.putAll(read);
+            snapshotSize = size;
+
+            return true;
+        }
+        catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * Replays the journal over read items. Records after the first torn or corrupted record are
+     * discarded
+     * @param items items to which changes are applied
+     * @throws IOException throws if the journal could not be opened
+     */
+    private void _replayJournal(HashMap<Long, Item> items) throws IOException {
+
+        journal = new RandomAccessFile(journalFile, "rw").getChannel();
+
+        long size = journal.size();
+        long position = 0;
+
+        ByteBuffer prefix = ByteBuffer.allocate(4);
+
+        while (size - position >= 4 + _recordHeaderSize + 4) {
+
+            prefix.clear();
+            _readFully(journal, prefix, position);
+
+            int length = prefix.getInt(0);
+            if (length < _recordHeaderSize + 4 || length > size - position - 4) break;
+
+            ByteBuffer record = ByteBuffer.allocate(4 + length);
+            _readFully(journal, record, position);
+
+            CRC32 crc = new CRC32();
+            crc.update(record.array(), 4, length - 4);
+
+            if ((int) crc.getValue() != record.getInt(length)) break;
+
+            record.position(4);
+
+            byte type = record.get();
+            long fileIndex = record.getLong();
+            Long creationStampUtc = _stamp(record.getLong());
+            Long lastModifiedUtc = _stamp(record.getLong());
+
+            if (type == _put) {
+
+                byte[] key = new byte[length - _recordHeaderSize - 4];
+                record.get(key);
+
+                items.put(fileIndex, new Item(fileIndex, key, creationStampUtc, lastModifiedUtc));
+            }
+            else {
+                items.remove(fileIndex);
+            }
+
+            position += 4 + length;
+        }
+
+        if (position < size) journal.truncate(position);
+        journalSize = position;
+    }
+
+    /**
+     * Reads the snapshot and replays the journal over it
+     * @return persisted items by file index of entries
+     * @throws IOException throws if the journal could not be opened
+     */
+    synchronized HashMap<Long, Item> open() throws IOException {
+
+        HashMap<Long, Item> items = new HashMap<>();
+
+        //noinspection ResultOfMethodCallIgnored
+        temporaryFile.delete();
+
+        if (!_readSnapshot(items)) snapshotSize = 0;
+        _replayJournal(items);
+
+        return items;
+    }
+
+    private static ByteBuffer _encode(byte type, long fileIndex, Long creationStampUtc, Long lastModifiedUtc, byte[] key) {
+
+        int length = _recordHeaderSize + (key == null ? 0 : key.length) + 4;
+
+        ByteBuffer record = ByteBuffer.allocate(4 + length);
+
+        record.putInt(length)
+                .put(type)
+                .putLong(fileIndex)
+                .putLong(creationStampUtc == null ? _noStamp : creationStampUtc)
+                .putLong(lastModifiedUtc == null ? _noStamp : lastModifiedUtc);
+
+        if (key != null) record.put(key);
+
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 4, length - 4);
+
+        record.putInt((int) crc.getValue());
+        record.flip();
+
+        return record;
+    }
+
+    /**
+     * Appends changes to the journal by a single write
+     * @param stored items of stored entries, with their keys
+     * @param deleted file indexes of deleted entries
+     * @throws IOException throws if the changes could not be appended
+     */
+    synchronized void append(Collection<Item> stored, Collection<Long> deleted) throws IOException {
+
+        if (journal == null) throw new IOException("Cache index is not open");
+        if (stored.isEmpty() && deleted.isEmpty()) return;
+
+        ByteBuffer[] records = new ByteBuffer[stored.size() + deleted.size()];
+        int count = 0, bytes = 0;
+
+        for (Item item : stored) {
+            records[count] = _encode(_put, item.fileIndex, item.creationStampUtc, item.lastModifiedUtc, item.key);
+            bytes += records[count++].remaining();
+        }
+
+        for (long fileIndex : deleted) {
+            records[count] = _encode(_delete, fileIndex, null, null, null);
+            bytes += records[count++].remaining();
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(bytes);
+        for (ByteBuffer record : records) buffer.put(record);
+        buffer.flip();
+
+        try {
+            _writeFully(journal, buffer, journalSize);
+        }
+        catch (IOException e) {
+
+            try {
+                journal.truncate(journalSize);
+            }
+            catch (IOException ignored) {
+            }
+
+            throw e;
+        }
+
+        journalSize += bytes;
+    }
+
+    /**
+     * Indicates whether the journal has outgrown the snapshot, so that a new snapshot should be
+     * written
+     * @return true if a new snapshot should be written; otherwise false
+     */
+    synchronized boolean isSnapshotDue() {
+        return journalSize > Math.max(_minJournalSize, snapshotSize);
+    }
+
+    /**
+     * Writes a new snapshot and clears the journal
+     * @param items items of all stored entries, with their keys
+     * @throws IOException throws if the snapshot could not be written, the previous snapshot and
+     * the journal are kept then
+     */
+    synchronized void snapshot(Collection<Item> items) throws IOException {
+
+        if (journal == null) throw new IOException("Cache index is not open");
+
+        int size = _snapshotHeaderSize + 4;
+        for (Item item : items) size += 8 + 8 + 8 + 4 + item.key.length;
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(_magic).putInt(_version).putInt(items.size());
+
+        for (Item item : items) {
+            buffer.putLong(item.fileIndex)
+                    .putLong(item.creationStampUtc == null ? _noStamp : item.creationStampUtc)
+                    .putLong(item.lastModifiedUtc == null ? _noStamp : item.lastModifiedUtc)
+                    .putInt(item.key.length)
+                    .put(item.key);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, size - 4);
+
+        buffer.putInt((int) crc.getValue());
+        buffer.flip();
+
+        try (RandomAccessFile output = new RandomAccessFile(temporaryFile, "rw")) {
+
+            FileChannel channel = output.getChannel();
+
+            channel.truncate(0);
+            _writeFully(channel, buffer, 0);
+            channel.force(true);
+        }
+
+        if (!temporaryFile.renameTo(snapshotFile)) {
+
+            //noinspection ResultOfMethodCallIgnored
+            temporaryFile.delete();
+            throw new IOException("Could not replace cache index snapshot");
+        }
+
+        snapshotSize = size;
+
+        journal.truncate(0);
+        journalSize = 0;
+    }
+}
@@ -0,0 +1,496 @@
+package shark.runtime;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps strong references to a bounded set of entries of a cache in {@link CachingMode#Bounded}
+ * mode. Entries, which are no longer kept, are only weakly referenced by the cache and are
+ * collected once the application releases them.
+ *
+ * The size of the set is measured in number of entries, or in weight if a maximum weight is set.
+ * With {@link EvictionPolicy#TinyLfu}, new entries enter an LRU window of 1% of the maximum size;
+ * entries leaving the window compete with the least recently used entry of the probation segment
+ * of the main region, the one used less frequently is evicted. Entries used again while on
+ * probation are promoted to the protected segment, which takes up to 80% of the main region.
+ * With {@link EvictionPolicy#LeastRecentlyUsed}, the window takes the whole set.
+ *
+ * Accesses to kept entries are not applied right away: they are recorded in striped ring
+ * buffers, which are drained by the thread, which acquires the lock of the residency without
+ * waiting, so that reads of kept entries do not contend on the lock. Accesses are dropped while
+ * the buffer of a thread is full. Admissions, weight changes and removals are applied under the
+ * lock, after the buffered accesses.
+ * @param <K> type of entry index
+ * @param <V> type of entry
+ */
+final class CacheResidency<K, V> {
+
+    private static final int _window = 0;
+    private static final int _probation = 1;
+    private static final int _protected = 2;
+
+    /**
+     * Queue of a node, which is no longer kept
+     */
+    private static final int _removed = -1;
+
+    private static final class Node<K, V> {
+
+        final K key;
+        V value;
+        long weight;
+        int queue;
+        Node<K, V> previous;
+        Node<K, V> next;
+
+        Node(K key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * Doubly linked list of nodes, from the least to the most recently used
+     */
+    private static final class Queue<K, V> {
+
+        Node<K, V> head;
+        Node<K, V> tail;
+        long weight;
+
+        void add(Node<K, V> node) {
+
+            node.previous = tail;
+            node.next = null;
+
+            if (tail == null) head = node; else tail.next = node;
+            tail = node;
+
+            weight += node.weight;
+        }
+
+        void remove(Node<K, V> node) {
+
+            if (node.previous == null) head = node.next; else node.previous.next = node.next;
+            if (node.next == null) tail = node.previous; else node.next.previous = node.previous;
+
+            node.previous = node.next = null;
+            weight -= node.weight;
+        }
+    }
+
+    /**
+     * Count-min sketch of access frequencies with 4-bit counters, 16 counters per kept entry.
+     * Counters are halved once the number of recorded accesses reaches ten times the number of
+     * kept entries, so that frequencies of the past fade out
+     */
+    private static final class FrequencySketch {
+
+        private static final long[] _seeds = { 0xC3A5C85C97CB3127L, 0xB492B66FBE98F273L, 0x9AE16A3B2F90404FL, 0xCBF29CE484222325L };
+
+        private long[] table = new long[16];
+        private int additions = 0;
+
+        private int _index(int hash, int row) {
+
+            long mixed = (hash + _seeds[row]) * _seeds[row];
+            return (int) ((mixed >>> 32) & ((table.length << 4) - 1));
+        }
+
+        private int _counter(int index) {
+            return (int) ((table[index >>> 4] >>> ((index & 15) << 2)) & 0xF);
+        }
+
+        void ensureCapacity(long count) {
+
+            int length = table.length;
+            while (length < count && length < (1 << 24)) length <<= 1;
+
+            if (length != table.length) {
+                table = new long[length];
+                additions = 0;
+            }
+        }
+
+        void increment(Object key) {
+
+            int hash = key.hashCode() * 0x9E3779B9;
+            boolean added = false;
+
+            for (int row = 0; row < 4; row++) {
+
+                int index = _index(hash, row);
+
+                if (_counter(index) < 15) {
+                    table[index >>> 4] += 1L << ((index & 15) << 2);
+                    added = true;
+                }
+            }
+
+            if (added && ++additions >= table.length * 10) {
+
+                for (int i = 0; i < table.length; i++) table[i] = (table[i] >>> 1) & 0x7777777777777777L;
+                additions /= 2;
+            }
+        }
+
+        int frequency(Object key) {
+
+            int hash = key.hashCode() * 0x9E3779B9;
+            int result = 15;
+
+            for (int row = 0; row < 4; row++) result = Math.min(result, _counter(_index(hash, row)));
+
+            return result;
+        }
+    }
+
+    /**
+     * Ring buffer of accesses to kept entries, written by any thread and drained under the lock
+     */
+    private static final class ReadBuffer<K, V> {
+
+        private static final int _size = 16;
+
+        private final AtomicReferenceArray<Node<K, V>> slots = new AtomicReferenceArray<>(_size);
+        private final AtomicLong writes = new AtomicLong();
+        private volatile long reads = 0;
+
+        /**
+         * Records an access
+         * @param node node of the accessed entry
+         * @return number of accesses waiting in the buffer, or -1 if the buffer is full and the
+         * access is dropped
+         */
+        int offer(Node<K, V> node) {
+
+            long head = reads;
+            long tail = writes.get();
+
+            if (tail - head >= _size || !writes.compareAndSet(tail, tail + 1)) return -1;
+
+            slots.lazySet((int) (tail & (_size - 1)), node);
+            return (int) (tail + 1 - head);
+        }
+
+        /**
+         * Applies recorded accesses. The caller must hold the lock of the residency
+         */
+        void drain(CacheResidency<K, V> residency) {
+
+            long head = reads;
+            long tail = writes.get();
+
+            for (; head < tail; head++) {
+
+                int index = (int) (head & (_size - 1));
+
+                // the writer of the slot has not published its access yet
+                Node<K, V> node = slots.get(index);
+                if (node == null) break;
+
+                slots.lazySet(index, null);
+                residency._touch(node);
+            }
+
+            reads = head;
+        }
+    }
+
+    private static final int _bufferCount;
+
+    static {
+
+        int count = 1;
+        while (count < Runtime.getRuntime().availableProcessors()) count <<= 1;
+
+        _bufferCount = count;
+    }
+
+    private final ConcurrentHashMap<K, Node<K, V>> nodes = new ConcurrentHashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final ReadBuffer<K, V>[] buffers = new ReadBuffer[_bufferCount];
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final Queue<K, V>[] queues = new Queue[] { new Queue<K, V>(), new Queue<K, V>(), new Queue<K, V>() };
+
+    private final FrequencySketch sketch;
+    private final CacheStatistics statistics;
+
+    private final long maximum;
+    private final boolean isWeighted;
+    private final long windowMaximum;
+    private final long protectedMaximum;
+
+    /**
+     * Creates a residency
+     * @param policy eviction policy
+     * @param maxEntryCount maximum number of entries, used if maxWeight is not positive
+     * @param maxWeight maximum total weight of entries, 0 to bound the number of entries
+     * @param statistics statistics to which evictions are recorded
+     */
+    CacheResidency(EvictionPolicy policy, long maxEntryCount, long maxWeight, CacheStatistics statistics) {
+
+        this.isWeighted = maxWeight > 0;
+        this.maximum = Math.max(1, isWeighted ? maxWeight : maxEntryCount);
+        this.statistics = statistics;
+
+        for (int i = 0; i < buffers.length; i++) buffers[i] = new ReadBuffer<>();
+
+        if (policy == EvictionPolicy.TinyLfu) {
+
+            windowMaximum = Math.max(1, maximum / 100);
+            protectedMaximum = (maximum - windowMaximum) * 4 / 5;
+            sketch = new FrequencySketch();
+        }
+        else {
+
+            windowMaximum = maximum;
+            protectedMaximum = 0;
+            sketch = null;
+        }
+    }
+
+    private long _weight() {
+        return queues[_window].weight + queues[_probation].weight + queues[_protected].weight;
+    }
+
+    private void _move(Node<K, V> node, int queue) {
+
+        queues[node.queue].remove(node);
+        node.queue = queue;
+        queues[queue].add(node);
+    }
+
+    private void _evict(Node<K, V> node) {
+
+        queues[node.queue].remove(node);
+        node.queue = _removed;
+        nodes.remove(node.key);
+
+        statistics._recordEviction();
+    }
+
+    /**
+     * Records an access to an entry, admitting the entry if it is not kept, and evicts entries
+     * until the set fits its maximum size. An access to a kept entry is buffered
+     * @param key index of the entry
+     * @param value the entry
+     * @param weight weight of the entry, in bytes, ignored if the size is measured in number of
+     *               entries or if the entry is kept already
+     */
+    void access(K key, V value, long weight) {
+
+        Node<K, V> node = nodes.get(key);
+
+        if (node != null && node.value == value) {
+
+            int pending = buffers[(int) Thread.currentThread().getId() & (_bufferCount - 1)].offer(node);
+            if ((pending < 0 || pending >= ReadBuffer._size / 2) && lock.tryLock()) _unlock();
+
+            return;
+        }
+
+        lock.lock();
+
+        try {
+
+            _drain();
+
+            weight = isWeighted ? Math.max(1, weight) : 1;
+            node = nodes.get(key);
+
+            if (node == null && weight > maximum) {
+
+                // the entry could never fit, it is evicted right away
+                statistics._recordEviction();
+                return;
+            }
+
+            if (node == null) {
+
+                if (sketch != null) {
+                    sketch.ensureCapacity(nodes.size() + 1);
+                    sketch.increment(key);
+                }
+
+                node = new Node<>(key);
+                node.value = value;
+                node.weight = weight;
+                node.queue = _window;
+
+                nodes.put(key, node);
+                queues[_window].add(node);
+            }
+            else {
+                node.value = value;
+                _weigh(node, weight);
+                _touch(node);
+            }
+
+            _balance();
+        }
+        finally {
+            _unlock();
+        }
+    }
+
+    /**
+     * Sets the weight of a kept entry, once its record is stored and its size is known, and
+     * evicts entries until the set fits its maximum size
+     * @param key index of the entry
+     * @param weight weight of the entry, in bytes
+     */
+    void weigh(K key, long weight) {
+
+        if (!isWeighted) return;
+
+        lock.lock();
+
+        try {
+
+            _drain();
+
+            Node<K, V> node = nodes.get(key);
+            if (node == null) return;
+
+            _weigh(node, Math.max(1, weight));
+            _balance();
+        }
+        finally {
+            _unlock();
+        }
+    }
+
+    private void _weigh(Node<K, V> node, long weight) {
+
+        if (node.weight == weight) return;
+
+        queues[node.queue].weight += weight - node.weight;
+        node.weight = weight;
+    }
+
+    /**
+     * Applies an access to a kept entry. The caller must hold the lock
+     * @param node node of the entry
+     */
+    private void _touch(Node<K, V> node) {
+
+        if (node.queue == _removed) return;
+
+        if (sketch != null) {
+            sketch.ensureCapacity(nodes.size() + 1);
+            sketch.increment(node.key);
+        }
+
+        switch (node.queue) {
+
+            case _probation:
+                _move(node, _protected);
+
+                // the protected segment overflows into probation
+                while (queues[_protected].weight > protectedMaximum && queues[_protected].head != null) {
+                    _move(queues[_protected].head, _probation);
+                }
+
+                break;
+
+            default:
+                _move(node, node.queue);
+                break;
+        }
+    }
+
+    /**
+     * Applies buffered accesses. The caller must hold the lock
+     */
+    private void _drain() {
+        for (ReadBuffer<K, V> buffer : buffers) buffer.drain(this);
+    }
+
+    /**
+     * Applies buffered accesses, publishes the size of the set and releases the lock
+     */
+    private void _unlock() {
+
+        try {
+            _drain();
+            statistics._setResident(nodes.size(), _weight());
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Moves entries out of the window and evicts entries until the set fits its maximum size
+     */
+    private void _balance() {
+
+        if (sketch == null) {
+
+            while (queues[_window].weight > maximum && queues[_window].head != null) _evict(queues[_window].head);
+            return;
+        }
+
+        while (queues[_window].weight > windowMaximum && queues[_window].head != null) {
+
+            Node<K, V> candidate = queues[_window].head;
+            _move(candidate, _probation);
+
+            if (_weight() <= maximum) continue;
+
+            Node<K, V> victim = queues[_probation].head;
+
+            // the candidate is at the tail of probation, so it is the victim only if nothing else
+            // is on probation
+            if (victim == candidate || sketch.frequency(candidate.key) <= sketch.frequency(victim.key)) {
+                _evict(candidate);
+            } else {
+                _evict(victim);
+            }
+        }
+
+        while (_weight() > maximum) {
+
+            Node<K, V> victim = queues[_probation].head != null ? queues[_probation].head : queues[_protected].head != null ? queues[_protected].head : queues[_window].head;
+            if (victim == null) break;
+
+            _evict(victim);
+        }
+    }
+
+    /**
+     * Checks whether an entry is kept
+     * @param key index of the entry
+     * @return true if the entry is kept; otherwise false
+     */
+    boolean contains(K key) {
+        return nodes.containsKey(key);
+    }
+
+    /**
+     * Stops keeping an entry, without counting an eviction
+     * @param key index of the entry
+     */
+    void remove(K key) {
+
+        lock.lock();
+
+        try {
+
+            _drain();
+
+            Node<K, V> node = nodes.remove(key);
+            if (node == null) return;
+
+            queues[node.queue].remove(node);
+            node.queue = _removed;
+        }
+        finally {
+            _unlock();
+        }
+    }
+}
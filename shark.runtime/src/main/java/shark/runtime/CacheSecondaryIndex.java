@@ -0,0 +1,217 @@
+package shark.runtime;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import shark.delegates.Function1;
+
+/**
+ * Secondary index of a cache: maps keys, extracted from data of entries, to indexes of the
+ * entries. The index is kept up to date as entries are created, updated and deleted, so that
+ * entries could be looked up by key without loading every entry of the cache.
+ *
+ * Ordered indexes keep keys in their natural order, or in the order of a comparator, and support
+ * range scans. Other indexes only support exact lookups. Lookups do not lock; entries, whose
+ * extracted key is null, are not indexed.
+ * @param <TIndex> type of caching index
+ * @param <TData> type of caching data
+ * @param <K> type of key
+ */
+@SuppressWarnings("WeakerAccess")
+public final class CacheSecondaryIndex<TIndex, TData, K> {
+
+    /**
+     * Position of an entry in the index. Entries with equal keys are ordered by file index, so
+     * that every entry has its own position
+     */
+    private static final class Position<K> {
+
+        final K key;
+        final long fileIndex;
+
+        Position(K key, long fileIndex) {
+            this.key = key;
+            this.fileIndex = fileIndex;
+        }
+    }
+
+    private final String name;
+    private final Class<TIndex> indexClass;
+    private final Function1<TData, K> extractor;
+    private final Comparator<? super K> comparator;
+
+    private final ConcurrentSkipListMap<Position<K>, TIndex> positions;
+    private final ConcurrentHashMap<TIndex, Position<K>> entries = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a secondary index
+     * @param name name of the index
+     * @param indexClass class of caching index
+     * @param extractor extractor of keys from data of entries, or null if keys are provided by
+     *                  the cache
+     * @param comparator comparator of keys, or null if the index is not ordered
+     */
+    CacheSecondaryIndex(String name, Class<TIndex> indexClass, Function1<TData, K> extractor, Comparator<? super K> comparator) {
+
+        this.name = name;
+        this.indexClass = indexClass;
+        this.extractor = extractor;
+        this.comparator = comparator;
+
+        positions = new ConcurrentSkipListMap<>((a, b) -> {
+
+            int result = _compare(a.key, b.key);
+            return result != 0 ? result : Long.compare(a.fileIndex, b.fileIndex);
+        });
+    }
+
+    /**
+     * Compares keys, by the comparator of an ordered index, or by hash codes otherwise. Null keys
+     * are only used as bounds of scans, and precede every key
+     */
+    private int _compare(K a, K b) {
+
+        if (a == null || b == null) return a == null ? (b == null ? 0 : -1) : 1;
+        return comparator != null ? comparator.compare(a, b) : Integer.compare(a.hashCode(), b.hashCode());
+    }
+
+    /**
+     * Gets the name of the index
+     * @return name of the index
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Indicates whether the index is ordered, and supports range scans, or not
+     * @return true if the index is ordered; otherwise false
+     */
+    public boolean isOrdered() {
+        return comparator != null;
+    }
+
+    /**
+     * Gets the number of indexed entries
+     * @return number of entries
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    @SuppressWarnings("unchecked")
+    private TIndex[] _toArray(Collection<TIndex> indexes) {
+        return indexes.toArray((TIndex[]) Array.newInstance(indexClass, 0));
+    }
+
+    /**
+     * Gets indexes of entries with a specified key
+     * @param key key to be looked up
+     * @return indexes of entries, ordered by creation of entries
+     */
+    public TIndex[] find(K key) {
+
+        if (key == null) return _toArray(Collections.<TIndex>emptyList());
+
+        ConcurrentNavigableMap<Position<K>, TIndex> found = positions.subMap(new Position<>(key, Long.MIN_VALUE), true, new Position<>(key, Long.MAX_VALUE), true);
+
+        if (comparator != null) return _toArray(found.values());
+
+        // keys of an index, which is not ordered, only share their hash codes
+        ArrayList<TIndex> result = new ArrayList<>();
+
+        for (Map.Entry<Position<K>, TIndex> one : found.entrySet()) {
+            if (key.equals(one.getKey().key)) result.add(one.getValue());
+        }
+
+        return _toArray(result);
+    }
+
+    /**
+     * Gets indexes of entries with keys in a specified range. The index must be ordered
+     * @param from lowest key, inclusive, or null to scan from the first key
+     * @param to highest key, exclusive, or null to scan to the last key
+     * @return indexes of entries, in the order of their keys
+     * @exception UnsupportedOperationException throws if the index is not ordered
+     */
+    public TIndex[] range(K from, K to) {
+
+        if (comparator == null) throw new UnsupportedOperationException("index is not ordered");
+
+        ConcurrentNavigableMap<Position<K>, TIndex> found = positions;
+
+        if (from != null) found = found.tailMap(new Position<>(from, Long.MIN_VALUE), true);
+        if (to != null) found = found.headMap(new Position<>(to, Long.MIN_VALUE), false);
+
+        return _toArray(found.values());
+    }
+
+    /**
+     * Gets the key, by which an entry is indexed
+     * @param index index of the entry
+     * @return key of the entry, or null if the entry is not indexed
+     */
+    public K getKey(TIndex index) {
+
+        Position<K> position = index == null ? null : entries.get(index);
+        return position == null ? null : position.key;
+    }
+
+    /**
+     * Extracts the key of an entry from its data
+     * @param data data of the entry
+     * @return the key, or null if the entry should not be indexed
+     */
+    K _extract(TData data) {
+
+        if (extractor == null || data == null) return null;
+
+        try {
+            return extractor.run(data);
+        }
+        catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Indexes an entry by a key, replacing its previous key. Changes of an entry must be
+     * serialized by the caller
+     * @param index index of the entry
+     * @param fileIndex file index of the entry
+     * @param key key of the entry, or null to stop indexing the entry
+     */
+    void _put(TIndex index, long fileIndex, K key) {
+
+        if (key == null) {
+            _remove(index);
+            return;
+        }
+
+        Position<K> position = new Position<>(key, fileIndex);
+
+        // the previous position is removed first, since a position comparing equal to it would
+        // keep its key in the map
+        Position<K> previous = entries.put(index, position);
+        if (previous != null) positions.remove(previous, index);
+
+        positions.put(position, index);
+    }
+
+    /**
+     * Stops indexing an entry
+     * @param index index of the entry
+     */
+    void _remove(TIndex index) {
+
+        Position<K> previous = entries.remove(index);
+        if (previous != null) positions.remove(previous, index);
+    }
+}
@@ -0,0 +1,165 @@
+package shark.runtime;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Provides access statistics of a cache. A lookup is a hit if the entry is found in memory, and a
+ * miss if the entry has to be loaded from storage or is not allocated. Modifications are
+ * committed to storage in batches, each batch is one commit
+ */
+@SuppressWarnings("WeakerAccess")
+public final class CacheStatistics {
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    private volatile long residentCount = 0;
+    private volatile long residentWeight = 0;
+
+    private final AtomicLong commitCount = new AtomicLong();
+    private final AtomicLong committedRecordCount = new AtomicLong();
+    private final AtomicLong failedCommitCount = new AtomicLong();
+    private final AtomicLong largestCommitBatch = new AtomicLong();
+    private final LatencyHistogram commitTime = new LatencyHistogram();
+
+    CacheStatistics() {
+    }
+
+    void _recordHit() {
+        hitCount.incrementAndGet();
+    }
+
+    void _recordMiss() {
+        missCount.incrementAndGet();
+    }
+
+    void _recordEviction() {
+        evictionCount.incrementAndGet();
+    }
+
+    void _setResident(long count, long weight) {
+        residentCount = count;
+        residentWeight = weight;
+    }
+
+    void _recordCommit(int records, long nanos) {
+
+        commitCount.incrementAndGet();
+        committedRecordCount.addAndGet(records);
+        commitTime.record(nanos);
+
+        long largest;
+        while (records > (largest = largestCommitBatch.get()) && !largestCommitBatch.compareAndSet(largest, records)) {
+            // retry until the largest batch is published
+        }
+    }
+
+    void _recordFailedCommit() {
+        failedCommitCount.incrementAndGet();
+    }
+
+    /**
+     * Gets the number of lookups, which found the entry in memory
+     * @return number of lookups
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Gets the number of lookups, which did not find the entry in memory
+     * @return number of lookups
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Gets the ratio of lookups, which found the entry in memory
+     * @return ratio from 0 to 1, or 0 if no lookup is recorded
+     */
+    public double getHitRate() {
+
+        long hits = hitCount.get();
+        long total = hits + missCount.get();
+
+        return total == 0 ? 0 : hits / (double) total;
+    }
+
+    /**
+     * Gets the number of entries evicted from memory by the bounded caching mode
+     * @return number of entries
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * Gets the number of entries kept in memory by the bounded caching mode
+     * @return number of entries
+     */
+    public long getResidentCount() {
+        return residentCount;
+    }
+
+    /**
+     * Gets the total weight, in bytes of stored records, of entries kept in memory by the bounded
+     * caching mode
+     * @return weight in bytes
+     */
+    public long getResidentWeight() {
+        return residentWeight;
+    }
+
+    /**
+     * Gets the number of batches committed to storage
+     * @return number of commits
+     */
+    public long getCommitCount() {
+        return commitCount.get();
+    }
+
+    /**
+     * Gets the number of records, entries stored or deleted, committed to storage
+     * @return number of records
+     */
+    public long getCommittedRecordCount() {
+        return committedRecordCount.get();
+    }
+
+    /**
+     * Gets the number of batches, which could not be committed to storage. Records of such a
+     * batch are committed again later
+     * @return number of failed commits
+     */
+    public long getFailedCommitCount() {
+        return failedCommitCount.get();
+    }
+
+    /**
+     * Gets the average number of records committed by a batch
+     * @return average batch size, or 0 if nothing is committed
+     */
+    public double getAverageCommitBatch() {
+
+        long commits = commitCount.get();
+        return commits == 0 ? 0 : committedRecordCount.get() / (double) commits;
+    }
+
+    /**
+     * Gets the largest number of records committed by a batch
+     * @return largest batch size
+     */
+    public long getLargestCommitBatch() {
+        return largestCommitBatch.get();
+    }
+
+    /**
+     * Gets the distribution of time, in nanoseconds, taken to write and sync a batch
+     * @return histogram of commit time
+     */
+    public LatencyHistogram getCommitTime() {
+        return commitTime;
+    }
+}
@@ -0,0 +1,1236 @@
+package shark.runtime;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+import shark.io.File;
+import shark.utils.Log;
+
+/**
+ * Log-structured storage of a cache. Entries are stored as records appended to segment files,
+ * an in-memory index maps file indexes of entries to the location of their latest record.
+ * Deleted entries are recorded as tombstones. Segments are sealed once they reach their maximum
+ * size, sealed segments with mostly outdated records are compacted by copying their live records
+ * to new segments. Every record carries a checksum, so that a record torn by a crash is detected
+ * and discarded on recovery.
+ *
+ * Writes and compaction are serialized by the monitor of the store, reads could be run
+ * concurrently with them. Sealed segments could be memory-mapped for reading, records are then
+ * decoded straight from the mapped buffer; records of the active segment, which still grows, are
+ * read through its channel.
+ *
+ * Records could be collected in a {@link Batch} and committed together: a batch is appended to
+ * the active segment by a single write and flushed to the device by a single sync. Records of an
+ * atomic batch are preceded by a group record holding their count, a group torn by a crash is
+ * discarded as a whole on recovery.
+ *
+ * Once a segment is sealed, locations of its records are written to a hint file beside it, so
+ * that recovery only replays the active segment and reads the hints of the sealed ones. Checksums
+ * of records recovered from hints are not verified on recovery, they are verified afterwards by
+ * {@link #verify(long)}.
+ */
+final class CacheStore {
+
+    /**
+     * Stored record of an entry
+     */
+    static final class Record {
+
+        final long fileIndex;
+        final Long creationStampUtc;
+        final Long lastModifiedUtc;
+        final ByteBuffer payload;
+
+        Record(long fileIndex, Long creationStampUtc, Long lastModifiedUtc, ByteBuffer payload) {
+            this.fileIndex = fileIndex;
+            this.creationStampUtc = creationStampUtc;
+            this.lastModifiedUtc = lastModifiedUtc;
+            this.payload = payload;
+        }
+
+        /**
+         * Gets a stream, which reads the payload without copying it
+         * @return stream of the payload, or null if only the header of the record is read
+         */
+        InputStream open() {
+            return payload == null ? null : new PayloadStream(payload.duplicate());
+        }
+    }
+
+    private static final class PayloadStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        PayloadStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(@SuppressWarnings("NullableProblems") byte[] bytes, int offset, int length) {
+
+            if (length == 0) return 0;
+            if (!buffer.hasRemaining()) return -1;
+
+            length = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, length);
+
+            return length;
+        }
+
+        @Override
+        public long skip(long count) {
+
+            int skipped = (int) Math.max(0, Math.min(count, buffer.remaining()));
+            buffer.position(buffer.position() + skipped);
+
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+
+    /**
+     * Records to be committed together
+     */
+    static final class Batch {
+
+        private static final class Entry {
+
+            final byte type;
+            final long fileIndex;
+            final ByteBuffer record;
+
+            Entry(byte type, long fileIndex, ByteBuffer record) {
+                this.type = type;
+                this.fileIndex = fileIndex;
+                this.record = record;
+            }
+        }
+
+        private final ArrayList<Entry> entries = new ArrayList<>();
+        private final boolean isAtomic;
+        private int bytes = 0;
+
+        /**
+         * Creates a batch, whose records are recovered one by one after a crash
+         */
+        Batch() {
+            this(false);
+        }
+
+        /**
+         * Creates a batch
+         * @param isAtomic true if either all or none of the records should be recovered after a
+         *                 crash; otherwise false
+         */
+        Batch(boolean isAtomic) {
+            this.isAtomic = isAtomic;
+        }
+
+        private void _add(byte type, long fileIndex, ByteBuffer record) {
+            entries.add(new Entry(type, fileIndex, record));
+            bytes += record.remaining();
+        }
+
+        /**
+         * Adds an entry to be stored
+         * @param fileIndex file index of the entry
+         * @param creationStampUtc creation stamp of the entry
+         * @param lastModifiedUtc last modification stamp of the entry
+         * @param payload serialized index and data of the entry
+         */
+        void put(long fileIndex, Long creationStampUtc, Long lastModifiedUtc, byte[] payload) {
+            _add(_put, fileIndex, _encode(_put, fileIndex, creationStampUtc, lastModifiedUtc, payload));
+        }
+
+        /**
+         * Adds an entry to be deleted
+         * @param fileIndex file index of the entry
+         * @param actionStampUtc stamp of the deletion
+         */
+        void delete(long fileIndex, long actionStampUtc) {
+            _add(_delete, fileIndex, _encode(_delete, fileIndex, null, actionStampUtc, null));
+        }
+
+        /**
+         * Gets the number of records in the batch
+         * @return number of records
+         */
+        int size() {
+            return entries.size();
+        }
+
+        /**
+         * Gets the total size of records in the batch
+         * @return size of records, in bytes
+         */
+        int bytes() {
+            return bytes;
+        }
+
+        boolean isEmpty() {
+            return entries.isEmpty();
+        }
+    }
+
+    private static final class Location {
+
+        final int segment;
+        final long offset;
+        final int length;
+
+        Location(int segment, long offset, int length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private static final class Segment {
+
+        final int number;
+        final File file;
+        final FileChannel channel;
+        long size;
+        long liveBytes;
+        MappedByteBuffer mapped;
+
+        /**
+         * Locations of records, encoded as entries of a hint file, or null if the segment is
+         * sealed and its hint is written
+         */
+        ByteBuffer hints;
+
+        Segment(int number, File file) throws IOException {
+            this.number = number;
+            this.file = file;
+            this.channel = new RandomAccessFile(file, "rw").getChannel();
+            this.size = channel.size();
+        }
+    }
+
+    private static final int _magic = 0x53484B53;
+    private static final int _version = 1;
+    private static final int _segmentHeaderSize = 8;
+
+    private static final int _hintMagic = 0x53484B48;
+
+    /**
+     * Size of the hint header: magic, version, size of the segment and number of entries
+     */
+    private static final int _hintHeaderSize = 4 + 4 + 8 + 4;
+
+    /**
+     * Size of a hint entry: type, file index, position and length of a record
+     */
+    private static final int _hintEntrySize = 1 + 8 + 8 + 4;
+
+    /**
+     * Size of the record header: type, file index, creation and last modification stamps
+     */
+    private static final int _recordHeaderSize = 1 + 8 + 8 + 8;
+
+    private static final byte _put = 1;
+    private static final byte _delete = 2;
+    private static final byte _seal = 3;
+    private static final byte _group = 4;
+
+    /**
+     * Stored in place of a null stamp
+     */
+    private static final long _noStamp = Long.MIN_VALUE;
+
+    private static final long _maxSegmentSize = 4 * 1024 * 1024;
+    private static final long _minCompactionSize = 1024 * 1024;
+
+    private final File directory;
+    private final boolean isMapped;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final HashMap<Long, Location> index = new HashMap<>();
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+    private Segment active;
+
+    CacheStore(File directory, boolean isMapped) {
+        this.directory = directory;
+        this.isMapped = isMapped;
+    }
+
+    private File _segmentFile(int number) {
+        return new File(directory + "/" + number + ".segment");
+    }
+
+    private File _compactionFile(int number) {
+        return new File(directory + "/" + number + ".compact");
+    }
+
+    private File _hintFile(int number) {
+        return new File(directory + "/" + number + ".hint");
+    }
+
+    private static int _number(String name, String extension) {
+
+        if (!name.endsWith(extension)) return -1;
+
+        try {
+            return Integer.parseInt(name.substring(0, name.length() - extension.length()));
+        }
+        catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Recovers the store from its directory: finishes or discards an interrupted compaction,
+     * applies segments in order and truncates records torn by a crash. Sealed segments are
+     * applied from their hints, segments without a valid hint are replayed, and hints of sealed
+     * ones are written then
+     * @throws IOException throws if the directory could not be read
+     */
+    synchronized void open() throws IOException {
+
+        if (!directory.exists() && !directory.mkdirs()) throw new IOException("Could not create cache directory");
+
+        String[] names = directory.list();
+        if (names == null) throw new IOException("Could not list cache directory");
+
+        TreeMap<Integer, File> found = new TreeMap<>();
+
+        int compacted = -1;
+        for (String name : names) compacted = Math.max(compacted, _number(name, ".compact"));
+
+        if (compacted > 0) _recoverCompaction(compacted, names);
+
+        names = directory.list();
+        if (names == null) throw new IOException("Could not list cache directory");
+
+        for (String name : names) {
+
+            int number = _number(name, ".segment");
+            if (number > 0) found.put(number, _segmentFile(number));
+        }
+
+        lock.writeLock().lock();
+
+        try {
+
+            for (Map.Entry<Integer, File> one : found.entrySet()) {
+
+                Segment segment = new Segment(one.getKey(), one.getValue());
+                segments.put(segment.number, segment);
+
+                boolean isSealed = one.getKey() < found.lastKey() || segment.size >= _maxSegmentSize;
+                if (isSealed && _replayHints(segment)) continue;
+
+                segment.hints = ByteBuffer.allocate(1024 * _hintEntrySize);
+                _replay(segment);
+
+                if (isSealed) _writeHint(segment);
+            }
+
+            active = segments.isEmpty() || segments.lastEntry().getValue().size >= _maxSegmentSize ? null : segments.lastEntry().getValue();
+            if (active == null) active = _createSegment(segments.isEmpty() ? 1 : segments.lastKey() + 1);
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Completes a compaction interrupted by a crash if its output is complete; otherwise
+     * discards the output. Outputs of a compaction take the highest numbers of the compacted
+     * segments and the last one is written last, its seal record holds the number of the first
+     * output. Outputs replace segments of their numbers one after another, so that the recovery
+     * could be interrupted and run again
+     * @param number number of the last compacted segment
+     * @param names names of files in the directory
+     * @throws IOException throws if the complete output could not replace compacted segments
+     */
+    private void _recoverCompaction(int number, String[] names) throws IOException {
+
+        int lowest = _compactionOutput(_compactionFile(number));
+
+        if (lowest > 0) {
+
+            for (String name : names) {
+                int one = _number(name, ".segment");
+                if (one > 0 && one < lowest) _deleteSegment(one);
+            }
+
+            // compacted segments are gone, the output must not be discarded
+            for (int one = lowest; one <= number; one++) {
+
+                File file = _compactionFile(one);
+                if (!file.exists()) continue;
+
+                _deleteSegment(one);
+                if (!file.renameTo(_segmentFile(one))) throw new IOException("Could not replace compacted cache segments");
+            }
+        }
+
+        for (String name : names) {
+            int one = _number(name, ".compact");
+            //noinspection ResultOfMethodCallIgnored
+            if (one > 0) _compactionFile(one).delete();
+        }
+    }
+
+    /**
+     * Checks whether the last output of a compaction is complete
+     * @param file last output of the compaction
+     * @return number of the first output of the compaction if the output is complete; otherwise -1
+     */
+    private static int _compactionOutput(File file) {
+
+        try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+
+            FileChannel channel = input.getChannel();
+            long size = channel.size();
+
+            if (!_readHeader(channel)) return -1;
+
+            long position = _segmentHeaderSize;
+            long count = 0;
+
+            while (position < size) {
+
+                ByteBuffer record = _readRecord(channel, position, size);
+                if (record == null) return -1;
+
+                position += record.capacity();
+
+                if (record.get(4) != _seal) {
+                    count++;
+                    continue;
+                }
+
+                if (position != size || record.getLong(5) != count) return -1;
+
+                // outputs written before outputs were capped have no first output recorded
+                long lowest = record.getLong(13);
+                return lowest == _noStamp ? _number(file.getName(), ".compact") : (int) lowest;
+            }
+        }
+        catch (IOException ignored) {
+        }
+
+        return -1;
+    }
+
+    /**
+     * Deletes a segment and its hint. A hint must not outlive its segment, since a compaction
+     * output could take the number of the segment
+     * @param number number of the segment
+     */
+    private void _deleteSegment(int number) {
+
+        //noinspection ResultOfMethodCallIgnored
+        _hintFile(number).delete();
+        //noinspection ResultOfMethodCallIgnored
+        _segmentFile(number).delete();
+    }
+
+    private static boolean _readHeader(FileChannel channel) throws IOException {
+
+        if (channel.size() < _segmentHeaderSize) return false;
+
+        ByteBuffer header = ByteBuffer.allocate(_segmentHeaderSize);
+        _readFully(channel, header, 0);
+
+        return header.getInt(0) == _magic && header.getInt(4) == _version;
+    }
+
+    private static void _readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+
+        while (buffer.hasRemaining()) {
+            int count = channel.read(buffer, position + buffer.position());
+            if (count < 0) throw new EOFException();
+        }
+    }
+
+    private static void _writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) channel.write(buffer, position + buffer.position());
+    }
+
+    /**
+     * Reads a record and verifies its checksum
+     * @param channel channel of the segment
+     * @param position position of the record
+     * @param size size of the segment
+     * @return the record, including its length prefix, or null if the record is torn or
+     * corrupted
+     */
+    private static ByteBuffer _readRecord(FileChannel channel, long position, long size) throws IOException {
+
+        if (size - position < 4 + _recordHeaderSize + 4) return null;
+
+        ByteBuffer prefix = ByteBuffer.allocate(4);
+        _readFully(channel, prefix, position);
+
+        int length = prefix.getInt(0);
+        if (length < _recordHeaderSize + 4 || length > size - position - 4) return null;
+
+        ByteBuffer record = ByteBuffer.allocate(4 + length);
+        _readFully(channel, record, position);
+
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 4, length - 4);
+
+        return (int) crc.getValue() == record.getInt(length) ? record : null;
+    }
+
+    /**
+     * Checks whether all records of a group are complete
+     * @param channel channel of the segment
+     * @param position position of the first record of the group
+     * @param size size of the segment
+     * @param count number of records of the group
+     * @return true if all records are complete; otherwise false
+     */
+    private static boolean _isGroupComplete(FileChannel channel, long position, long size, long count) throws IOException {
+
+        for (long i = 0; i < count; i++) {
+
+            ByteBuffer record = _readRecord(channel, position, size);
+            if (record == null) return false;
+
+            position += record.capacity();
+        }
+
+        return true;
+    }
+
+    /**
+     * Applies records of a segment to the index. Records after the first torn or corrupted
+     * record are discarded, as well as a group of records, which is not complete. The caller
+     * must hold the write lock
+     * @param segment segment to be replayed
+     */
+    private void _replay(Segment segment) throws IOException {
+
+        long position = _segmentHeaderSize;
+
+        if (!_readHeader(segment.channel)) {
+
+            if (segment.size > 0) {
+                Log.warning(CacheStore.class,
+                        "Cache segment is not recognised and is reset",
+                        "File: " + segment.file.getAbsolutePath());
+            }
+
+            _initialise(segment);
+            return;
+        }
+
+        while (position < segment.size) {
+
+            ByteBuffer record = _readRecord(segment.channel, position, segment.size);
+
+            // a group is discarded from its group record, so that none of its records is applied
+            if (record != null && record.get(4) == _group && !_isGroupComplete(segment.channel, position + record.capacity(), segment.size, record.getLong(5))) record = null;
+
+            if (record == null) {
+
+                Log.warning(CacheStore.class,
+                        "Cache segment is truncated after a torn or corrupted record",
+                        "File: " + segment.file.getAbsolutePath(),
+                        "Position: " + position);
+
+                segment.channel.truncate(position);
+                segment.size = position;
+                break;
+            }
+
+            byte type = record.get(4);
+
+            if (type == _put || type == _delete) _apply(segment, type, record.getLong(5), position, record.capacity());
+
+            position += record.capacity();
+        }
+    }
+
+    /**
+     * Applies records of a sealed segment to the index from its hint, without reading the
+     * segment. The caller must hold the write lock
+     * @param segment segment to be applied
+     * @return true if the hint is applied; otherwise false, if the hint is missing, torn or was
+     * written for another content of the segment
+     */
+    private boolean _replayHints(Segment segment) {
+
+        File file = _hintFile(segment.number);
+        if (!file.exists()) return false;
+
+        ByteBuffer hint;
+
+        try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+
+            FileChannel channel = input.getChannel();
+            long size = channel.size();
+
+            if (size < _hintHeaderSize + 4 || size > Integer.MAX_VALUE) return false;
+
+            hint = ByteBuffer.allocate((int) size);
+            _readFully(channel, hint, 0);
+        }
+        catch (IOException e) {
+            return false;
+        }
+
+        int length = hint.capacity() - 4;
+
+        CRC32 crc = new CRC32();
+        crc.update(hint.array(), 0, length);
+
+        if ((int) crc.getValue() != hint.getInt(length)
+                || hint.getInt(0) != _hintMagic
+                || hint.getInt(4) != _version
+                || hint.getLong(8) != segment.size
+                || (long) hint.getInt(16) * _hintEntrySize != length - _hintHeaderSize) return false;
+
+        hint.limit(length).position(_hintHeaderSize);
+
+        while (hint.hasRemaining()) {
+
+            byte type = hint.get();
+            long fileIndex = hint.getLong();
+            long position = hint.getLong();
+
+            _apply(segment, type, fileIndex, position, hint.getInt());
+        }
+
+        return true;
+    }
+
+    /**
+     * Writes the hint of a sealed segment. The hint is written aside and renamed, a hint, which
+     * could not be written, only makes the segment replayed on recovery
+     * @param segment sealed segment
+     */
+    private void _writeHint(Segment segment) {
+
+        ByteBuffer hints = segment.hints;
+        if (hints == null) return;
+
+        segment.hints = null;
+
+        ByteBuffer hint = ByteBuffer.allocate(_hintHeaderSize + hints.position() + 4);
+
+        hint.putInt(_hintMagic)
+                .putInt(_version)
+                .putLong(segment.size)
+                .putInt(hints.position() / _hintEntrySize)
+                .put(hints.array(), 0, hints.position());
+
+        CRC32 crc = new CRC32();
+        crc.update(hint.array(), 0, hint.position());
+
+        hint.putInt((int) crc.getValue());
+        hint.flip();
+
+        File file = _hintFile(segment.number);
+        File temporary = new File(file + ".tmp");
+
+        try (RandomAccessFile output = new RandomAccessFile(temporary, "rw")) {
+
+            FileChannel channel = output.getChannel();
+            channel.truncate(0);
+
+            _writeFully(channel, hint, 0);
+            channel.force(true);
+        }
+        catch (IOException e) {
+
+            Log.warning(CacheStore.class,
+                    "Could not write cache segment hint",
+                    "File: " + file.getAbsolutePath(),
+                    "Error: " + e.getMessage());
+
+            //noinspection ResultOfMethodCallIgnored
+            temporary.delete();
+            return;
+        }
+
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+
+        if (!temporary.renameTo(file)) {
+
+            Log.warning(CacheStore.class,
+                    "Could not write cache segment hint",
+                    "File: " + file.getAbsolutePath());
+
+            //noinspection ResultOfMethodCallIgnored
+            temporary.delete();
+        }
+    }
+
+    /**
+     * Appends an entry to encoded hints
+     * @return the hints, grown if there was no room for the entry
+     */
+    private static ByteBuffer _hint(ByteBuffer hints, byte type, long fileIndex, long position, int length) {
+
+        if (hints.remaining() < _hintEntrySize) {
+            ByteBuffer grown = ByteBuffer.allocate(hints.capacity() * 2);
+            grown.put(hints.array(), 0, hints.position());
+            hints = grown;
+        }
+
+        return hints.put(type).putLong(fileIndex).putLong(position).putInt(length);
+    }
+
+    /**
+     * Points the index at a record, and accounts live bytes of segments. The caller must hold
+     * the write lock
+     */
+    private void _apply(Segment segment, byte type, long fileIndex, long position, int length) {
+
+        Location previous = type == _put ? index.put(fileIndex, new Location(segment.number, position, length)) : index.remove(fileIndex);
+
+        if (previous != null) {
+            Segment owner = segments.get(previous.segment);
+            if (owner != null) owner.liveBytes -= previous.length;
+        }
+
+        if (type == _put) segment.liveBytes += length;
+        if (segment.hints != null) segment.hints = _hint(segment.hints, type, fileIndex, position, length);
+    }
+
+    private void _initialise(Segment segment) throws IOException {
+
+        ByteBuffer header = ByteBuffer.allocate(_segmentHeaderSize);
+        header.putInt(_magic).putInt(_version).flip();
+
+        segment.channel.truncate(0);
+        _writeFully(segment.channel, header, 0);
+
+        segment.size = _segmentHeaderSize;
+        segment.liveBytes = 0;
+    }
+
+    private Segment _createSegment(int number) throws IOException {
+
+        // a hint left by a segment of the same number is outdated
+        //noinspection ResultOfMethodCallIgnored
+        _hintFile(number).delete();
+
+        Segment segment = new Segment(number, _segmentFile(number));
+        _initialise(segment);
+
+        segment.hints = ByteBuffer.allocate(1024 * _hintEntrySize);
+        segments.put(number, segment);
+        return segment;
+    }
+
+    private static ByteBuffer _encode(byte type, long fileIndex, Long creationStampUtc, Long lastModifiedUtc, byte[] payload) {
+
+        int length = _recordHeaderSize + (payload == null ? 0 : payload.length) + 4;
+
+        ByteBuffer record = ByteBuffer.allocate(4 + length);
+
+        record.putInt(length)
+                .put(type)
+                .putLong(fileIndex)
+                .putLong(creationStampUtc == null ? _noStamp : creationStampUtc)
+                .putLong(lastModifiedUtc == null ? _noStamp : lastModifiedUtc);
+
+        if (payload != null) record.put(payload);
+
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 4, length - 4);
+
+        record.putInt((int) crc.getValue());
+        record.flip();
+
+        return record;
+    }
+
+    /**
+     * Commits a batch of records. Records are appended to the active segment by a single write, in
+     * the order they were added, and the segment is synced once afterwards. A batch is never split
+     * across segments. Tombstones of entries, which are neither stored nor stored by the batch,
+     * are dropped. Records of an atomic batch are preceded by a group record
+     * @param batch records to be committed
+     * @throws IOException throws if the batch could not be stored, none of its records is stored
+     * then
+     */
+    synchronized void commit(Batch batch) throws IOException {
+
+        if (batch.isEmpty()) return;
+
+        ArrayList<Batch.Entry> written = new ArrayList<>(batch.entries.size());
+        HashSet<Long> stored = new HashSet<>();
+        int bytes = 0;
+
+        for (Batch.Entry entry : batch.entries) {
+
+            if (entry.type == _delete && !stored.contains(entry.fileIndex) && !contains(entry.fileIndex)) continue;
+            if (entry.type == _put) stored.add(entry.fileIndex);
+
+            written.add(entry);
+            bytes += entry.record.remaining();
+        }
+
+        if (written.isEmpty()) return;
+
+        ByteBuffer group = batch.isAtomic && written.size() > 1 ? _encode(_group, written.size(), null, null, null) : null;
+        ByteBuffer buffer = ByteBuffer.allocate(bytes + (group == null ? 0 : group.remaining()));
+
+        if (group != null) buffer.put(group.duplicate());
+        for (Batch.Entry entry : written) buffer.put(entry.record.duplicate());
+
+        buffer.flip();
+
+        Segment segment, sealed = null;
+
+        lock.writeLock().lock();
+
+        try {
+
+            if (active.size >= _maxSegmentSize) {
+                sealed = active;
+                active = _createSegment(active.number + 1);
+            }
+
+            segment = active;
+            long position = segment.size;
+
+            try {
+                _writeFully(segment.channel, buffer, position);
+            }
+            catch (IOException e) {
+
+                try {
+                    segment.channel.truncate(position);
+                }
+                catch (IOException ignored) {
+                }
+
+                throw e;
+            }
+
+            if (group != null) position += group.remaining();
+
+            for (Batch.Entry entry : written) {
+
+                int length = entry.record.remaining();
+
+                _apply(segment, entry.type, entry.fileIndex, position, length);
+                position += length;
+            }
+
+            segment.size = position;
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+
+        segment.channel.force(false);
+
+        // the sealed segment is synced by its last commit, its hint could not precede its records
+        if (sealed != null) _writeHint(sealed);
+    }
+
+    /**
+     * Indicates whether an entry is stored or not
+     * @param fileIndex file index of the entry
+     * @return true if the entry is stored; otherwise false
+     */
+    boolean contains(long fileIndex) {
+
+        lock.readLock().lock();
+
+        try {
+            return index.containsKey(fileIndex);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the size of the latest record of an entry
+     * @param fileIndex file index of the entry
+     * @return size of the record in bytes, or 0 if the entry is not stored
+     */
+    int length(long fileIndex) {
+
+        lock.readLock().lock();
+
+        try {
+            Location location = index.get(fileIndex);
+            return location == null ? 0 : location.length;
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gets file indexes of stored entries
+     * @return file indexes of entries
+     */
+    long[] fileIndexes() {
+
+        lock.readLock().lock();
+
+        try {
+
+            long[] result = new long[index.size()];
+            int i = 0;
+
+            for (long one : index.keySet()) result[i++] = one;
+
+            return result;
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the bytes of a record from a sealed segment, which is mapped once, since sealed
+     * segments no longer change. The caller must hold the read lock
+     * @param segment segment of the record
+     * @param location location of the record
+     * @return read-only view of the record, including its length prefix
+     */
+    private static ByteBuffer _view(Segment segment, Location location) throws IOException {
+
+        MappedByteBuffer mapped;
+
+        synchronized (segment) {
+
+            mapped = segment.mapped;
+            if (mapped == null) mapped = segment.mapped = segment.channel.map(FileChannel.MapMode.READ_ONLY, 0, segment.size);
+        }
+
+        ByteBuffer view = mapped.duplicate();
+        view.limit((int) (location.offset + location.length)).position((int) location.offset);
+
+        return view.slice();
+    }
+
+    /**
+     * Reads the latest record of an entry
+     * @param fileIndex file index of the entry
+     * @param headerOnly true to read only stamps of the entry, without its payload; otherwise
+     *                   false
+     * @return the record, or null if the entry is not stored
+     * @throws IOException throws if the record could not be read or is corrupted
+     */
+    Record read(long fileIndex, boolean headerOnly) throws IOException {
+
+        ByteBuffer record;
+
+        lock.readLock().lock();
+
+        try {
+
+            Location location = index.get(fileIndex);
+            if (location == null) return null;
+
+            Segment segment = segments.get(location.segment);
+
+            // buffers are indexed by int, only a huge batch could make a segment outgrow them
+            if (isMapped && segment != active && segment.size <= Integer.MAX_VALUE) {
+                record = _view(segment, location);
+            }
+            else {
+                record = ByteBuffer.allocate(headerOnly ? 4 + _recordHeaderSize : location.length);
+                _readFully(segment.channel, record, location.offset);
+            }
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+
+        // records read through the channel are copied anyway, so their checksum is verified;
+        // mapped records are verified by the replay of their segment, or by verify
+        if (!headerOnly && (record.getInt(0) != record.capacity() - 4 || record.hasArray() && !_isIntact(record))) {
+            throw new IOException("Cache record is corrupted");
+        }
+
+        return _record(fileIndex, record, headerOnly);
+    }
+
+    /**
+     * Reads the latest record of an entry through the channel and verifies its checksum. Records
+     * applied from hints are not read on recovery, so they should be verified once afterwards. A
+     * corrupted record is replaced by a tombstone, so that the entry is no longer stored
+     * @param fileIndex file index of the entry
+     * @return the record, or null if the entry is not stored or its record is corrupted
+     * @throws IOException throws if the record could not be read, or the tombstone could not be
+     * stored
+     */
+    synchronized Record verify(long fileIndex) throws IOException {
+
+        Segment segment;
+        Location location;
+        ByteBuffer record;
+
+        lock.readLock().lock();
+
+        try {
+
+            location = index.get(fileIndex);
+            if (location == null) return null;
+
+            segment = segments.get(location.segment);
+            record = ByteBuffer.allocate(location.length);
+
+            _readFully(segment.channel, record, location.offset);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+
+        if (_isIntact(record) && record.get(4) == _put && record.getLong(5) == fileIndex) return _record(fileIndex, record, false);
+
+        Log.warning(CacheStore.class,
+                "Cache record is corrupted and is dropped",
+                "File: " + segment.file.getAbsolutePath(),
+                "Position: " + location.offset);
+
+        // commits are serialized by the monitor, the corrupted record is still the latest one
+        Batch batch = new Batch();
+        batch.delete(fileIndex, System.currentTimeMillis());
+        commit(batch);
+
+        return null;
+    }
+
+    /**
+     * Checks the length prefix and the checksum of a record copied to a heap buffer
+     * @param record the record, including its length prefix
+     * @return true if the record is intact; otherwise false
+     */
+    private static boolean _isIntact(ByteBuffer record) {
+
+        int length = record.getInt(0);
+        if (length < _recordHeaderSize + 4 || length != record.capacity() - 4) return false;
+
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), record.arrayOffset() + 4, length - 4);
+
+        return (int) crc.getValue() == record.getInt(length);
+    }
+
+    private static Record _record(long fileIndex, ByteBuffer record, boolean headerOnly) {
+
+        long creation = record.getLong(13);
+        long modified = record.getLong(21);
+
+        ByteBuffer payload = null;
+
+        if (!headerOnly) {
+            record.limit(record.capacity() - 4).position(4 + _recordHeaderSize);
+            payload = record.slice();
+        }
+
+        return new Record(fileIndex, creation == _noStamp ? null : creation, modified == _noStamp ? null : modified, payload);
+    }
+
+    /**
+     * Compacts sealed segments if most of their bytes are outdated. Live records of all sealed
+     * segments are copied to new segments of at most the maximum segment size, which replace
+     * them, so that tombstones could be dropped as well
+     * @return true if the sealed segments are compacted; otherwise false
+     * @throws IOException throws if the compaction could not be completed
+     */
+    synchronized boolean compact() throws IOException {
+
+        int last;
+        ArrayList<Map.Entry<Long, Location>> live = new ArrayList<>();
+
+        lock.readLock().lock();
+
+        try {
+
+            long total = 0, liveBytes = 0;
+
+            for (Segment one : segments.values()) {
+                if (one == active) continue;
+                total += one.size - _segmentHeaderSize;
+                liveBytes += one.liveBytes;
+            }
+
+            if (total < _minCompactionSize || liveBytes * 2 > total) return false;
+
+            last = segments.lowerKey(active.number);
+
+            for (Map.Entry<Long, Location> one : index.entrySet()) {
+                if (one.getValue().segment <= last) live.add(one);
+            }
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+
+        // records are packed into outputs, a record larger than an output takes one of its own
+        int sealSize = 4 + _recordHeaderSize + 4;
+        ArrayList<Integer> bounds = new ArrayList<>();
+        long size = _segmentHeaderSize;
+
+        for (int i = 0; i < live.size(); i++) {
+
+            int length = live.get(i).getValue().length;
+
+            if (bounds.isEmpty() || size > _segmentHeaderSize && size + length + sealSize > _maxSegmentSize) {
+                bounds.add(i);
+                size = _segmentHeaderSize;
+            }
+
+            size += length;
+        }
+
+        if (bounds.isEmpty()) bounds.add(0);
+        bounds.add(live.size());
+
+        int count = bounds.size() - 1;
+
+        // outputs take the highest numbers of the compacted segments
+        if (count > last) return false;
+
+        int lowest = last - count + 1;
+        HashMap<Long, Location> moved = new HashMap<>();
+        ByteBuffer[] hints = new ByteBuffer[count];
+
+        try {
+            for (int i = 0; i < count; i++) {
+                hints[i] = _compact(lowest + i, lowest, live.subList(bounds.get(i), bounds.get(i + 1)), moved);
+            }
+        }
+        catch (IOException e) {
+
+            for (int i = 0; i < count; i++) {
+                //noinspection ResultOfMethodCallIgnored
+                _compactionFile(lowest + i).delete();
+            }
+
+            throw e;
+        }
+
+        ArrayList<Segment> outputs = new ArrayList<>(count);
+
+        lock.writeLock().lock();
+
+        try {
+
+            String[] names = directory.list();
+            if (names == null) throw new IOException("Could not list cache directory");
+
+            for (Segment one : new ArrayList<>(segments.headMap(last, true).values())) {
+
+                try {
+                    one.channel.close();
+                }
+                catch (IOException ignored) {
+                }
+
+                segments.remove(one.number);
+            }
+
+            _recoverCompaction(last, names);
+
+            for (int i = 0; i < count; i++) {
+
+                Segment segment = new Segment(lowest + i, _segmentFile(lowest + i));
+                segment.hints = hints[i];
+
+                segments.put(segment.number, segment);
+                outputs.add(segment);
+            }
+
+            for (Map.Entry<Long, Location> one : moved.entrySet()) {
+                index.put(one.getKey(), one.getValue());
+                segments.get(one.getValue().segment).liveBytes += one.getValue().length;
+            }
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+
+        for (Segment one : outputs) _writeHint(one);
+
+        return true;
+    }
+
+    /**
+     * Writes an output of a compaction
+     * @param number number of the output
+     * @param lowest number of the first output of the compaction
+     * @param records live records to be copied
+     * @param moved new locations of copied records, by file index
+     * @return hints of the output
+     * @throws IOException throws if the output could not be written
+     */
+    private ByteBuffer _compact(int number, int lowest, List<Map.Entry<Long, Location>> records, HashMap<Long, Location> moved) throws IOException {
+
+        ByteBuffer hints = ByteBuffer.allocate(Math.max(1, records.size()) * _hintEntrySize);
+
+        try (RandomAccessFile output = new RandomAccessFile(_compactionFile(number), "rw")) {
+
+            FileChannel channel = output.getChannel();
+            channel.truncate(0);
+
+            ByteBuffer header = ByteBuffer.allocate(_segmentHeaderSize);
+            header.putInt(_magic).putInt(_version).flip();
+            _writeFully(channel, header, 0);
+
+            long position = _segmentHeaderSize;
+
+            for (Map.Entry<Long, Location> one : records) {
+
+                Location location = one.getValue();
+                ByteBuffer record = ByteBuffer.allocate(location.length);
+
+                lock.readLock().lock();
+
+                try {
+                    _readFully(segments.get(location.segment).channel, record, location.offset);
+                }
+                finally {
+                    lock.readLock().unlock();
+                }
+
+                record.flip();
+                _writeFully(channel, record, position);
+
+                moved.put(one.getKey(), new Location(number, position, location.length));
+                hints = _hint(hints, _put, one.getKey(), position, location.length);
+                position += location.length;
+            }
+
+            // the seal record of the last output marks the compaction complete
+            ByteBuffer seal = _encode(_seal, records.size(), (long) lowest, null, null);
+            _writeFully(channel, seal, position);
+
+            channel.force(true);
+        }
+
+        return hints;
+    }
+}
@@ -0,0 +1,136 @@
+package shark.runtime;
+
+import java.util.LinkedHashMap;
+
+/**
+ * Changes of entries of a cache, collected to be applied together. Changes of an index replace
+ * the previous changes of the same index. When the batch is committed, all changes are serialized
+ * and committed to storage as a single atomic group of records while the cache holds back its
+ * other commits, then applied to entries and notified by a single
+ * {@link Cache#onEntriesModified} event.
+ *
+ * Either all or none of the changes are applied: if a change could not be serialized, or the
+ * group could not be stored, no entry is modified and the changes are kept in the batch, so that
+ * the batch could be committed again. After a crash, either all or none of the changes of a
+ * committed batch are found in the cache. Changes of a batch become visible to readers while they
+ * are applied, one entry after another.
+ * @param <TIndex> type of caching index
+ * @param <TData> type of caching data
+ */
+@SuppressWarnings("WeakerAccess")
+public final class CacheWriteBatch<TIndex, TData> {
+
+    /**
+     * Change of an entry
+     */
+    static final class Change<TData> {
+
+        final boolean isDeleted;
+        final TData data;
+        final long stampUtc;
+
+        Change(boolean isDeleted, TData data, long stampUtc) {
+            this.isDeleted = isDeleted;
+            this.data = data;
+            this.stampUtc = stampUtc;
+        }
+    }
+
+    private final Cache<TIndex, TData> cache;
+    private LinkedHashMap<TIndex, Change<TData>> changes = new LinkedHashMap<>();
+
+    CacheWriteBatch(Cache<TIndex, TData> cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Sets data of an entry. If the entry does not exist it will be created
+     * @param index index of the entry
+     * @param data data to be set to the entry
+     * @param lastModifiedUtc timestamp to be recorded as the last modification time of the entry
+     * @return current batch
+     */
+    public synchronized CacheWriteBatch<TIndex, TData> update(TIndex index, TData data, long lastModifiedUtc) {
+
+        if (index == null) throw new IllegalArgumentException("index is null");
+
+        changes.put(index, new Change<>(false, data, lastModifiedUtc));
+        return this;
+    }
+
+    /**
+     * Sets data of an entry. If the entry does not exist it will be created
+     * @param index index of the entry
+     * @param data data to be set to the entry
+     * @return current batch
+     */
+    public CacheWriteBatch<TIndex, TData> update(TIndex index, TData data) {
+        return update(index, data, System.currentTimeMillis());
+    }
+
+    /**
+     * Deletes an entry. Entries, which do not exist, are ignored
+     * @param index index of the entry
+     * @param actionStampUtc timestamp to be set as cache last modification time
+     * @return current batch
+     */
+    public synchronized CacheWriteBatch<TIndex, TData> delete(TIndex index, long actionStampUtc) {
+
+        if (index == null) throw new IllegalArgumentException("index is null");
+
+        changes.put(index, new Change<TData>(true, null, actionStampUtc));
+        return this;
+    }
+
+    /**
+     * Deletes an entry. Entries, which do not exist, are ignored
+     * @param index index of the entry
+     * @return current batch
+     */
+    public CacheWriteBatch<TIndex, TData> delete(TIndex index) {
+        return delete(index, System.currentTimeMillis());
+    }
+
+    /**
+     * Gets the number of changed entries
+     * @return number of entries
+     */
+    public synchronized int size() {
+        return changes.size();
+    }
+
+    /**
+     * Indicates whether the batch has no change or not
+     * @return true if the batch has no change; otherwise false
+     */
+    public synchronized boolean isEmpty() {
+        return changes.isEmpty();
+    }
+
+    /**
+     * Applies changes of the batch to the cache and empties the batch. This method blocks the
+     * calling thread until {@link shark.Framework} is started
+     * @return true if all changes are applied; otherwise false, no change is applied and the
+     * changes are kept in the batch then
+     */
+    public boolean commit() {
+
+        LinkedHashMap<TIndex, Change<TData>> committed;
+
+        synchronized (this) {
+            committed = changes;
+            changes = new LinkedHashMap<>();
+        }
+
+        if (cache._apply(committed)) return true;
+
+        synchronized (this) {
+
+            // changes made meanwhile supersede the ones, which could not be applied
+            committed.putAll(changes);
+            changes = committed;
+        }
+
+        return false;
+    }
+}
@@ -15,5 +15,12 @@ public enum CachingMode {
      * Caching data should be loaded ahead of time and should stay in memory as long as the
      * application is running
      */
-    Static
+    Static,
+
+    /**
+     * Caching data should only be loaded if requested by the application and should stay in
+     * memory until the cache reaches its maximum number of entries or maximum weight, entries
+     * are then evicted according to {@link CacheController#getEvictionPolicy()}
+     */
+    Bounded
 }
@@ -0,0 +1,20 @@
+package shark.runtime;
+
+/**
+ * Describes how caches in {@link CachingMode#Bounded} mode choose entries to be evicted once
+ * they reach their maximum size
+ */
+public enum EvictionPolicy {
+
+    /**
+     * The least recently used entry is evicted
+     */
+    LeastRecentlyUsed,
+
+    /**
+     * Window TinyLFU: new entries are admitted to a small LRU window, entries leaving the window
+     * only replace entries of the main region if they were used more frequently, as estimated by
+     * a frequency sketch. Hot entries are thus not flushed by scans of entries used once
+     */
+    TinyLfu
+}
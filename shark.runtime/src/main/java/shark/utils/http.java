@@ -166,14 +166,16 @@ public final class http {
         @SuppressWarnings("WeakerAccess")
         public <T> Promise<T> expect(Class<T> expect) {
 
-            return send().then(response -> {
+            return send().thenCompose(response -> {
+
+                //noinspection unchecked
+                if (expect == Response.class) return new Promise<>((T) response);
 
                 try {
-                    //noinspection unchecked
-                    return expect == Response.class ? (T) response : response != null && response.getStatus() == 200 ? response.getObject(expect).result() : null;
+                    return response != null && response.getStatus() == 200 ? response.getObject(expect) : new Promise<>(null);
                 }
                 catch (Exception e) {
-                    return null;
+                    return new Promise<>(null);
                 }
             });
         }
@@ -0,0 +1,145 @@
+package shark.runtime;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Filters and prefetching of {@link CacheCursor}
+ */
+public class CacheCursorTest {
+
+    public static final class Item {
+
+        int value;
+
+        Item(int value) {
+            this.value = value;
+        }
+    }
+
+    private static final int _count = 300;
+
+    private Cache<Integer, Item> cache;
+
+    @Before
+    public void setUp() throws Exception {
+
+        cache = CacheTestContext.cache(Integer.class, Item.class);
+
+        // entries are created at stamp 1000 + i and last modified at stamp 5000 + i
+        for (int i = 0; i < _count; i++) {
+            assertTrue(cache.update(i, new Item(-1), 1000 + i));
+            assertTrue(cache.update(i, new Item(i), 5000 + i));
+        }
+    }
+
+    private static ArrayList<Integer> _indexes(CacheCursor<Integer, Item> cursor) throws Exception {
+
+        ArrayList<Integer> indexes = new ArrayList<>();
+
+        for (CacheEntry<Integer, Item> entry : cursor) {
+            assertEquals(entry.getIndex().intValue(), entry.getData().value);
+            indexes.add(entry.getIndex());
+        }
+
+        Collections.sort(indexes);
+        return indexes;
+    }
+
+    private static ArrayList<Integer> _range(int from, int to, int step) {
+
+        ArrayList<Integer> indexes = new ArrayList<>();
+        for (int i = from; i < to; i += step) indexes.add(i);
+
+        return indexes;
+    }
+
+    @Test
+    public void allEntriesAreEnumerated() throws Exception {
+
+        assertEquals(_range(0, _count, 1), _indexes(cache.cursor().batch(7)));
+
+        // every enumeration starts over
+        CacheCursor<Integer, Item> cursor = cache.cursor().batch(64);
+
+        assertEquals(_range(0, _count, 1), _indexes(cursor));
+        assertEquals(_range(0, _count, 1), _indexes(cursor));
+    }
+
+    @Test
+    public void entriesAreFilteredByIndex() throws Exception {
+        assertEquals(_range(0, _count, 3), _indexes(cache.cursor().batch(10).whereIndex(index -> index % 3 == 0)));
+    }
+
+    @Test
+    public void entriesAreFilteredByStamps() throws Exception {
+
+        assertEquals(_range(100, 150, 1), _indexes(cache.cursor().modifiedBetween(5100, 5150)));
+        assertEquals(_range(20, 40, 1), _indexes(cache.cursor().createdBetween(1020, 1040)));
+
+        // filters are combined
+        assertEquals(_range(30, 40, 2), _indexes(cache.cursor()
+                .createdBetween(1020, 1040)
+                .modifiedBetween(5030, 6000)
+                .whereIndex(index -> index % 2 == 0)));
+    }
+
+    @Test
+    public void prefetchedBatchesAreEnumerated() throws Exception {
+
+        assertEquals(_range(0, _count, 1), _indexes(cache.cursor().batch(16).prefetch(4)));
+        assertEquals(_range(1, _count, 2), _indexes(cache.cursor().batch(5).prefetch(2).whereIndex(index -> index % 2 == 1)));
+    }
+
+    @Test
+    public void entriesAreEnumeratedWithoutData() throws Exception {
+
+        int count = 0;
+
+        for (CacheEntry<Integer, Item> entry : cache.cursor().loadData(false).batch(32)) {
+            assertNotNull(entry.getIndex());
+            count++;
+        }
+
+        assertEquals(_count, count);
+    }
+
+    @Test(timeout = 30000)
+    public void batchesRejectedByExecutorAreLoadedInline() throws Exception {
+
+        ITaskExecutor executor = Parallel.getExecutor();
+
+        Operator rejecting = new Operator(1, 1, 100);
+        rejecting.setCapacity(1);
+        rejecting.setOverflowPolicy(OverflowPolicy.Reject);
+
+        // the only thread of the operator is kept busy, and its queue full
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch gate = new CountDownLatch(1);
+
+        rejecting.queue(() -> {
+            started.countDown();
+            gate.await();
+        });
+
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        rejecting.queue(() -> { });
+
+        Parallel.setExecutor(rejecting);
+
+        try {
+            assertEquals(_range(0, _count, 1), _indexes(cache.cursor().batch(16).prefetch(4)));
+        }
+        finally {
+            Parallel.setExecutor(executor);
+            gate.countDown();
+        }
+    }
+}
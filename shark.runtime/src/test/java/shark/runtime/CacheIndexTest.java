@@ -0,0 +1,160 @@
+package shark.runtime;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+
+import shark.io.File;
+
+import static org.junit.Assert.*;
+
+/**
+ * Recovery of {@link CacheIndex} from a snapshot and a journal torn or corrupted by a crash
+ */
+public class CacheIndexTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private File _directory() {
+        return new File(folder.getRoot().getPath());
+    }
+
+    private static CacheIndex.Item _item(long fileIndex) {
+        return new CacheIndex.Item(fileIndex, new byte[] { (byte) fileIndex, 1, 2, 3 }, fileIndex * 10, fileIndex * 20);
+    }
+
+    private static ArrayList<CacheIndex.Item> _items(long from, long to) {
+
+        ArrayList<CacheIndex.Item> items = new ArrayList<>();
+        for (long i = from; i < to; i++) items.add(_item(i));
+
+        return items;
+    }
+
+    private static void _assertItem(HashMap<Long, CacheIndex.Item> items, long fileIndex) {
+
+        CacheIndex.Item item = items.get(fileIndex);
+
+        assertNotNull("Item " + fileIndex + " is not recovered", item);
+        assertArrayEquals(_item(fileIndex).key, item.key);
+        assertEquals(Long.valueOf(fileIndex * 10), item.creationStampUtc);
+        assertEquals(Long.valueOf(fileIndex * 20), item.lastModifiedUtc);
+    }
+
+    private File _file(String name) {
+        return new File(folder.getRoot().getPath() + "/" + name);
+    }
+
+    @Test
+    public void journalIsReplayed() throws IOException {
+
+        CacheIndex index = new CacheIndex(_directory());
+        assertTrue(index.open().isEmpty());
+
+        index.append(_items(1, 6), Collections.<Long>emptyList());
+        index.append(Collections.<CacheIndex.Item>emptyList(), Collections.singletonList(3L));
+
+        HashMap<Long, CacheIndex.Item> items = new CacheIndex(_directory()).open();
+
+        assertEquals(4, items.size());
+        for (long i : new long[] { 1, 2, 4, 5 }) _assertItem(items, i);
+        assertFalse(items.containsKey(3L));
+    }
+
+    @Test
+    public void tornJournalRecordIsTruncated() throws IOException {
+
+        CacheIndex index = new CacheIndex(_directory());
+        index.open();
+
+        index.append(_items(1, 4), Collections.<Long>emptyList());
+
+        try (RandomAccessFile journal = new RandomAccessFile(_file(".journal"), "rw")) {
+            journal.setLength(journal.length() - 3);
+        }
+
+        CacheIndex recovered = new CacheIndex(_directory());
+        HashMap<Long, CacheIndex.Item> items = recovered.open();
+
+        assertEquals(2, items.size());
+        _assertItem(items, 1);
+        _assertItem(items, 2);
+
+        // changes appended after the recovery follow the last intact record
+        recovered.append(_items(7, 8), Collections.<Long>emptyList());
+
+        items = new CacheIndex(_directory()).open();
+
+        assertEquals(3, items.size());
+        _assertItem(items, 7);
+    }
+
+    @Test
+    public void journalIsReplayedOverSnapshot() throws IOException {
+
+        CacheIndex index = new CacheIndex(_directory());
+        index.open();
+
+        index.append(_items(1, 4), Collections.<Long>emptyList());
+        index.snapshot(_items(1, 4));
+
+        assertEquals(0, _file(".journal").length());
+
+        index.append(_items(4, 6), Collections.singletonList(1L));
+
+        HashMap<Long, CacheIndex.Item> items = new CacheIndex(_directory()).open();
+
+        assertEquals(4, items.size());
+        for (long i = 2; i < 6; i++) _assertItem(items, i);
+    }
+
+    @Test
+    public void corruptedSnapshotFallsBackToJournal() throws IOException {
+
+        CacheIndex index = new CacheIndex(_directory());
+        index.open();
+
+        index.snapshot(_items(1, 4));
+        index.append(_items(4, 6), Collections.<Long>emptyList());
+
+        try (RandomAccessFile snapshot = new RandomAccessFile(_file(".index"), "rw")) {
+            snapshot.seek(20);
+            snapshot.write(snapshot.read() ^ 0xFF);
+        }
+
+        // the storage stays authoritative, entries missing from the index are decoded from it
+        HashMap<Long, CacheIndex.Item> items = new CacheIndex(_directory()).open();
+
+        assertEquals(2, items.size());
+        _assertItem(items, 4);
+        _assertItem(items, 5);
+    }
+
+    @Test
+    public void interruptedSnapshotIsDiscarded() throws IOException {
+
+        CacheIndex index = new CacheIndex(_directory());
+        index.open();
+
+        index.snapshot(_items(1, 4));
+        index.append(_items(4, 5), Collections.<Long>emptyList());
+
+        // a snapshot torn before it was renamed over the previous one
+        try (RandomAccessFile temporary = new RandomAccessFile(_file(".index.tmp"), "rw")) {
+            temporary.write(new byte[] { 0x53, 0x48, 0x4B });
+        }
+
+        HashMap<Long, CacheIndex.Item> items = new CacheIndex(_directory()).open();
+
+        assertEquals(4, items.size());
+        for (long i = 1; i < 5; i++) _assertItem(items, i);
+        assertFalse(_file(".index.tmp").exists());
+    }
+}
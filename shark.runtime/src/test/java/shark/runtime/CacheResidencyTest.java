@@ -0,0 +1,133 @@
+package shark.runtime;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Eviction and admission of {@link CacheResidency}
+ */
+public class CacheResidencyTest {
+
+    private static final int _size = 100;
+    private static final int _hotCount = 50;
+
+    private static Object[] _values(int count) {
+
+        Object[] values = new Object[count];
+        for (int i = 0; i < count; i++) values[i] = new Object();
+
+        return values;
+    }
+
+    /**
+     * Fills a residency, uses half of its entries repeatedly and then scans entries used once
+     * @return number of frequently used entries, which are still kept after the scan
+     */
+    private static int _keptAfterScan(CacheResidency<Integer, Object> residency) {
+
+        Object[] values = _values(_size * 11);
+
+        for (int i = 0; i < _size; i++) residency.access(i, values[i], 1);
+
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < _hotCount; i++) residency.access(i, values[i], 1);
+        }
+
+        for (int i = _size; i < values.length; i++) residency.access(i, values[i], 1);
+
+        int kept = 0;
+        for (int i = 0; i < _hotCount; i++) if (residency.contains(i)) kept++;
+
+        return kept;
+    }
+
+    @Test
+    public void leastRecentlyUsedEntriesAreEvicted() {
+
+        CacheStatistics statistics = new CacheStatistics();
+        CacheResidency<Integer, Object> residency = new CacheResidency<>(EvictionPolicy.LeastRecentlyUsed, 10, 0, statistics);
+
+        Object[] values = _values(21);
+        for (int i = 0; i < 20; i++) residency.access(i, values[i], 1);
+
+        assertEquals(10, statistics.getResidentCount());
+        assertEquals(10, statistics.getEvictionCount());
+
+        for (int i = 0; i < 10; i++) assertFalse(residency.contains(i));
+        for (int i = 10; i < 20; i++) assertTrue(residency.contains(i));
+
+        // a used entry is no longer the least recently used one
+        residency.access(10, values[10], 1);
+        residency.access(20, values[20], 1);
+
+        assertTrue(residency.contains(10));
+        assertFalse(residency.contains(11));
+        assertEquals(11, statistics.getEvictionCount());
+    }
+
+    @Test
+    public void entriesAreEvictedByWeight() {
+
+        CacheStatistics statistics = new CacheStatistics();
+        CacheResidency<Integer, Object> residency = new CacheResidency<>(EvictionPolicy.LeastRecentlyUsed, 0, 100, statistics);
+
+        Object[] values = _values(5);
+        for (int i = 0; i < 3; i++) residency.access(i, values[i], 30);
+
+        assertEquals(3, statistics.getResidentCount());
+        assertEquals(90, statistics.getResidentWeight());
+
+        // the weight of an entry could grow once it is stored
+        residency.weigh(2, 50);
+
+        assertFalse(residency.contains(0));
+        assertEquals(2, statistics.getResidentCount());
+        assertEquals(80, statistics.getResidentWeight());
+
+        // an entry heavier than the maximum is never kept
+        residency.access(3, values[3], 101);
+
+        assertFalse(residency.contains(3));
+        assertTrue(residency.contains(1) && residency.contains(2));
+        assertEquals(2, statistics.getEvictionCount());
+    }
+
+    @Test
+    public void removedEntryIsNotCountedAsEvicted() {
+
+        CacheStatistics statistics = new CacheStatistics();
+        CacheResidency<Integer, Object> residency = new CacheResidency<>(EvictionPolicy.TinyLfu, 10, 0, statistics);
+
+        Object[] values = _values(2);
+        residency.access(0, values[0], 1);
+        residency.access(1, values[1], 1);
+
+        residency.remove(0);
+
+        assertFalse(residency.contains(0));
+        assertTrue(residency.contains(1));
+        assertEquals(1, statistics.getResidentCount());
+        assertEquals(0, statistics.getEvictionCount());
+    }
+
+    @Test
+    public void frequentlyUsedEntriesSurviveScan() {
+
+        CacheStatistics statistics = new CacheStatistics();
+        CacheResidency<Integer, Object> residency = new CacheResidency<>(EvictionPolicy.TinyLfu, _size, 0, statistics);
+
+        assertEquals(_hotCount, _keptAfterScan(residency));
+        assertEquals(_size, statistics.getResidentCount());
+    }
+
+    @Test
+    public void scanDisplacesEntriesUnderLeastRecentlyUsed() {
+
+        CacheStatistics statistics = new CacheStatistics();
+        CacheResidency<Integer, Object> residency = new CacheResidency<>(EvictionPolicy.LeastRecentlyUsed, _size, 0, statistics);
+
+        assertEquals(0, _keptAfterScan(residency));
+        assertEquals(_size, statistics.getResidentCount());
+    }
+}
@@ -0,0 +1,159 @@
+package shark.runtime;
+
+import org.junit.Test;
+
+import java.util.Comparator;
+
+import static org.junit.Assert.*;
+
+/**
+ * Lookups and range scans of {@link CacheSecondaryIndex}
+ */
+public class CacheSecondaryIndexTest {
+
+    public static final class Person {
+
+        String name;
+        int age;
+
+        Person(String name, int age) {
+            this.name = name;
+            this.age = age;
+        }
+    }
+
+    private static CacheSecondaryIndex<Integer, Person, Integer> _ordered() {
+        return new CacheSecondaryIndex<>("age", Integer.class, person -> person.age, (Comparator<Integer>) (a, b) -> Integer.compare(a, b));
+    }
+
+    /**
+     * Key, whose hash code collides with the hash codes of other keys
+     */
+    private static final class Colliding {
+
+        final String value;
+
+        Colliding(String value) {
+            this.value = value;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Colliding && ((Colliding) other).value.equals(value);
+        }
+
+        @Override
+        public int hashCode() {
+            return 1;
+        }
+    }
+
+    @Test
+    public void entriesWithEqualKeysAreFoundInOrderOfCreation() {
+
+        CacheSecondaryIndex<Integer, Person, Integer> index = _ordered();
+
+        index._put(3, 30, 40);
+        index._put(1, 10, 40);
+        index._put(2, 20, 20);
+
+        assertArrayEquals(new Integer[] { 1, 3 }, index.find(40));
+        assertArrayEquals(new Integer[] { 2 }, index.find(20));
+        assertArrayEquals(new Integer[0], index.find(30));
+        assertArrayEquals(new Integer[0], index.find(null));
+
+        assertEquals(3, index.size());
+        assertEquals(Integer.valueOf(40), index.getKey(3));
+    }
+
+    @Test
+    public void rangeIsScannedInOrderOfKeys() {
+
+        CacheSecondaryIndex<Integer, Person, Integer> index = _ordered();
+
+        for (int i = 0; i < 10; i++) index._put(i, i, 90 - i * 10);
+
+        assertArrayEquals(new Integer[] { 7, 6, 5 }, index.range(20, 50));
+        assertArrayEquals(new Integer[] { 9, 8 }, index.range(null, 20));
+        assertArrayEquals(new Integer[] { 1, 0 }, index.range(80, null));
+        assertEquals(10, index.range(null, null).length);
+        assertArrayEquals(new Integer[0], index.range(35, 40));
+    }
+
+    @Test
+    public void changedKeyReplacesPreviousKey() {
+
+        CacheSecondaryIndex<Integer, Person, Integer> index = _ordered();
+
+        index._put(1, 10, 40);
+        index._put(1, 10, 50);
+
+        assertArrayEquals(new Integer[0], index.find(40));
+        assertArrayEquals(new Integer[] { 1 }, index.find(50));
+        assertEquals(1, index.size());
+
+        // a null key stops indexing the entry
+        index._put(1, 10, null);
+
+        assertArrayEquals(new Integer[0], index.find(50));
+        assertNull(index.getKey(1));
+        assertEquals(0, index.size());
+
+        index._put(2, 20, 60);
+        index._remove(2);
+
+        assertArrayEquals(new Integer[0], index.range(null, null));
+    }
+
+    @Test
+    public void unorderedIndexSeparatesCollidingKeys() {
+
+        CacheSecondaryIndex<Integer, Person, Colliding> index = new CacheSecondaryIndex<>("colliding", Integer.class, null, null);
+
+        index._put(1, 10, new Colliding("a"));
+        index._put(2, 20, new Colliding("b"));
+        index._put(3, 30, new Colliding("a"));
+
+        assertFalse(index.isOrdered());
+        assertArrayEquals(new Integer[] { 1, 3 }, index.find(new Colliding("a")));
+        assertArrayEquals(new Integer[] { 2 }, index.find(new Colliding("b")));
+
+        try {
+            index.range(null, null);
+            fail("Range of an index, which is not ordered, is scanned");
+        }
+        catch (UnsupportedOperationException ignored) {
+        }
+    }
+
+    @Test
+    public void indexFollowsModificationsOfCache() throws Exception {
+
+        Cache<Integer, Person> cache = CacheTestContext.cache(Integer.class, Person.class);
+
+        assertTrue(cache.update(1, new Person("a", 30)));
+        assertTrue(cache.update(2, new Person("b", 20)));
+
+        // entries existing when the index is added are indexed by the cache
+        CacheSecondaryIndex<Integer, Person, Integer> index = cache.addOrderedIndex("age", person -> person.age);
+
+        try {
+            assertArrayEquals(new Integer[] { 2, 1 }, index.range(null, null));
+
+            assertTrue(cache.update(3, new Person("c", 25)));
+            assertTrue(cache.update(1, new Person("a", 10)));
+
+            assertArrayEquals(new Integer[] { 1, 2, 3 }, index.range(null, null));
+            assertArrayEquals(new Integer[] { 3 }, index.find(25));
+
+            assertTrue(cache.delete(2));
+
+            assertArrayEquals(new Integer[] { 1, 3 }, index.range(null, null));
+            assertNull(index.getKey(2));
+            assertSame(index, cache.getIndex("age"));
+        }
+        finally {
+            assertTrue(cache.removeIndex("age"));
+        }
+    }
+}
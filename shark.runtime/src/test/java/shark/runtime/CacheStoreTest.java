@@ -0,0 +1,318 @@
+package shark.runtime;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import shark.io.File;
+
+import static org.junit.Assert.*;
+
+/**
+ * Recovery of {@link CacheStore} from segments torn or corrupted by a crash
+ */
+public class CacheStoreTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private static final int _payloadSize = 3000;
+
+    private File _directory(String name) {
+        return new File(folder.getRoot().getPath() + "/" + name);
+    }
+
+    private static CacheStore _open(File directory) throws IOException {
+
+        CacheStore store = new CacheStore(directory, false);
+        store.open();
+
+        return store;
+    }
+
+    private static byte[] _payload(long fileIndex) {
+
+        byte[] payload = new byte[_payloadSize];
+        payload[0] = (byte) fileIndex;
+        payload[_payloadSize - 1] = (byte) (fileIndex >>> 8);
+
+        return payload;
+    }
+
+    private static void _put(CacheStore store, long from, long to) throws IOException {
+
+        CacheStore.Batch batch = new CacheStore.Batch();
+        for (long i = from; i < to; i++) batch.put(i, 1L, 2L, _payload(i));
+
+        store.commit(batch);
+    }
+
+    private static void _assertStored(CacheStore store, long fileIndex) throws IOException {
+
+        CacheStore.Record record = store.read(fileIndex, false);
+
+        assertNotNull("Entry " + fileIndex + " is not stored", record);
+        assertEquals(_payloadSize, record.payload.remaining());
+        assertEquals((byte) fileIndex, record.payload.get(0));
+        assertEquals((byte) (fileIndex >>> 8), record.payload.get(_payloadSize - 1));
+    }
+
+    private static void _truncate(File file, long count) throws IOException {
+        try (RandomAccessFile output = new RandomAccessFile(file, "rw")) {
+            output.setLength(output.length() - count);
+        }
+    }
+
+    private static void _corrupt(File file, long position) throws IOException {
+        try (RandomAccessFile output = new RandomAccessFile(file, "rw")) {
+            output.seek(position);
+            int value = output.read();
+            output.seek(position);
+            output.write(value ^ 0xFF);
+        }
+    }
+
+    private static void _copy(File from, File to) throws IOException {
+
+        assertTrue(to.mkdirs());
+
+        //noinspection ConstantConditions
+        for (String name : from.list()) Files.copy(Paths.get(from.getPath(), name), Paths.get(to.getPath(), name));
+    }
+
+    private static File _file(File directory, String name) {
+        return new File(directory + "/" + name);
+    }
+
+    @Test
+    public void tornRecordIsTruncated() throws IOException {
+
+        File directory = _directory("torn");
+
+        CacheStore store = _open(directory);
+        for (long i = 1; i <= 3; i++) _put(store, i, i + 1);
+
+        _truncate(_file(directory, "1.segment"), 10);
+
+        CacheStore recovered = _open(directory);
+
+        _assertStored(recovered, 1);
+        _assertStored(recovered, 2);
+        assertFalse(recovered.contains(3));
+
+        // records appended after the recovery follow the last intact record
+        _put(recovered, 4, 5);
+
+        CacheStore reopened = _open(directory);
+
+        _assertStored(reopened, 2);
+        _assertStored(reopened, 4);
+        assertFalse(reopened.contains(3));
+    }
+
+    @Test
+    public void recordsAfterCorruptedRecordAreDiscarded() throws IOException {
+
+        File directory = _directory("corrupted");
+
+        CacheStore store = _open(directory);
+        for (long i = 1; i <= 3; i++) _put(store, i, i + 1);
+
+        // payload of the second record, after the segment header and the first record
+        _corrupt(_file(directory, "1.segment"), 8 + (4 + 25 + _payloadSize + 4) + 100);
+
+        CacheStore recovered = _open(directory);
+
+        _assertStored(recovered, 1);
+        assertFalse(recovered.contains(2));
+        assertFalse(recovered.contains(3));
+    }
+
+    @Test
+    public void incompleteGroupIsDiscarded() throws IOException {
+
+        File directory = _directory("group");
+
+        CacheStore store = _open(directory);
+        _put(store, 1, 2);
+
+        CacheStore.Batch complete = new CacheStore.Batch(true);
+        for (long i = 10; i < 15; i++) complete.put(i, 1L, 2L, _payload(i));
+        store.commit(complete);
+
+        CacheStore.Batch torn = new CacheStore.Batch(true);
+        for (long i = 20; i < 25; i++) torn.put(i, 1L, 2L, _payload(i));
+        torn.delete(1, 3L);
+        store.commit(torn);
+
+        // the tombstone closing the group is torn
+        _truncate(_file(directory, "1.segment"), 5);
+
+        CacheStore recovered = _open(directory);
+
+        _assertStored(recovered, 1);
+        for (long i = 10; i < 15; i++) _assertStored(recovered, i);
+        for (long i = 20; i < 25; i++) assertFalse(recovered.contains(i));
+    }
+
+    @Test
+    public void sealedSegmentsAreRecoveredFromHints() throws IOException {
+
+        File directory = _directory("hints");
+
+        CacheStore store = _open(directory);
+        for (long i = 0; i < 3000; i += 500) _put(store, i, i + 500);
+
+        assertTrue(_file(directory, "1.hint").exists());
+
+        // a corrupted record of a sealed segment is not read on recovery, but by the verification
+        _corrupt(_file(directory, "1.segment"), 8 + 100);
+
+        CacheStore recovered = _open(directory);
+
+        assertEquals(3000, recovered.fileIndexes().length);
+        assertNull(recovered.verify(0));
+        assertFalse(recovered.contains(0));
+        assertNotNull(recovered.verify(1));
+
+        CacheStore reopened = _open(directory);
+
+        assertFalse(reopened.contains(0));
+        for (long i = 1; i < 3000; i++) _assertStored(reopened, i);
+    }
+
+    @Test
+    public void corruptedHintIsIgnored() throws IOException {
+
+        File directory = _directory("hint");
+
+        CacheStore store = _open(directory);
+        for (long i = 0; i < 3000; i += 500) _put(store, i, i + 500);
+
+        _corrupt(_file(directory, "1.hint"), 30);
+
+        CacheStore recovered = _open(directory);
+        for (long i = 0; i < 3000; i++) _assertStored(recovered, i);
+    }
+
+    /**
+     * Compacts a store, whose sealed segments are mostly outdated
+     * @param directory directory of the store
+     * @param before directory to which the store is copied before the compaction
+     * @return numbers of the compaction outputs
+     * @throws IOException throws if the store could not be written
+     */
+    private static ArrayList<String> _compact(File directory, File before) throws IOException {
+
+        CacheStore store = _open(directory);
+        for (long i = 0; i < 6000; i += 1000) _put(store, i, i + 1000);
+
+        CacheStore.Batch batch = new CacheStore.Batch();
+        for (long i = 0; i < 6000; i++) if (i % 3 != 0) batch.delete(i, 3L);
+        store.commit(batch);
+
+        _copy(directory, before);
+
+        String active = _activeSegment(directory);
+        assertTrue(store.compact());
+
+        ArrayList<String> outputs = new ArrayList<>();
+
+        //noinspection ConstantConditions
+        for (String name : directory.list()) {
+            if (name.endsWith(".segment") && !name.equals(active)) outputs.add(name.substring(0, name.length() - ".segment".length()));
+        }
+
+        return outputs;
+    }
+
+    private static String _activeSegment(File directory) {
+
+        int last = 0;
+
+        //noinspection ConstantConditions
+        for (String name : directory.list()) {
+            if (name.endsWith(".segment")) last = Math.max(last, Integer.parseInt(name.substring(0, name.length() - ".segment".length())));
+        }
+
+        return last + ".segment";
+    }
+
+    private static void _assertCompacted(CacheStore store) throws IOException {
+
+        assertEquals(2000, store.fileIndexes().length);
+        for (long i = 0; i < 6000; i += 3) _assertStored(store, i);
+    }
+
+    @Test
+    public void compactionIsCappedAndRecovered() throws IOException {
+
+        File directory = _directory("compacted");
+        ArrayList<String> outputs = _compact(directory, _directory("compacted.before"));
+
+        assertTrue(outputs.size() > 1);
+
+        for (String number : outputs) {
+            assertTrue(_file(directory, number + ".segment").length() <= 4 * 1024 * 1024);
+            assertTrue(_file(directory, number + ".hint").exists());
+        }
+
+        _assertCompacted(_open(directory));
+    }
+
+    @Test
+    public void interruptedCompactionIsCompleted() throws IOException {
+
+        File directory = _directory("interrupted");
+        File before = _directory("interrupted.before");
+        ArrayList<String> outputs = _compact(directory, before);
+
+        // crashed while outputs replace compacted segments: the first output is renamed already
+        for (int i = 0; i < outputs.size(); i++) {
+
+            String number = outputs.get(i);
+            String target = i == 0 ? number + ".segment" : number + ".compact";
+
+            if (i == 0) Files.deleteIfExists(Paths.get(before.getPath(), number + ".hint"));
+            Files.copy(Paths.get(directory.getPath(), number + ".segment"), Paths.get(before.getPath(), target), StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        _assertCompacted(_open(before));
+
+        //noinspection ConstantConditions
+        for (String name : before.list()) assertFalse(name, name.endsWith(".compact"));
+    }
+
+    @Test
+    public void tornCompactionIsDiscarded() throws IOException {
+
+        File directory = _directory("discarded");
+        File before = _directory("discarded.before");
+        ArrayList<String> outputs = _compact(directory, before);
+
+        for (String number : outputs) {
+            Files.copy(Paths.get(directory.getPath(), number + ".segment"), Paths.get(before.getPath(), number + ".compact"));
+        }
+
+        // the seal record of the last output is torn, the compaction did not complete
+        String[] numbers = outputs.toArray(new String[0]);
+        Arrays.sort(numbers, (a, b) -> Integer.parseInt(a) - Integer.parseInt(b));
+        _truncate(_file(before, numbers[numbers.length - 1] + ".compact"), 10);
+
+        CacheStore recovered = _open(before);
+
+        _assertCompacted(recovered);
+        assertTrue(_file(before, "1.segment").exists());
+
+        //noinspection ConstantConditions
+        for (String name : before.list()) assertFalse(name, name.endsWith(".compact"));
+    }
+}
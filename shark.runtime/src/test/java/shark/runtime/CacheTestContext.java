@@ -0,0 +1,55 @@
+package shark.runtime;
+
+import android.content.ContextWrapper;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import shark.Framework;
+
+/**
+ * Initialises the framework once for tests of caches, with a temporary data directory
+ */
+final class CacheTestContext {
+
+    private static File directory = null;
+
+    private CacheTestContext() {
+    }
+
+    private static synchronized void _initialise() throws Exception {
+
+        if (directory != null) return;
+
+        directory = Files.createTempDirectory("shark").toFile();
+
+        final File files = directory;
+
+        Framework.initialise(new ContextWrapper(null) {
+            @Override
+            public File getFilesDir() {
+                return files;
+            }
+        }).result();
+    }
+
+    /**
+     * Gets a cache once it is warmed up, with no entry
+     * @param index class of the cache index
+     * @param data class of the cache data
+     * @param <TIndex> type of cache index
+     * @param <TData> type of cache data
+     * @return cache
+     * @throws Exception throws if the cache could not be initialised
+     */
+    static <TIndex, TData> Cache<TIndex, TData> cache(Class<TIndex> index, Class<TData> data) throws Exception {
+
+        _initialise();
+
+        Cache<TIndex, TData> cache = Cache.get(index, data).result();
+        cache.getWarmUp().result();
+        cache.clear();
+
+        return cache;
+    }
+}
@@ -0,0 +1,144 @@
+package shark.runtime;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import shark.runtime.serialization.SerializationException;
+import shark.runtime.serialization.Serializer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Atomicity of {@link CacheWriteBatch#commit()}
+ */
+public class CacheWriteBatchTest {
+
+    public static final class Note {
+
+        String text;
+
+        Note(String text) {
+            this.text = text;
+        }
+    }
+
+    private static final String _poison = "poison";
+
+    /**
+     * Serializer, which fails to serialize notes with the poisoned text
+     */
+    private static final class PoisonedSerializer extends Serializer {
+
+        private final Serializer serializer;
+
+        PoisonedSerializer(Serializer serializer) {
+            this.serializer = serializer;
+        }
+
+        private static void _check(Object data) throws SerializationException {
+            if (data instanceof Note && _poison.equals(((Note) data).text)) throw new SerializationException("Note is poisoned", null);
+        }
+
+        @Override
+        public void serialize(OutputStream output, Object data) throws SerializationException {
+            _check(data);
+            serializer.serialize(output, data);
+        }
+
+        @Override
+        public void serializeWithLengthPrefix(OutputStream output, Object data) throws SerializationException {
+            _check(data);
+            serializer.serializeWithLengthPrefix(output, data);
+        }
+
+        @Override
+        public <T> T deserialize(InputStream input, Class<T> type) throws SerializationException {
+            return serializer.deserialize(input, type);
+        }
+
+        @Override
+        public <T> T deserializeWithLengthPrefix(InputStream input, Class<T> type) throws SerializationException {
+            return serializer.deserializeWithLengthPrefix(input, type);
+        }
+    }
+
+    private Cache<Integer, Note> cache;
+    private Serializer serializer;
+
+    @Before
+    public void setUp() throws Exception {
+
+        cache = CacheTestContext.cache(Integer.class, Note.class);
+
+        serializer = cache.getSerializer();
+        cache.setSerializer(new PoisonedSerializer(serializer));
+    }
+
+    @After
+    public void tearDown() {
+        cache.setSerializer(serializer);
+    }
+
+    private String _text(int index) throws Exception {
+
+        CacheEntry<Integer, Note> entry = cache.get(index);
+        return entry == null ? null : entry.getData().text;
+    }
+
+    @Test
+    public void allChangesAreApplied() throws Exception {
+
+        assertTrue(cache.update(1, new Note("a")));
+        assertTrue(cache.update(2, new Note("b")));
+
+        CacheWriteBatch<Integer, Note> batch = cache.batch()
+                .update(1, new Note("a2"))
+                .update(3, new Note("c"))
+                .delete(2);
+
+        assertEquals(3, batch.size());
+        assertTrue(batch.commit());
+        assertTrue(batch.isEmpty());
+
+        assertEquals("a2", _text(1));
+        assertNull(_text(2));
+        assertEquals("c", _text(3));
+    }
+
+    @Test
+    public void noChangeIsAppliedIfOneFails() throws Exception {
+
+        assertTrue(cache.update(1, new Note("a")));
+        assertTrue(cache.update(2, new Note("b")));
+
+        CacheWriteBatch<Integer, Note> batch = cache.batch()
+                .update(1, new Note("a2"))
+                .delete(2)
+                .update(3, new Note(_poison))
+                .update(4, new Note("d"));
+
+        assertFalse(batch.commit());
+
+        assertEquals("a", _text(1));
+        assertEquals("b", _text(2));
+        assertNull(_text(3));
+        assertNull(_text(4));
+
+        // changes are kept, so that the batch could be committed again
+        assertEquals(4, batch.size());
+
+        batch.update(3, new Note("c"));
+
+        assertTrue(batch.commit());
+        assertTrue(batch.isEmpty());
+
+        assertEquals("a2", _text(1));
+        assertNull(_text(2));
+        assertEquals("c", _text(3));
+        assertEquals("d", _text(4));
+    }
+}